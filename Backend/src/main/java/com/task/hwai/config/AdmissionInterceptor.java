@@ -0,0 +1,80 @@
+package com.task.hwai.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.task.hwai.service.AdmissionService;
+import com.task.hwai.service.AdmissionService.Work;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies {@link AdmissionService} to the endpoints that start OCR/LLM work:
+ * synchronous extractions hold an in-flight slot until the response is done,
+ * uploads and batch submissions are refused while the run queue is full.
+ * Batches admit each run again as it is registered.
+ */
+public class AdmissionInterceptor implements HandlerInterceptor {
+
+    private static final String PERMIT = AdmissionInterceptor.class.getName() + ".permit";
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final AdmissionService admission;
+
+    public AdmissionInterceptor(AdmissionService admission) {
+        this.admission = admission;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!"POST".equals(request.getMethod())) return true;
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+
+        if (path.startsWith("/v1/uploads")) {
+            var rejection = admission.admitRun();
+            return rejection == null || reject(response, rejection);
+        }
+        if (path.equals("/v1/batches")) {
+            // turned away early when full; BatchController admits each of its runs as it registers them
+            var rejection = admission.queueFull();
+            return rejection == null || reject(response, rejection);
+        }
+
+        Set<Work> work = workFor(path);
+        if (work.isEmpty()) return true;
+        var permit = admission.tryAcquire(work);
+        if (permit == null) return reject(response, admission.rejection(work));
+        request.setAttribute(PERMIT, permit);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(PERMIT) instanceof AdmissionService.Permit permit) permit.close();
+    }
+
+    private static Set<Work> workFor(String path) {
+        if (path.startsWith("/v1/langchain/extract/simple") || path.startsWith("/v1/langchain/extract/agent")) {
+            return EnumSet.of(Work.OCR, Work.LLM);
+        }
+        if (path.startsWith("/v1/langchain/extract/")) return EnumSet.of(Work.LLM);
+        return EnumSet.noneOf(Work.class);
+    }
+
+    private static boolean reject(HttpServletResponse response, AdmissionService.Rejection rejection) throws Exception {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", String.valueOf(rejection.retryAfterSeconds()));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write(JSON.writeValueAsString(Map.of(
+                "success", false,
+                "error", rejection.reason(),
+                "retryAfterSeconds", rejection.retryAfterSeconds())));
+        return false;
+    }
+}
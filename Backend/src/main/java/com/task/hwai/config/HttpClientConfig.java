@@ -1,6 +1,7 @@
 package com.task.hwai.config;
 
 import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -10,11 +11,15 @@ import java.util.concurrent.TimeUnit;
 public class HttpClientConfig {
 
     @Bean
-    public OkHttpClient okHttpClient() {
+    public OkHttpClient okHttpClient(
+            @Value("${http.client.connectTimeoutSeconds:10}") long connectTimeout,
+            @Value("${http.client.readTimeoutSeconds:300}") long readTimeout,
+            @Value("${http.client.writeTimeoutSeconds:300}") long writeTimeout
+    ) {
         return new OkHttpClient.Builder()
-                .connectTimeout(300, TimeUnit.SECONDS)  // Connection timeout
-                .readTimeout(300, TimeUnit.SECONDS)     // Read timeout
-                .writeTimeout(300, TimeUnit.SECONDS)    // Write timeout
+                .connectTimeout(connectTimeout, TimeUnit.SECONDS)  // Connection timeout; a dead OCR host should fail fast
+                .readTimeout(readTimeout, TimeUnit.SECONDS)        // Read timeout
+                .writeTimeout(writeTimeout, TimeUnit.SECONDS)      // Write timeout
                 .retryOnConnectionFailure(true)
                 .build();
     }
@@ -0,0 +1,57 @@
+package com.task.hwai.config;
+
+import com.task.hwai.service.BlobStore;
+import com.task.hwai.service.LocalBlobStore;
+import com.task.hwai.service.S3BlobStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Configuration
+public class StorageConfig {
+
+    @Bean
+    public BlobStore blobStore(
+            @Value("${app.storage.backend:local}") String backend,
+            @Value("${app.storage.localDir}") String localDir,
+            @Value("${app.storage.s3.bucket:}") String bucket,
+            @Value("${app.storage.s3.region:us-east-1}") String region,
+            @Value("${app.storage.s3.endpoint:}") String endpoint,      // e.g. http://minio:9000 for a local stand-in
+            @Value("${app.storage.s3.pathStyle:false}") boolean pathStyle,
+            @Value("${app.storage.s3.accessKey:}") String accessKey,
+            @Value("${app.storage.s3.secretKey:}") String secretKey,
+            @Value("${app.storage.s3.partSizeBytes:8388608}") long partSize,
+            @Value("${app.storage.s3.parallelism:4}") int parallelism,
+            @Value("${app.storage.cache.maxBytes:2147483648}") long cacheMaxBytes,
+            @Value("${app.storage.cache.pinSeconds:600}") long pinSeconds
+    ) {
+        Path base = Path.of(localDir);
+        if (!"s3".equalsIgnoreCase(backend)) {
+            return new LocalBlobStore(base.resolve("blobs"));
+        }
+        if (bucket.isBlank()) {
+            throw new IllegalStateException("app.storage.s3.bucket must be set when app.storage.backend=s3");
+        }
+
+        var builder = S3Client.builder()
+                .region(Region.of(region))
+                .forcePathStyle(pathStyle);
+        if (!endpoint.isBlank()) builder.endpointOverride(URI.create(endpoint));
+        builder.credentialsProvider(accessKey.isBlank()
+                ? DefaultCredentialsProvider.create()
+                : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)));
+
+        System.out.println("[STORAGE] Using S3 bucket " + bucket + (endpoint.isBlank() ? "" : " at " + endpoint));
+        return new S3BlobStore(builder.build(), bucket, base.resolve("cache"), partSize, parallelism, cacheMaxBytes,
+                Duration.ofSeconds(pinSeconds));
+    }
+}
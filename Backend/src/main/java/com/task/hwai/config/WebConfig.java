@@ -0,0 +1,26 @@
+package com.task.hwai.config;
+
+import com.task.hwai.service.AdmissionService;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private final ObjectProvider<AdmissionService> admission;
+
+    public WebConfig(ObjectProvider<AdmissionService> admission) {
+        this.admission = admission;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // Absent in sliced web tests, which only load controllers.
+        AdmissionService service = admission.getIfAvailable();
+        if (service == null) return;
+        registry.addInterceptor(new AdmissionInterceptor(service))
+                .addPathPatterns("/v1/langchain/extract/**", "/v1/uploads", "/v1/uploads/stream", "/v1/batches");
+    }
+}
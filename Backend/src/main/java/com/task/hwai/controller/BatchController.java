@@ -0,0 +1,345 @@
+package com.task.hwai.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.task.hwai.entity.BatchEntity;
+import com.task.hwai.entity.ExtractionEntity;
+import com.task.hwai.entity.FileEntity;
+import com.task.hwai.entity.RunEntity;
+import com.task.hwai.model.BatchState;
+import com.task.hwai.model.OcrEngine;
+import com.task.hwai.model.RunPriority;
+import com.task.hwai.model.RunStatus;
+import com.task.hwai.model.UploadResponse;
+import com.task.hwai.repo.BatchRepo;
+import com.task.hwai.repo.ExtractionRepo;
+import com.task.hwai.repo.FileRepo;
+import com.task.hwai.repo.RunRepo;
+import com.task.hwai.service.AdmissionService;
+import com.task.hwai.service.MultipartStreamReader;
+import com.task.hwai.service.RunSubmissionService;
+import com.task.hwai.service.StorageService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Many forms in one request: a multipart list of files and/or zip archives, or a raw
+ * zip body. Every accepted file becomes a file with a queued run linked to the batch,
+ * whose progress and results are then read with one call each instead of one poll
+ * loop per run. Like {@code /uploads/stream}, the body is read in a single pass, so
+ * metadata comes from headers.
+ */
+@RestController
+@RequestMapping("/v1")
+@CrossOrigin(origins = "*")
+public class BatchController {
+
+    private static final int PAGE = 500;
+    private static final Pattern SUPPORTED = Pattern.compile("(?i).+\\.(png|jpe?g|pdf|tiff?)$");
+    private static final ObjectMapper M = new ObjectMapper();
+
+    private final StorageService storage;
+    private final RunSubmissionService submissions;
+    private final BatchRepo batchRepo;
+    private final RunRepo runRepo;
+    private final FileRepo fileRepo;
+    private final ExtractionRepo extractionRepo;
+    private final AdmissionService admission;
+    private final int maxFiles;
+    private final long maxBytes;
+    private final int maxEntries;
+
+    public BatchController(StorageService storage, RunSubmissionService submissions, BatchRepo batchRepo,
+                           RunRepo runRepo, FileRepo fileRepo, ExtractionRepo extractionRepo,
+                           AdmissionService admission,
+                           @Value("${app.batches.maxFiles:50000}") int maxFiles,
+                           @Value("${app.batches.maxBytes:21474836480}") long maxBytes,
+                           @Value("${app.batches.maxEntries:100000}") int maxEntries) {
+        this.storage = storage;
+        this.submissions = submissions;
+        this.batchRepo = batchRepo;
+        this.runRepo = runRepo;
+        this.fileRepo = fileRepo;
+        this.extractionRepo = extractionRepo;
+        this.admission = admission;
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+    }
+
+    public record BatchFile(String name, UUID fileId, UUID runId) {}
+
+    public record Skipped(String name, String reason) {}
+
+    public record BatchResponse(UUID batchId, int fileCount, List<BatchFile> files, List<Skipped> skipped) {}
+
+    @PostMapping("/batches")
+    public ResponseEntity<?> createBatch(
+            HttpServletRequest request,
+            @RequestHeader(value = "X-Batch-Name", required = false) String batchName,
+            @RequestHeader(value = "X-Run-Priority", required = false) String priority,
+            @RequestHeader(value = "X-Ocr-Engine", required = false) String ocrEngine,
+            @RequestHeader(value = "X-Api-Key", required = false) String apiKey,
+            @RequestHeader(value = "X-Tenant-Id", required = false) String tenantId
+    ) throws Exception {
+        RunPriority runPriority;
+        OcrEngine engine;
+        try {
+            // Batches are bulk work unless the caller says otherwise.
+            runPriority = priority == null || priority.isBlank() ? RunPriority.BATCH : RunPriority.parse(priority);
+            engine = OcrEngine.parse(ocrEngine);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        var batch = new BatchEntity();
+        batch.setName(batchName);
+        batch.setTenant(submissions.tenantOf(tenantId, apiKey));
+        batch.setPriority(runPriority);
+        var intake = new Intake(new RunSubmissionService.RunOptions(runPriority, batch.getTenant(), batch.getBatchId(), engine));
+
+        String contentType = request.getContentType();
+        boolean multipart = contentType != null && contentType.toLowerCase().startsWith(MediaType.MULTIPART_FORM_DATA_VALUE);
+        String boundary = multipart ? MultipartStreamReader.boundaryOf(contentType) : null;
+        if (multipart && boundary == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "multipart boundary is missing"));
+        }
+        if (!multipart && !isZip(null, contentType)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "send multipart/form-data files or an application/zip body"));
+        }
+
+        // Saved before the first run is registered, so no run ever points at a batch that doesn't exist.
+        batchRepo.save(batch);
+        try {
+            if (multipart) {
+                var reader = new MultipartStreamReader(request.getInputStream(), boundary);
+                MultipartStreamReader.Part part;
+                while ((part = reader.nextPart()) != null) {
+                    if (part.filename() == null) continue;
+                    if (isZip(part.filename(), part.contentType())) intake.addZip(part.body());
+                    else intake.add(part.filename(), part.contentType(), part.body());
+                }
+            } else {
+                intake.addZip(request.getInputStream());
+            }
+        } catch (BatchTooLargeException e) {
+            abandon(batch, intake, e);
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .body(Map.of("error", e.getMessage(), "batchId", batch.getBatchId()));
+        } catch (Exception e) {
+            abandon(batch, intake, e);
+            throw e;
+        }
+
+        if (intake.files.isEmpty()) {
+            batchRepo.delete(batch);
+            if (intake.retryAfter > 0) {
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header("Retry-After", String.valueOf(intake.retryAfter))
+                        .body(Map.of("error", "run queue is full", "skipped", intake.skipped));
+            }
+            return ResponseEntity.badRequest().body(Map.of("error", "no supported files in request", "skipped", intake.skipped));
+        }
+        batch.setFileCount(intake.files.size());
+        batch.setState(BatchState.SUBMITTED);
+        batchRepo.save(batch);
+        submissions.flush();
+        System.out.println("[BATCH] " + batch.getBatchId() + " queued " + intake.files.size() + " file(s), skipped " + intake.skipped.size());
+        var ok = ResponseEntity.ok();
+        // some files were turned away by admission control: resubmit the skipped ones after this
+        if (intake.retryAfter > 0) ok.header("Retry-After", String.valueOf(intake.retryAfter));
+        return ok.body(new BatchResponse(batch.getBatchId(), intake.files.size(), intake.files, intake.skipped));
+    }
+
+    /**
+     * A body that breaks off halfway (malformed zip, client gone, size limits) leaves a batch the caller never
+     * got an id for: its runs are cancelled rather than processed, and the batch is kept as failed
+     * so the storage lifecycle reaps it together with them.
+     */
+    private void abandon(BatchEntity batch, Intake intake, Exception cause) {
+        System.err.println("❌ [BATCH] " + batch.getBatchId() + " failed after " + intake.files.size() + " file(s): " + cause);
+        try {
+            Instant now = Instant.now();
+            for (BatchFile f : intake.files) {
+                runRepo.cancel(f.runId(), now, "Batch upload failed: " + cause.getMessage());
+            }
+            batch.setFileCount(intake.files.size());
+            batch.setState(BatchState.FAILED);
+            batchRepo.save(batch);
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    // Aggregate progress: one row per status instead of one poll per run.
+    @GetMapping("/batches/{batchId}")
+    public ResponseEntity<?> getBatch(@PathVariable UUID batchId) {
+        var batch = batchRepo.findById(batchId).orElse(null);
+        if (batch == null) return ResponseEntity.notFound().build();
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (RunStatus s : RunStatus.values()) counts.put(s.name().toLowerCase(), 0L);
+        long total = 0;
+        for (Object[] row : runRepo.countByStatusForBatch(batchId)) {
+            long n = ((Number) row[1]).longValue();
+            counts.put(((RunStatus) row[0]).name().toLowerCase(), n);
+            total += n;
+        }
+        long done = counts.get("completed") + counts.get("failed") + counts.get("cancelled");
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("batchId", batch.getBatchId());
+        out.put("name", batch.getName());
+        out.put("priority", batch.getPriority().name().toLowerCase());
+        out.put("createdAt", batch.getCreatedAt());
+        out.put("fileCount", batch.getFileCount());
+        out.put("total", total);
+        out.put("done", done);
+        out.put("percent", total == 0 ? 100.0 : Math.round(1000.0 * done / total) / 10.0);
+        String state;
+        if (batch.getState() == BatchState.INGESTING) state = "ingesting";
+        else if (batch.getState() == BatchState.FAILED) state = "failed";
+        else state = done < total ? "running" : counts.get("completed") == total ? "completed" : "finished_with_errors";
+        out.put("state", state);
+        out.put("counts", counts);
+        return ResponseEntity.ok(out);
+    }
+
+    // All results as one NDJSON download, one line per run, written page by page.
+    @GetMapping(value = "/batches/{batchId}/results", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> getResults(@PathVariable UUID batchId) {
+        if (!batchRepo.existsById(batchId)) return ResponseEntity.notFound().build();
+
+        StreamingResponseBody body = out -> {
+            Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            for (int page = 0; ; page++) {
+                List<RunEntity> runs = runRepo.findByBatchIdOrderByQueuedAtAscRunIdAsc(batchId, PageRequest.of(page, PAGE));
+                if (runs.isEmpty()) break;
+
+                Map<UUID, String> names = fileRepo.findAllById(runs.stream().map(RunEntity::getFileId).toList()).stream()
+                        .collect(Collectors.toMap(FileEntity::getFileId, f -> Objects.toString(f.getName(), ""), (a, b) -> a));
+                Map<UUID, ExtractionEntity> results = extractionRepo.findByRunIdIn(runs.stream()
+                                .filter(r -> r.getStatus() == RunStatus.COMPLETED).map(RunEntity::getRunId).toList())
+                        .stream().collect(Collectors.toMap(ExtractionEntity::getRunId, Function.identity(), (a, b) -> a));
+
+                for (RunEntity run : runs) {
+                    ObjectNode line = M.createObjectNode();
+                    line.put("runId", run.getRunId().toString());
+                    line.put("fileId", run.getFileId().toString());
+                    line.put("name", names.get(run.getFileId()));
+                    line.put("status", run.getStatus().name());
+                    var ex = results.get(run.getRunId());
+                    if (ex != null) line.set("result", M.readTree(ex.getResultJson()));
+                    if (run.getError() != null) line.put("error", run.getError());
+                    w.write(M.writeValueAsString(line));
+                    w.write('\n');
+                }
+                w.flush();
+                if (runs.size() < PAGE) break;
+            }
+            w.flush();
+        };
+        return ResponseEntity.ok()
+                .header("Content-Disposition", "attachment; filename=batch-" + batchId + ".ndjson")
+                .body(body);
+    }
+
+    private static boolean isZip(String name, String contentType) {
+        if (contentType != null) {
+            String ct = contentType.toLowerCase();
+            if (ct.startsWith("application/zip") || ct.startsWith("application/x-zip-compressed")) return true;
+        }
+        return name != null && name.toLowerCase().endsWith(".zip");
+    }
+
+    /** A batch that reads past {@code app.batches.maxBytes} or {@code app.batches.maxEntries}, e.g. a zip bomb. */
+    private static final class BatchTooLargeException extends RuntimeException {
+        BatchTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /** Stores and registers the files of one batch as they are read from the request. */
+    private final class Intake {
+        final RunSubmissionService.RunOptions options;
+        final List<BatchFile> files = new ArrayList<>();
+        final List<Skipped> skipped = new ArrayList<>();
+        long bytes;
+        int entries;
+        long retryAfter;    // seconds, once the run queue turned a file away
+
+        Intake(RunSubmissionService.RunOptions options) {
+            this.options = options;
+        }
+
+        void add(String path, String contentType, InputStream body) throws Exception {
+            count();
+            String name = baseName(path);
+            if (!SUPPORTED.matcher(name).matches()) {
+                skipped.add(new Skipped(path, "unsupported file type"));
+                return;
+            }
+            if (files.size() >= maxFiles) {
+                skipped.add(new Skipped(path, "batch limit of " + maxFiles + " files reached"));
+                return;
+            }
+            var full = admission.admitRun();
+            if (full != null) {
+                skipped.add(new Skipped(path, full.reason()));
+                retryAfter = Math.max(retryAfter, full.retryAfterSeconds());
+                return;
+            }
+            var fe = new FileEntity();
+            // Never stores more than one byte past the batch limit, however well the archive compresses.
+            var bounded = new BoundedInputStream(body, maxBytes - bytes + 1);
+            var saved = storage.save(bounded, fe.getFileId().toString(), name);
+            UploadResponse r = submissions.register(fe, saved, name, contentType, options);
+            files.add(new BatchFile(name, r.fileId(), r.runId()));
+            bytes += saved.size();
+            if (bytes > maxBytes) throw new BatchTooLargeException("batch exceeds " + maxBytes + " bytes");
+        }
+
+        void addZip(InputStream body) throws Exception {
+            var zip = new ZipInputStream(body);
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String path = entry.getName();
+                if (entry.isDirectory() || path.startsWith("__MACOSX/") || baseName(path).startsWith(".")) {
+                    count();
+                    continue;
+                }
+                // storage closes what it reads; the archive must stay open for the next entry
+                add(path, null, CloseShieldInputStream.wrap(zip));
+            }
+        }
+
+        private void count() {
+            if (++entries > maxEntries) throw new BatchTooLargeException("batch has more than " + maxEntries + " entries");
+        }
+
+        private static String baseName(String path) {
+            String p = path.replace('\\', '/');
+            return p.substring(p.lastIndexOf('/') + 1);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.task.hwai.controller;
+
+import com.task.hwai.service.AdmissionService;
+import com.task.hwai.service.CachingOcrTool;
+import com.task.hwai.service.ConfidenceGate;
+import com.task.hwai.service.ExtractionPipeline;
+import com.task.hwai.service.LlmResponseCache;
+import com.task.hwai.service.OcrEndpointPool;
+import com.task.hwai.service.PromptPayloadEncoder;
+import com.task.hwai.service.RunEventBus;
+import com.task.hwai.service.RunQueueService;
+import com.task.hwai.service.TemplateExtractor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Operator endpoints: this node's runtime figures and cache maintenance, kept apart from the run API.
+@RestController
+@RequestMapping("/v1")
+@CrossOrigin(origins = "*")
+public class OpsController {
+
+    private final RunQueueService runQueue;
+    private final AdmissionService admission;
+    private final RunEventBus events;
+    private final ExtractionPipeline pipeline;
+    private final CachingOcrTool ocrCache;
+    private final OcrEndpointPool ocrEndpoints;
+    private final ConfidenceGate confidenceGate;
+    private final TemplateExtractor templates;
+    private final LlmResponseCache llmCache;
+    private final PromptPayloadEncoder payloads;
+
+    public OpsController(RunQueueService runQueue, AdmissionService admission, RunEventBus events,
+                         ExtractionPipeline pipeline, CachingOcrTool ocrCache, OcrEndpointPool ocrEndpoints,
+                         ConfidenceGate confidenceGate, TemplateExtractor templates,
+                         LlmResponseCache llmCache, PromptPayloadEncoder payloads) {
+        this.runQueue = runQueue;
+        this.admission = admission;
+        this.events = events;
+        this.pipeline = pipeline;
+        this.ocrCache = ocrCache;
+        this.ocrEndpoints = ocrEndpoints;
+        this.confidenceGate = confidenceGate;
+        this.templates = templates;
+        this.llmCache = llmCache;
+        this.payloads = payloads;
+    }
+
+    // Queue depth, per-class concurrency, queue wait times, admission, pipeline stage, OCR and LLM cache state as seen by this node.
+    @GetMapping("/runs/queue/stats")
+    public ResponseEntity<?> queueStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(runQueue.stats());
+        stats.put("admission", admission.stats());
+        stats.put("eventSubscribers", events.subscriberCount());
+        stats.put("pipeline", pipeline.stats());
+        stats.put("ocrCache", ocrCache.stats());
+        stats.put("ocrEndpoints", ocrEndpoints.stats());
+        stats.put("llmBypass", confidenceGate.stats());
+        stats.put("formTemplates", templates.stats());
+        stats.put("llmCache", llmCache.stats());
+        stats.put("promptPayload", payloads.stats());
+        return ResponseEntity.ok(stats);
+    }
+
+    // Drops cached LLM answers, e.g. after a prompt change: those of one kind (extraction, agent,
+    // structured) and/or model, or all of them.
+    @DeleteMapping("/llm-cache")
+    public ResponseEntity<?> invalidateLlmCache(@RequestParam(value = "kind", required = false) String kind,
+                                                @RequestParam(value = "model", required = false) String model) {
+        int deleted = llmCache.invalidate(blankToNull(kind), blankToNull(model));
+        return ResponseEntity.ok(Map.of("deleted", deleted));
+    }
+
+    private static String blankToNull(String s) {
+        return s == null || s.isBlank() ? null : s.trim();
+    }
+}
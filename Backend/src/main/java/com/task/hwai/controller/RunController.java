@@ -1,23 +1,22 @@
 package com.task.hwai.controller;
 
-import java.nio.file.Path;
-import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.task.hwai.entity.ExtractionEntity;
 import com.task.hwai.model.ExtractionResult;
 import com.task.hwai.model.RunResponse;
 import com.task.hwai.model.RunStatus;
 import com.task.hwai.service.ExtractionService;
-import com.task.hwai.repo.FileRepo;
+import com.task.hwai.service.RunEventBus;
+import com.task.hwai.service.RunQueueService;
 import com.task.hwai.repo.RunRepo;
-import com.task.hwai.service.LangChainExtractionService;
 
 @RestController
 @RequestMapping("/v1")
@@ -26,62 +25,60 @@ public class RunController {
 
     private final RunRepo runRepo;
     private final ExtractionService extractionService;
-    private final FileRepo fileRepo;
-    private final LangChainExtractionService langChainService;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RunQueueService runQueue;
+    private final RunEventBus events;
 
-    public RunController(RunRepo runRepo, ExtractionService extractionService, FileRepo fileRepo, LangChainExtractionService langChainService) {
+    public RunController(RunRepo runRepo, ExtractionService extractionService, RunQueueService runQueue,
+                         RunEventBus events) {
         this.runRepo = runRepo;
         this.extractionService = extractionService;
-        this.fileRepo = fileRepo;
-        this.langChainService = langChainService;
+        this.runQueue = runQueue;
+        this.events = events;
     }
 
     // =========================
     // EXISTING APIs
     // =========================
 
+    // Cheap status read; extraction itself happens on the run queue workers.
     @GetMapping("/runs/{runId}")
-    public ResponseEntity<RunResponse> getRun(@PathVariable UUID runId) throws Exception {
+    public ResponseEntity<RunResponse> getRun(@PathVariable UUID runId) {
         var run = runRepo.findById(runId).orElse(null);
         if (run == null) return ResponseEntity.notFound().build();
 
-        if (run.getStatus() == RunStatus.QUEUED) {
-            var file = fileRepo.findById(run.getFileId()).orElseThrow();
-            var result = langChainService.extractFromImage(
-                    file.getFileId().toString(),
-                    runId.toString(),
-                    Path.of(file.getStorageUri())
-            );
-
-            ExtractionEntity extraction = extractionService.getExtractionByRunId(runId)
-                    .orElseGet(ExtractionEntity::new);
-            extraction.setRunId(runId);
-            extraction.setDocumentType(result.documentType());
-            extraction.setResultJson(objectMapper.writeValueAsString(result));
-            extractionService.saveExtraction(extraction);
-
-            run.setStatus(RunStatus.COMPLETED);
-            run.setCompletedAt(Instant.now());
-            runRepo.save(run);
-
-            return ResponseEntity.ok(new RunResponse(RunStatus.COMPLETED, result, null));
-        }
-
         if (run.getStatus() == RunStatus.COMPLETED) {
             var ex = extractionService.getExtractionByRunId(runId).orElse(null);
             ExtractionResult result = ex != null ? JsonUtil.read(ex.getResultJson(), ExtractionResult.class) : null;
             return ResponseEntity.ok(new RunResponse(RunStatus.COMPLETED, result, null));
         }
 
-        if (run.getStatus() == RunStatus.FAILED) {
-            return ResponseEntity.ok(new RunResponse(RunStatus.FAILED, null, run.getError()));
+        if (run.getStatus() == RunStatus.FAILED || run.getStatus() == RunStatus.CANCELLED) {
+            return ResponseEntity.ok(new RunResponse(run.getStatus(), null, run.getError()));
         }
 
         return ResponseEntity.ok(new RunResponse(run.getStatus(), null, null));
     }
 
+    // Cancels a queued or running run; in-flight OCR/LLM calls for it are aborted.
+    @DeleteMapping("/runs/{runId}")
+    public ResponseEntity<?> cancelRun(@PathVariable UUID runId) {
+        var cancelled = runQueue.cancel(runId);
+        if (cancelled.isEmpty()) return ResponseEntity.notFound().build();
+        if (!cancelled.get()) {
+            var status = runRepo.findById(runId).map(r -> r.getStatus().name()).orElse("UNKNOWN");
+            return ResponseEntity.status(409).body(java.util.Map.of("error", "Run already finished", "status", status));
+        }
+        return ResponseEntity.ok(new RunResponse(RunStatus.CANCELLED, null, "Cancelled by request"));
+    }
 
+    // Push alternative to polling getRun: stage transitions as Server-Sent Events,
+    // ending with "completed" (carrying the result) or "failed".
+    @GetMapping(value = "/runs/{runId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> runEvents(@PathVariable UUID runId) {
+        SseEmitter emitter = events.subscribe(runId);
+        if (emitter == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(emitter);
+    }
 
     @PostMapping("/exports")
     public ResponseEntity<?> export(@RequestBody ExportReq req) {
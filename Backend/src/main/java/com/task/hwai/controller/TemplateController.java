@@ -0,0 +1,69 @@
+package com.task.hwai.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.task.hwai.model.FormTemplate;
+import com.task.hwai.service.FormTemplateRegistry;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+// Form templates: pages matching one have only its field regions OCR'd, without the LLM.
+@RestController
+@RequestMapping("/v1")
+@CrossOrigin(origins = "*")
+public class TemplateController {
+
+    private final FormTemplateRegistry registry;
+    private final ObjectMapper om = new ObjectMapper();
+
+    public TemplateController(FormTemplateRegistry registry) {
+        this.registry = registry;
+    }
+
+    @GetMapping("/templates")
+    public ResponseEntity<List<FormTemplate>> list() {
+        return ResponseEntity.ok(registry.list());
+    }
+
+    // "fields" is a JSON array of {name, x, y, width, height}, as fractions of the sample page's size
+    @PostMapping(value = "/templates", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> register(
+            @RequestParam("name") String name,
+            @RequestParam("fields") String fields,
+            @RequestPart("sample") MultipartFile sample
+    ) throws Exception {
+        List<FormTemplate.Region> regions;
+        try {
+            regions = om.readValue(fields, new TypeReference<List<FormTemplate.Region>>() {});
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "fields must be a JSON array of regions"));
+        }
+        Path tmp = Files.createTempFile("template-", "-" + sanitize(sample.getOriginalFilename()));
+        try {
+            sample.transferTo(tmp);
+            return ResponseEntity.ok(registry.register(name, tmp, regions));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @DeleteMapping("/templates/{name}")
+    public ResponseEntity<?> remove(@PathVariable String name) throws Exception {
+        return registry.remove(name) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    // keeps the extension, which tells the normaliser what it is reading
+    private static String sanitize(String filename) {
+        if (filename == null) return "sample";
+        return filename.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
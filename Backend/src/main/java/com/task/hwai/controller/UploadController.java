@@ -1,17 +1,17 @@
 package com.task.hwai.controller;
 
 import com.task.hwai.entity.FileEntity;
-import com.task.hwai.entity.RunEntity;
 import com.task.hwai.model.*;
-import com.task.hwai.repo.FileRepo;
-import com.task.hwai.repo.RunRepo;
+import com.task.hwai.service.MultipartStreamReader;
+import com.task.hwai.service.RunSubmissionService;
 import com.task.hwai.service.StorageService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.nio.file.Path;
-import java.util.UUID;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/v1")
@@ -19,31 +19,72 @@ import java.util.UUID;
 public class UploadController {
 
     private final StorageService storage;
-    private final FileRepo fileRepo;
-    private final RunRepo runRepo;
+    private final RunSubmissionService submissions;
 
-    public UploadController(StorageService storage, FileRepo fileRepo, RunRepo runRepo) {
-        this.storage = storage; this.fileRepo = fileRepo; this.runRepo = runRepo;
+    public UploadController(StorageService storage, RunSubmissionService submissions) {
+        this.storage = storage; this.submissions = submissions;
     }
 
     @PostMapping(value="/uploads", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public UploadResponse upload(@RequestPart("file") MultipartFile file) throws Exception {
+    public ResponseEntity<?> upload(
+            @RequestPart("file") MultipartFile file,
+            @RequestParam(value = "priority", required = false) String priority,
+            @RequestParam(value = "ocrEngine", required = false) String ocrEngine,
+            @RequestHeader(value = "X-Api-Key", required = false) String apiKey,
+            @RequestHeader(value = "X-Tenant-Id", required = false) String tenantId
+    ) throws Exception {
+        RunSubmissionService.RunOptions options;
+        try {
+            options = new RunSubmissionService.RunOptions(RunPriority.parse(priority),
+                    submissions.tenantOf(tenantId, apiKey), null, OcrEngine.parse(ocrEngine));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
         var fe = new FileEntity();
-        fe.setName(file.getOriginalFilename());
-        fe.setMimeType(file.getContentType());
-        fe.setSize(file.getSize());
-
-        UUID fileId = fe.getFileId();
-        Path saved = storage.save(file, fileId.toString());
-        fe.setStorageUri(saved.toString());
-        fileRepo.save(fe);
-
-        var run = new RunEntity();
-        run.setFileId(fileId);
-        run.setStatus(RunStatus.QUEUED);
-        runRepo.save(run);
-
-        // For MVP we run inline; in prod enqueue to SQS/worker
-        return new UploadResponse(fileId, run.getRunId());
+        var saved = storage.save(file, fe.getFileId().toString());
+        return ResponseEntity.ok(submissions.submit(fe, saved, file.getOriginalFilename(), file.getContentType(), options));
+    }
+
+    // Streaming variant for large scans: the body is read once, straight from the
+    // servlet input stream into storage. Multipart resolution is lazy, so nothing
+    // here may touch request parameters (that would make the container parse parts);
+    // metadata for raw bodies comes from headers, including X-Run-Priority and X-Ocr-Engine.
+    @PostMapping("/uploads/stream")
+    public ResponseEntity<?> uploadStream(
+            HttpServletRequest request,
+            @RequestHeader(value = "X-File-Name", required = false) String headerName,
+            @RequestHeader(value = "X-Run-Priority", required = false) String priority,
+            @RequestHeader(value = "X-Ocr-Engine", required = false) String ocrEngine,
+            @RequestHeader(value = "X-Api-Key", required = false) String apiKey,
+            @RequestHeader(value = "X-Tenant-Id", required = false) String tenantId
+    ) throws Exception {
+        RunSubmissionService.RunOptions options;
+        try {
+            options = new RunSubmissionService.RunOptions(RunPriority.parse(priority),
+                    submissions.tenantOf(tenantId, apiKey), null, OcrEngine.parse(ocrEngine));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        var fe = new FileEntity();
+        String contentType = request.getContentType();
+
+        if (contentType != null && contentType.toLowerCase().startsWith(MediaType.MULTIPART_FORM_DATA_VALUE)) {
+            String boundary = MultipartStreamReader.boundaryOf(contentType);
+            if (boundary == null) {
+                return ResponseEntity.badRequest().body(Map.of("error", "multipart boundary is missing"));
+            }
+            var reader = new MultipartStreamReader(request.getInputStream(), boundary);
+            MultipartStreamReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                if (!"file".equals(part.name())) continue;
+                String name = part.filename() != null ? part.filename() : headerName;
+                var saved = storage.save(part.body(), fe.getFileId().toString(), name);
+                return ResponseEntity.ok(submissions.submit(fe, saved, name, part.contentType(), options));
+            }
+            return ResponseEntity.badRequest().body(Map.of("error", "multipart part 'file' is required"));
+        }
+
+        var saved = storage.save(request.getInputStream(), fe.getFileId().toString(), headerName);
+        return ResponseEntity.ok(submissions.submit(fe, saved, headerName, contentType, options));
     }
 }
@@ -0,0 +1,77 @@
+package com.task.hwai.entity;
+
+import com.task.hwai.model.BatchState;
+import com.task.hwai.model.RunPriority;
+import jakarta.persistence.*;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@Entity
+@Table(name="batches")
+public class BatchEntity {
+    @Id
+    private UUID batchId = UUID.randomUUID();
+    private String name;
+    private String tenant;
+    @Enumerated(EnumType.STRING) private RunPriority priority = RunPriority.BATCH;
+    private int fileCount;
+    @Enumerated(EnumType.STRING) private BatchState state = BatchState.INGESTING;
+    private Instant createdAt = Instant.now();
+
+    public UUID getBatchId() {
+        return batchId;
+    }
+
+    public void setBatchId(UUID batchId) {
+        this.batchId = batchId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public RunPriority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(RunPriority priority) {
+        this.priority = priority;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public void setFileCount(int fileCount) {
+        this.fileCount = fileCount;
+    }
+
+    public BatchState getState() {
+        return state;
+    }
+
+    public void setState(BatchState state) {
+        this.state = state;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,109 @@
+package com.task.hwai.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.springframework.data.domain.Persistable;
+
+import java.time.Instant;
+
+// The digest is assigned, so without isNew() a save of a fresh row would be a merge that
+// silently overwrites a row a concurrent upload inserted first, instead of conflicting.
+@Entity
+@Table(name="blobs")
+public class BlobEntity implements Persistable<String> {
+    @Id
+    private String digest;
+    private long size;
+    private String storageUri;
+    private int refCount;
+    private String packName;
+    private Long packOffset;
+    private Instant createdAt = Instant.now();
+    private Instant lastReferencedAt = Instant.now();
+    @Transient
+    private boolean isNew = true;
+
+    @Override
+    public String getId() {
+        return digest;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getStorageUri() {
+        return storageUri;
+    }
+
+    public void setStorageUri(String storageUri) {
+        this.storageUri = storageUri;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(int refCount) {
+        this.refCount = refCount;
+    }
+
+    public String getPackName() {
+        return packName;
+    }
+
+    public void setPackName(String packName) {
+        this.packName = packName;
+    }
+
+    public Long getPackOffset() {
+        return packOffset;
+    }
+
+    public void setPackOffset(Long packOffset) {
+        this.packOffset = packOffset;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getLastReferencedAt() {
+        return lastReferencedAt;
+    }
+
+    public void setLastReferencedAt(Instant lastReferencedAt) {
+        this.lastReferencedAt = lastReferencedAt;
+    }
+}
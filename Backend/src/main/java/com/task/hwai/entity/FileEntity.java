@@ -14,6 +14,7 @@ public class FileEntity {
     private UUID fileId = UUID.randomUUID();
     private String name; private String mimeType; private long size;
     private String storageUri; private Integer pages;
+    private String contentDigest;
     private Instant createdAt = Instant.now();
 
     public UUID getFileId() {
@@ -56,6 +57,14 @@ public class FileEntity {
         this.storageUri = storageUri;
     }
 
+    public String getContentDigest() {
+        return contentDigest;
+    }
+
+    public void setContentDigest(String contentDigest) {
+        this.contentDigest = contentDigest;
+    }
+
     public Integer getPages() {
         return pages;
     }
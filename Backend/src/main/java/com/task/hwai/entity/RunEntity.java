@@ -1,5 +1,7 @@
 package com.task.hwai.entity;
 
+import com.task.hwai.model.OcrEngine;
+import com.task.hwai.model.RunPriority;
 import com.task.hwai.model.RunStatus;
 import jakarta.persistence.*;
 
@@ -12,8 +14,15 @@ public class RunEntity {
     @Id
     private UUID runId = UUID.randomUUID();
     private UUID fileId;
+    private UUID batchId;
     @Enumerated(EnumType.STRING) private RunStatus status = RunStatus.QUEUED;
+    @Enumerated(EnumType.STRING) private RunPriority priority = RunPriority.INTERACTIVE;
+    private String tenant;
+    @Enumerated(EnumType.STRING) private OcrEngine ocrEngine;
+    private Instant queuedAt = Instant.now();
     private Instant startedAt; private Instant completedAt;
+    private String leaseOwner; private Instant leaseExpiresAt; private Instant heartbeatAt;
+    private int attempts;
     @Column(length=4000) private String error;
     @Column(length=4000) private String metricsJson;
 
@@ -33,6 +42,14 @@ public class RunEntity {
         this.fileId = fileId;
     }
 
+    public UUID getBatchId() {
+        return batchId;
+    }
+
+    public void setBatchId(UUID batchId) {
+        this.batchId = batchId;
+    }
+
     public RunStatus getStatus() {
         return status;
     }
@@ -41,6 +58,38 @@ public class RunEntity {
         this.status = status;
     }
 
+    public RunPriority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(RunPriority priority) {
+        this.priority = priority;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public OcrEngine getOcrEngine() {
+        return ocrEngine;
+    }
+
+    public void setOcrEngine(OcrEngine ocrEngine) {
+        this.ocrEngine = ocrEngine;
+    }
+
+    public Instant getQueuedAt() {
+        return queuedAt;
+    }
+
+    public void setQueuedAt(Instant queuedAt) {
+        this.queuedAt = queuedAt;
+    }
+
     public Instant getStartedAt() {
         return startedAt;
     }
@@ -57,6 +106,38 @@ public class RunEntity {
         this.completedAt = completedAt;
     }
 
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    public Instant getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    public void setLeaseExpiresAt(Instant leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    public Instant getHeartbeatAt() {
+        return heartbeatAt;
+    }
+
+    public void setHeartbeatAt(Instant heartbeatAt) {
+        this.heartbeatAt = heartbeatAt;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
     public String getError() {
         return error;
     }
@@ -0,0 +1,2 @@
+package com.task.hwai.model;
+public enum BatchState { INGESTING, SUBMITTED, FAILED }
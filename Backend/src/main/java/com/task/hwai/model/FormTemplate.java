@@ -0,0 +1,24 @@
+package com.task.hwai.model;
+
+import java.util.List;
+
+/**
+ * A known form layout. {@code layoutHash} is the 512-bit difference hash (hex) of a
+ * blank or sample page; pages hashing close to it are taken to be this form, and
+ * only its {@code fields} regions are OCR'd.
+ */
+public record FormTemplate(
+        String name,
+        String layoutHash,
+        List<Region> fields
+) {
+
+    /** A named field; x, y, width and height are fractions (0-1) of the page size. */
+    public record Region(
+            String name,
+            double x,
+            double y,
+            double width,
+            double height
+    ) {}
+}
@@ -0,0 +1,16 @@
+package com.task.hwai.model;
+
+/** OCR backend for a run: the remote Python service, or Tesseract inside the JVM. */
+public enum OcrEngine {
+    REMOTE, TESSERACT;
+
+    /** Null (use the configured default) when no engine is requested. */
+    public static OcrEngine parse(String value) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("ocrEngine must be one of remote, tesseract");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.task.hwai.model;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A stage transition of a run as pushed to subscribers: queued, processing,
+ * ocr_done, llm_done, then completed (with the result), failed (with the error)
+ * or cancelled.
+ */
+public record RunEvent(
+        UUID runId,
+        String stage,
+        RunStatus status,
+        Instant at,
+        ExtractionResult result,
+        String error
+) {
+    public static RunEvent stage(UUID runId, String stage) {
+        return new RunEvent(runId, stage, RunStatus.PROCESSING, Instant.now(), null, null);
+    }
+
+    public boolean terminal() {
+        return status == RunStatus.COMPLETED || status == RunStatus.FAILED || status == RunStatus.CANCELLED;
+    }
+}
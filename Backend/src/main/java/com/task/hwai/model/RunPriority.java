@@ -0,0 +1,15 @@
+package com.task.hwai.model;
+
+/** Scheduling class of a run: interactive single forms go ahead of bulk submissions. */
+public enum RunPriority {
+    INTERACTIVE, BATCH;
+
+    public static RunPriority parse(String value) {
+        if (value == null || value.isBlank()) return INTERACTIVE;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("priority must be one of interactive, batch");
+        }
+    }
+}
@@ -1,2 +1,2 @@
 package com.task.hwai.model;
-public enum RunStatus { QUEUED, PROCESSING, COMPLETED, FAILED }
+public enum RunStatus { QUEUED, PROCESSING, COMPLETED, FAILED, CANCELLED }
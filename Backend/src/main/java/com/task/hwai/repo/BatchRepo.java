@@ -0,0 +1,21 @@
+package com.task.hwai.repo;
+
+import com.task.hwai.entity.BatchEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.UUID;
+
+public interface BatchRepo extends JpaRepository<BatchEntity, UUID> {
+
+    // Batches whose runs were all released by the storage lifecycle.
+    @Transactional
+    @Modifying
+    @Query("delete from BatchEntity b where b.createdAt < :cutoff and not exists " +
+            "(select r.runId from RunEntity r where r.batchId = b.batchId)")
+    int deleteEmptyCreatedBefore(@Param("cutoff") Instant cutoff);
+}
@@ -0,0 +1,50 @@
+package com.task.hwai.repo;
+
+import com.task.hwai.entity.BlobEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface BlobRepo extends JpaRepository<BlobEntity, String> {
+
+    @Transactional
+    @Modifying
+    @Query("update BlobEntity b set b.refCount = b.refCount + 1, b.lastReferencedAt = :now where b.digest = :digest")
+    int incrementRefCount(@Param("digest") String digest, @Param("now") Instant now);
+
+    @Transactional
+    @Modifying
+    @Query("update BlobEntity b set b.refCount = b.refCount - 1, b.lastReferencedAt = :now where b.digest = :digest and b.refCount > 0")
+    int decrementRefCount(@Param("digest") String digest, @Param("now") Instant now);
+
+    List<BlobEntity> findByRefCountLessThanEqualAndLastReferencedAtBefore(int refCount, Instant cutoff, Pageable page);
+
+    // Only succeeds while nothing re-referenced the blob since it was picked for deletion.
+    @Transactional
+    @Modifying
+    @Query("delete from BlobEntity b where b.digest = :digest and b.refCount <= 0 and b.lastReferencedAt < :cutoff")
+    int deleteIfUnreferenced(@Param("digest") String digest, @Param("cutoff") Instant cutoff);
+
+    List<BlobEntity> findByPackNameIsNullAndSizeLessThanEqualAndLastReferencedAtBefore(long maxSize, Instant cutoff, Pageable page);
+
+    List<BlobEntity> findByPackName(String packName);
+
+    @Query("select coalesce(sum(b.size), 0) from BlobEntity b where b.packName = :packName")
+    long livePackBytes(@Param("packName") String packName);
+
+    boolean existsByStorageUri(String storageUri);
+
+    // Compare-and-set on the old location, so a concurrent re-point is never overwritten.
+    @Transactional
+    @Modifying
+    @Query("update BlobEntity b set b.storageUri = :newUri, b.packName = :packName, b.packOffset = :offset " +
+            "where b.digest = :digest and b.storageUri = :oldUri")
+    int relocate(@Param("digest") String digest, @Param("oldUri") String oldUri, @Param("newUri") String newUri,
+                 @Param("packName") String packName, @Param("offset") Long offset);
+}
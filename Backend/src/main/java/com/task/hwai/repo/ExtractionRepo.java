@@ -2,10 +2,20 @@ package com.task.hwai.repo;
 
 import com.task.hwai.entity.ExtractionEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 public interface ExtractionRepo extends JpaRepository<ExtractionEntity, Long> {
     Optional<ExtractionEntity> findByRunId(UUID runId);
+
+    List<ExtractionEntity> findByRunIdIn(Collection<UUID> runIds);
+
+    boolean existsByRunId(UUID runId);
+
+    @Transactional
+    long deleteByRunId(UUID runId);
 }
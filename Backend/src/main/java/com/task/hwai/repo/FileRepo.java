@@ -2,7 +2,25 @@ package com.task.hwai.repo;
 
 import com.task.hwai.entity.FileEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.UUID;
 
-public interface FileRepo extends JpaRepository<FileEntity, UUID> {}
\ No newline at end of file
+public interface FileRepo extends JpaRepository<FileEntity, UUID> {
+
+    // Keyset page over files created in (after, before), oldest first.
+    List<FileEntity> findTop500ByCreatedAtGreaterThanAndCreatedAtLessThanOrderByCreatedAt(Instant after, Instant before);
+
+    boolean existsByStorageUri(String storageUri);
+
+    // Follows a blob moved into (or between) pack files, so the rows never name a deleted path.
+    @Transactional
+    @Modifying
+    @Query("update FileEntity f set f.storageUri = :newUri where f.contentDigest = :digest and f.storageUri = :oldUri")
+    int relocate(@Param("digest") String digest, @Param("oldUri") String oldUri, @Param("newUri") String newUri);
+}
@@ -0,0 +1,29 @@
+package com.task.hwai.repo;
+
+import com.task.hwai.entity.LlmCacheEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+public interface LlmCacheRepo extends JpaRepository<LlmCacheEntity, String> {
+
+    @Transactional
+    @Modifying
+    @Query("update LlmCacheEntity c set c.hits = c.hits + 1, c.lastUsedAt = :now where c.cacheKey = :key")
+    int touch(@Param("key") String key, @Param("now") Instant now);
+
+    // null arguments match everything
+    @Transactional
+    @Modifying
+    @Query("delete from LlmCacheEntity c where (:kind is null or c.kind = :kind) and (:model is null or c.model = :model)")
+    int deleteMatching(@Param("kind") String kind, @Param("model") String model);
+
+    @Transactional
+    @Modifying
+    @Query("delete from LlmCacheEntity c where c.lastUsedAt < :cutoff")
+    int deleteUnusedSince(@Param("cutoff") Instant cutoff);
+}
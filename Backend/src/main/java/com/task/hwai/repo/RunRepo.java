@@ -1,8 +1,108 @@
 package com.task.hwai.repo;
 
 import com.task.hwai.entity.RunEntity;
+import com.task.hwai.model.RunStatus;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
-public interface RunRepo extends JpaRepository<RunEntity, UUID> {}
+public interface RunRepo extends JpaRepository<RunEntity, UUID> {
+
+    List<RunEntity> findByFileId(UUID fileId);
+
+    long countByStatus(RunStatus status);
+
+    @Query("select r.status, count(r) from RunEntity r where r.batchId = :batchId group by r.status")
+    List<Object[]> countByStatusForBatch(@Param("batchId") UUID batchId);
+
+    List<RunEntity> findByBatchIdOrderByQueuedAtAscRunIdAsc(UUID batchId, Pageable pageable);
+
+    String CLAIMABLE = "(status = 'QUEUED' " +
+            "or (status = 'PROCESSING' and (lease_expires_at is null or lease_expires_at < :now)))";
+
+    // The oldest few claimable runs of every (tenant, priority) group, so the scheduler
+    // sees every waiting tenant rather than only the one that submitted the most.
+    // Rows: run id, tenant, priority, queued_at.
+    @Query(value = "select cast(run_id as varchar), tenant, priority, queued_at from (" +
+            "select run_id, tenant, priority, queued_at, " +
+            "row_number() over (partition by tenant, priority order by queued_at) as rn " +
+            "from runs where " + CLAIMABLE + ") heads " +
+            "where rn <= :perGroup order by queued_at limit :limit", nativeQuery = true)
+    List<Object[]> findClaimableHeads(@Param("now") Instant now, @Param("perGroup") int perGroup,
+                                      @Param("limit") int limit);
+
+    // Rows another node is claiming right now are skipped instead of waited on.
+    // Must run in a transaction.
+    @Query(value = "select cast(run_id as varchar) from runs where run_id in (:runIds) and " + CLAIMABLE +
+            " for update skip locked", nativeQuery = true)
+    List<String> lockClaimable(@Param("now") Instant now, @Param("runIds") Collection<UUID> runIds);
+
+    @Query("select r.priority, count(r) from RunEntity r " +
+            "where r.status = com.task.hwai.model.RunStatus.QUEUED group by r.priority")
+    List<Object[]> countQueuedByPriority();
+
+    // Compare-and-set claim; exactly one node gets 1 back for a given run and lease.
+    @Transactional
+    @Modifying
+    @Query("update RunEntity r set r.status = com.task.hwai.model.RunStatus.PROCESSING, r.leaseOwner = :owner, " +
+            "r.leaseExpiresAt = :expires, r.heartbeatAt = :now, r.startedAt = :now, r.attempts = r.attempts + 1 " +
+            "where r.runId = :runId and (r.status = com.task.hwai.model.RunStatus.QUEUED " +
+            "or (r.status = com.task.hwai.model.RunStatus.PROCESSING and (r.leaseExpiresAt is null or r.leaseExpiresAt < :now)))")
+    int claim(@Param("runId") UUID runId, @Param("owner") String owner,
+              @Param("now") Instant now, @Param("expires") Instant expires);
+
+    @Transactional
+    @Modifying
+    @Query("update RunEntity r set r.leaseExpiresAt = :expires, r.heartbeatAt = :now " +
+            "where r.runId = :runId and r.leaseOwner = :owner and r.status = com.task.hwai.model.RunStatus.PROCESSING")
+    int renewLease(@Param("runId") UUID runId, @Param("owner") String owner,
+                   @Param("now") Instant now, @Param("expires") Instant expires);
+
+    // Only the current lease holder may record the outcome.
+    @Transactional
+    @Modifying
+    @Query("update RunEntity r set r.status = :status, r.completedAt = :now, r.error = :error, " +
+            "r.leaseOwner = null, r.leaseExpiresAt = null " +
+            "where r.runId = :runId and r.leaseOwner = :owner and r.status = com.task.hwai.model.RunStatus.PROCESSING")
+    int finish(@Param("runId") UUID runId, @Param("owner") String owner, @Param("status") RunStatus status,
+               @Param("now") Instant now, @Param("error") String error);
+
+    // Queued or in-progress runs only; the node holding the lease notices on its next heartbeat.
+    @Transactional
+    @Modifying
+    @Query("update RunEntity r set r.status = com.task.hwai.model.RunStatus.CANCELLED, r.completedAt = :now, " +
+            "r.error = :reason, r.leaseOwner = null, r.leaseExpiresAt = null where r.runId = :runId " +
+            "and r.status in (com.task.hwai.model.RunStatus.QUEUED, com.task.hwai.model.RunStatus.PROCESSING)")
+    int cancel(@Param("runId") UUID runId, @Param("now") Instant now, @Param("reason") String reason);
+
+    // Runs whose workers kept dying are failed rather than handed out forever.
+    @Transactional
+    @Modifying
+    @Query("update RunEntity r set r.status = com.task.hwai.model.RunStatus.FAILED, r.completedAt = :now, " +
+            "r.error = 'Abandoned after repeated worker loss', r.leaseOwner = null, r.leaseExpiresAt = null " +
+            "where r.status = com.task.hwai.model.RunStatus.PROCESSING and r.attempts >= :maxAttempts " +
+            "and (r.leaseExpiresAt is null or r.leaseExpiresAt < :now)")
+    int failAbandoned(@Param("now") Instant now, @Param("maxAttempts") int maxAttempts);
+
+    // Hands one run back without counting the attempt, e.g. when this node is overloaded.
+    @Transactional
+    @Modifying
+    @Query("update RunEntity r set r.status = com.task.hwai.model.RunStatus.QUEUED, r.leaseOwner = null, " +
+            "r.leaseExpiresAt = null, r.attempts = r.attempts - 1 " +
+            "where r.runId = :runId and r.leaseOwner = :owner and r.status = com.task.hwai.model.RunStatus.PROCESSING")
+    int releaseLease(@Param("runId") UUID runId, @Param("owner") String owner);
+
+    @Transactional
+    @Modifying
+    @Query("update RunEntity r set r.status = com.task.hwai.model.RunStatus.QUEUED, r.leaseOwner = null, " +
+            "r.leaseExpiresAt = null where r.leaseOwner = :owner and r.status = com.task.hwai.model.RunStatus.PROCESSING")
+    int releaseLeasesOf(@Param("owner") String owner);
+}
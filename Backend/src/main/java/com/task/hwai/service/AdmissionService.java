@@ -0,0 +1,177 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.RunStatus;
+import com.task.hwai.repo.RunRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for work that ends up on the OCR service and the LLM. Counts
+ * in-flight OCR and LLM calls and the depth of the run queue; when a limit is hit new
+ * requests are turned away (HTTP 429) with a Retry-After estimated from how fast work
+ * is currently draining, instead of piling up behind 300 s client timeouts. Queued
+ * runs are counted per OCR and LLM call in a budget of their own, so background load
+ * never uses up the slots of synchronous requests.
+ */
+@Service
+public class AdmissionService {
+
+    public enum Work { OCR, LLM }
+
+    /** Held for the duration of admitted work; closing it releases the slots. */
+    public final class Permit implements AutoCloseable {
+        private final Set<Work> work;
+        private final Map<Work, AtomicInteger> counters;
+        private final boolean drains;
+        private boolean closed;
+
+        private Permit(Set<Work> work, Map<Work, AtomicInteger> counters, boolean drains) {
+            this.work = work;
+            this.counters = counters;
+            this.drains = drains;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            for (Work w : work) counters.get(w).decrementAndGet();
+            if (drains) completed.incrementAndGet();
+        }
+    }
+
+    public record Rejection(String reason, long retryAfterSeconds) {}
+
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final RunRepo runRepo;
+    private final Map<Work, AtomicInteger> inFlight = new EnumMap<>(Work.class);
+    private final Map<Work, AtomicInteger> backgroundInFlight = new EnumMap<>(Work.class);
+    private final Map<Work, Integer> limits = new EnumMap<>(Work.class);
+    private final long maxQueuedRuns;
+    private final long queueDepthTtlMs;
+    private final long maxRetryAfterSeconds;
+    private final AtomicLong completed = new AtomicLong();
+    private volatile double drainPerSecond;
+    private volatile long queuedRuns;
+    private final AtomicLong admittedSinceRead = new AtomicLong();
+    private volatile long queuedRunsReadAt;
+
+    public AdmissionService(
+            RunRepo runRepo,
+            @Value("${app.admission.ocr.maxInFlight:8}") int maxOcr,
+            @Value("${app.admission.llm.maxInFlight:16}") int maxLlm,
+            @Value("${app.admission.maxQueuedRuns:1000}") long maxQueuedRuns,
+            @Value("${app.admission.queueDepthTtlMs:1000}") long queueDepthTtlMs,
+            @Value("${app.admission.maxRetryAfterSeconds:300}") long maxRetryAfterSeconds
+    ) {
+        this.runRepo = runRepo;
+        this.limits.put(Work.OCR, maxOcr);
+        this.limits.put(Work.LLM, maxLlm);
+        for (Work w : Work.values()) {
+            inFlight.put(w, new AtomicInteger());
+            backgroundInFlight.put(w, new AtomicInteger());
+        }
+        this.maxQueuedRuns = maxQueuedRuns;
+        this.queueDepthTtlMs = queueDepthTtlMs;
+        this.maxRetryAfterSeconds = maxRetryAfterSeconds;
+    }
+
+    /** Takes a slot for each kind of work, or returns null when any of them is full. */
+    public Permit tryAcquire(Set<Work> work) {
+        for (Work w : work) {
+            AtomicInteger counter = inFlight.get(w);
+            if (counter.incrementAndGet() > limits.get(w)) {
+                counter.decrementAndGet();
+                for (Work taken : work) {
+                    if (taken == w) break;
+                    inFlight.get(taken).decrementAndGet();
+                }
+                return null;
+            }
+        }
+        return new Permit(work, inFlight, true);
+    }
+
+    /**
+     * For queued runs, around each OCR or LLM call. The pipeline's stage pools bound these,
+     * so they are counted separately and never refused. Every run passes OCR once, so
+     * that is what counts towards the drain rate.
+     */
+    public Permit acquire(Set<Work> work) {
+        for (Work w : work) backgroundInFlight.get(w).incrementAndGet();
+        return new Permit(work, backgroundInFlight, work.contains(Work.OCR));
+    }
+
+    /** Why {@code work} could not be admitted, and when to come back. */
+    public Rejection rejection(Set<Work> work) {
+        long excess = 1;
+        for (Work w : work) excess = Math.max(excess, inFlight.get(w).get() - limits.get(w) + 1);
+        return new Rejection("Too many extractions in progress", retryAfter(excess));
+    }
+
+    /**
+     * Admits one new queued run unless the queue is already past its limit. Runs admitted
+     * since the depth was last read count towards it, so a batch registering thousands of
+     * runs within {@code app.admission.queueDepthTtlMs} still stops at the limit.
+     */
+    public Rejection admitRun() {
+        Rejection full = queueFull();
+        if (full == null) admittedSinceRead.incrementAndGet();
+        return full;
+    }
+
+    /** Same check as {@link #admitRun()} without admitting anything, for requests that admit their runs one by one. */
+    public Rejection queueFull() {
+        long depth = queuedRuns() + admittedSinceRead.get();
+        if (depth < maxQueuedRuns) return null;
+        return new Rejection("Run queue is full (" + depth + " queued)", retryAfter(depth - maxQueuedRuns + 1));
+    }
+
+    /** Seconds until {@code backlog} units of work should have drained at the current rate. */
+    long retryAfter(long backlog) {
+        double rate = drainPerSecond;
+        if (rate <= 0.01) return maxRetryAfterSeconds;
+        return Math.max(1, Math.min(maxRetryAfterSeconds, (long) Math.ceil(backlog / rate)));
+    }
+
+    @Scheduled(fixedRate = 1000)
+    public void sampleDrainRate() {
+        long done = completed.getAndSet(0);
+        drainPerSecond = EWMA_ALPHA * done + (1 - EWMA_ALPHA) * drainPerSecond;
+    }
+
+    private long queuedRuns() {
+        long now = System.currentTimeMillis();
+        if (now - queuedRunsReadAt > queueDepthTtlMs) {
+            admittedSinceRead.set(0);    // from here on they are in the count
+            queuedRuns = runRepo.countByStatus(RunStatus.QUEUED);
+            queuedRunsReadAt = now;
+        }
+        return queuedRuns;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        for (Work w : Work.values()) {
+            out.put(w.name().toLowerCase() + "InFlight", inFlight.get(w).get());
+            out.put(w.name().toLowerCase() + "Limit", limits.get(w));
+        }
+        for (Work w : Work.values()) {
+            out.put("queued" + w.name().charAt(0) + w.name().substring(1).toLowerCase() + "InFlight",
+                    backgroundInFlight.get(w).get());
+        }
+        out.put("queuedRuns", queuedRuns() + admittedSinceRead.get());
+        out.put("maxQueuedRuns", maxQueuedRuns);
+        out.put("drainPerSecond", Math.round(drainPerSecond * 100) / 100.0);
+        return out;
+    }
+}
@@ -33,6 +33,8 @@ public class AgentService {
     private final com.task.hwai.repo.RunRepo runRepo;
     private final com.task.hwai.repo.ExtractionRepo extractionRepo;
     private final String openaiModel;
+    private final LlmResponseCache llmCache;
+    private final PromptPayloadEncoder payloads;
 
     public AgentService(
             OpenAiService llm,
@@ -40,7 +42,9 @@ public class AgentService {
             Tracer tracer,
             com.task.hwai.repo.RunRepo runRepo,
             com.task.hwai.repo.ExtractionRepo extractionRepo,
-            @Value("${openai.model}") String openaiModel
+            @Value("${openai.model}") String openaiModel,
+            LlmResponseCache llmCache,
+            PromptPayloadEncoder payloads
     ) {
         this.llm = llm;
         this.ocr = ocr;
@@ -48,6 +52,8 @@ public class AgentService {
         this.runRepo = runRepo;
         this.extractionRepo = extractionRepo;
         this.openaiModel = openaiModel;
+        this.llmCache = llmCache;
+        this.payloads = payloads;
     }
 
     @Transactional
@@ -75,8 +81,6 @@ public class AgentService {
                 ocrSpan.end();
             }
 
-            Map<String, Object> payload = Map.of("pages", pages);
-
             // ------------------ PROMPT ------------------
             String systemPrompt = """
                 You are a strict information extraction engine.
@@ -102,8 +106,14 @@ public class AgentService {
                   "processing_time_ms": number
                 }
             """;
+            if (payloads.compact()) systemPrompt += "\n" + PromptPayloadEncoder.FORMAT_NOTE;
 
-            String userPayload = om.writeValueAsString(payload);
+            PromptPayloadEncoder.Payload payload = payloads.encode(pages, openaiModel);
+            System.out.println("[LLM] Prompt payload for run " + runId + ": " + payload.tokens()
+                    + " tokens (" + payload.jsonTokens() + " as JSON)");
+            String userPayload = payload.text();
+            LlmResponseCache.Key cacheKey = llmCache.key("agent", openaiModel, systemPrompt, userPayload);
+            String cached = llmCache.get(cacheKey);
 
             // ------------------ LLM CALL (with 429 retry) ------------------
             var llmSpan = tracer.spanBuilder("llm.structuring").startSpan();
@@ -116,27 +126,32 @@ public class AgentService {
             System.out.println("[LANGFUSE] Set input attribute (length: " + inputForLangfuse.length() + ")");
 
             try {
-                List<ChatMessage> messages = List.of(
-                        new ChatMessage("system", systemPrompt),
-                        new ChatMessage("user", "OCR_DATA:\n" + userPayload)
-                );
-                ChatCompletionRequest request = ChatCompletionRequest.builder()
-                        .model(openaiModel)
-                        .messages(messages)
-                        .maxTokens(3000)
-                        .temperature(0.0)
-                        .build();
-
-                rawOutput = runWith429Retry(() -> {
-                    var response = llm.createChatCompletion(request);
-                    if (response.getChoices() != null && !response.getChoices().isEmpty()) {
-                        ChatCompletionChoice choice = response.getChoices().get(0);
-                        return choice.getMessage().getContent();
-                    }
-                    return null;
-                });
-
-                System.out.println("LLM RAW OUTPUT --> " + rawOutput);
+                if (cached != null) {
+                    System.out.println("[LLM] Reusing the cached answer for run " + runId);
+                    rawOutput = cached;
+                } else {
+                    List<ChatMessage> messages = List.of(
+                            new ChatMessage("system", systemPrompt),
+                            new ChatMessage("user", "OCR_DATA:\n" + userPayload)
+                    );
+                    ChatCompletionRequest request = ChatCompletionRequest.builder()
+                            .model(openaiModel)
+                            .messages(messages)
+                            .maxTokens(3000)
+                            .temperature(0.0)
+                            .build();
+
+                    rawOutput = runWith429Retry(() -> {
+                        var response = llm.createChatCompletion(request);
+                        if (response.getChoices() != null && !response.getChoices().isEmpty()) {
+                            ChatCompletionChoice choice = response.getChoices().get(0);
+                            return choice.getMessage().getContent();
+                        }
+                        return null;
+                    });
+
+                    System.out.println("LLM RAW OUTPUT --> " + rawOutput);
+                }
 
                 // Set output attribute for Langfuse
                 if (rawOutput != null) {
@@ -171,6 +186,8 @@ public class AgentService {
                 return saveFallback(fileId, runId, t0, "LLM returned invalid JSON");
             }
 
+            if (cached == null) llmCache.put(cacheKey, rawOutput);
+
             // ------------------ ENFORCE IDs ------------------
             result = new ExtractionResult(
                     fileId.toString(),
@@ -220,6 +237,12 @@ public class AgentService {
                 if (ex.statusCode == 429) {
                     if (attempt >= maxAttempts - 1) throw ex;
                     long wait = backoffsMs[Math.min(attempt, backoffsMs.length - 1)];
+                    RunContext ctx = RunContext.current();
+                    if (ctx != null) {
+                        // never back off past the run's deadline
+                        ctx.checkActive();
+                        if (ctx.remaining().toMillis() <= wait) throw ex;
+                    }
                     System.err.println("⚠️ Rate limit 429. Retrying in " + wait + " ms (" + (attempt+1) + "/" + maxAttempts + ")");
                     Thread.sleep(wait);
                     attempt++;
@@ -0,0 +1,28 @@
+package com.task.hwai.service;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Backend that holds the bytes of content-addressed blobs. {@link StorageService}
+ * stages and hashes uploads locally, then hands the finished file to the store.
+ */
+public interface BlobStore {
+
+    /** Stores the staged file under {@code key}, consuming it, and returns the object's storage URI. */
+    String put(String key, Path staged) throws Exception;
+
+    boolean exists(String storageUri) throws Exception;
+
+    /** Returns a local, readable file for the object; remote stores serve it from a read-through cache. */
+    Path localPath(String storageUri) throws Exception;
+
+    void delete(String storageUri) throws Exception;
+
+    /** URIs of all stored objects last written before {@code cutoff}; used to find strays. */
+    List<String> listOlderThan(Instant cutoff) throws Exception;
+
+    /** Whether {@code storageUri} was issued by this store. */
+    boolean owns(String storageUri);
+}
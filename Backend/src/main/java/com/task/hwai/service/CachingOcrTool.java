@@ -0,0 +1,260 @@
+package com.task.hwai.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link OcrTool} everything else is wired with: OCR results cached by the
+ * SHA-256 of the file's content plus the engine version ({@link RoutingOcrTool#versionFor}),
+ * so the same image sent to the simple and the agent endpoint, or re-submitted as a
+ * new run, is OCR'd once. Two tiers: a bounded in-memory LRU
+ * ({@code ocr.cache.memoryEntries}) and JSON files under {@code ocr.cache.dir} that
+ * survive restarts, trimmed to {@code ocr.cache.diskMaxBytes} oldest-used first.
+ * Concurrent misses for the same key share one extraction; {@link #extractAsync}
+ * waits for it without holding a thread.
+ */
+@Service
+@Primary
+public class CachingOcrTool implements OcrTool {
+
+    private final RoutingOcrTool delegate;
+    private final boolean enabled;
+    private final Path dir;
+    private final long diskMaxBytes;
+    private final Map<String, List<PageResult>> memory;
+    private final Map<String, CompletableFuture<List<PageResult>>> inFlight = new ConcurrentHashMap<>();
+    private final ObjectMapper om = new ObjectMapper();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingOcrTool(
+            RoutingOcrTool delegate,
+            @Value("${ocr.cache.enabled:true}") boolean enabled,
+            @Value("${ocr.cache.dir:${app.storage.localDir:./storage}/ocr-cache}") String dir,
+            @Value("${ocr.cache.memoryEntries:1000}") int memoryEntries,
+            @Value("${ocr.cache.diskMaxBytes:1073741824}") long diskMaxBytes
+    ) {
+        this.delegate = delegate;
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.diskMaxBytes = diskMaxBytes;
+        int capacity = Math.max(1, memoryEntries);
+        this.memory = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<PageResult>> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    @Override
+    public List<PageResult> extract(Path path) throws Exception {
+        return OcrTool.await(extractAsync(path));
+    }
+
+    /** A hit completes right away; a miss completes when the engine's (possibly asynchronous) extraction does. */
+    @Override
+    public CompletableFuture<List<PageResult>> extractAsync(Path path) {
+        if (!enabled) return delegate.extractAsync(path);
+        try {
+            return lookup(key(path), path, RunContext.current());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<List<PageResult>> lookup(String key, Path path, RunContext ctx) {
+        List<PageResult> cached = memory.get(key);
+        if (cached != null) {
+            memoryHits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<List<PageResult>> mine = new CompletableFuture<>();
+        CompletableFuture<List<PageResult>> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            return running.exceptionallyCompose(error -> {
+                // the run that was extracting it was cancelled; unless this one was too, extract it here
+                if (unwrap(error) instanceof RunContext.AbortedException && (ctx == null || !ctx.isAborted())) {
+                    try (RunContext.Registration bound = ctx != null ? ctx.bind() : () -> {}) {
+                        return lookup(key, path, ctx);
+                    }
+                }
+                return CompletableFuture.failedFuture(unwrap(error));
+            });
+        }
+
+        List<PageResult> stored = readDisk(key);
+        if (stored != null) {
+            diskHits.incrementAndGet();
+            memory.put(key, stored);
+            mine.complete(stored);
+            inFlight.remove(key, mine);
+            return mine.copy();
+        }
+
+        misses.incrementAndGet();
+        CompletableFuture<List<PageResult>> extracted;
+        try {
+            extracted = delegate.extractAsync(path);
+        } catch (Exception e) {
+            extracted = CompletableFuture.failedFuture(e);
+        }
+        extracted.whenComplete((pages, error) -> {
+            if (error == null) {
+                writeDisk(key, pages);
+                memory.put(key, pages);
+                mine.complete(pages);
+            } else {
+                mine.completeExceptionally(unwrap(error));
+            }
+            inFlight.remove(key, mine);
+        });
+        return mine.copy();    // a caller giving up must not cancel the extraction others wait for
+    }
+
+    @Override
+    public String version() {
+        return delegate.version();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled);
+        out.put("memoryEntries", memory.size());
+        out.put("memoryHits", memoryHits.get());
+        out.put("diskHits", diskHits.get());
+        out.put("misses", misses.get());
+        out.put("inFlight", inFlight.size());
+        return out;
+    }
+
+    /** Deletes the least recently used files once the disk tier is over its size limit. */
+    @Scheduled(initialDelayString = "${ocr.cache.sweepMs:600000}", fixedDelayString = "${ocr.cache.sweepMs:600000}")
+    public int trimDisk() {
+        if (!Files.isDirectory(dir)) return 0;
+        record Entry(Path path, long size, FileTime used) {}
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (var files = Files.walk(dir)) {
+            for (Path p : files.filter(Files::isRegularFile).toList()) {
+                try {
+                    long size = Files.size(p);
+                    entries.add(new Entry(p, size, Files.getLastModifiedTime(p)));
+                    total += size;
+                } catch (Exception ignored) {
+                    // removed concurrently
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("[OCR-CACHE] Could not scan " + dir + ": " + e.getMessage());
+            return 0;
+        }
+        if (total <= diskMaxBytes) return 0;
+
+        entries.sort(Comparator.comparing(Entry::used));
+        long target = diskMaxBytes * 9 / 10;    // leave headroom so the next sweep has nothing to do
+        int deleted = 0;
+        for (Entry e : entries) {
+            if (total <= target) break;
+            try {
+                Files.deleteIfExists(e.path());
+                total -= e.size();
+                deleted++;
+            } catch (Exception ignored) {
+                // retried on the next sweep
+            }
+        }
+        System.out.println("[OCR-CACHE] Trimmed " + deleted + " cached result(s)");
+        return deleted;
+    }
+
+    private String key(Path path) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) md.update(buf, 0, n);
+        }
+        String content = HexFormat.of().formatHex(md.digest());
+        byte[] version = MessageDigest.getInstance("SHA-256")
+                .digest(delegate.versionFor(path).getBytes(StandardCharsets.UTF_8));
+        return content + "-" + HexFormat.of().formatHex(version, 0, 6);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private Path fileFor(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + ".json");
+    }
+
+    private List<PageResult> readDisk(String key) {
+        Path file = fileFor(key);
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            List<PageResult> pages = new ArrayList<>();
+            for (JsonNode page : om.readTree(file.toFile())) {
+                PageResult.Builder tokens = PageResult.builder();
+                for (JsonNode t : page.path("tokens")) {
+                    String fieldKey = t.hasNonNull("key") ? t.get("key").asText() : null;
+                    tokens.add(fieldKey, t.path("text").asText(""), (float) t.path("confidence").asDouble());
+                    JsonNode box = t.path("box");
+                    if (box.size() == 4) tokens.box(box.get(0).asInt(), box.get(1).asInt(), box.get(2).asInt(), box.get(3).asInt());
+                }
+                List<Map<String, Object>> rawBlocks = new ArrayList<>();
+                for (JsonNode b : page.path("rawBlocks")) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> block = om.convertValue(b, Map.class);
+                    rawBlocks.add(block);
+                }
+                pages.add(tokens.build(page.path("page").asInt(pages.size() + 1), rawBlocks));
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return pages;
+        } catch (Exception e) {
+            System.err.println("[OCR-CACHE] Dropping unreadable entry " + file.getFileName() + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(file);
+            } catch (Exception ignored) {
+                // left for the next sweep
+            }
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, List<PageResult> pages) {
+        Path file = fileFor(key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+            try {
+                om.writeValue(tmp.toFile(), pages);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (Exception e) {
+            // the result is still returned; it just won't survive a restart
+            System.err.println("[OCR-CACHE] Could not write " + file.getFileName() + ": " + e.getMessage());
+        }
+    }
+}
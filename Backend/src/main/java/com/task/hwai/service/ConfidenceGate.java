@@ -0,0 +1,66 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.ExtractionResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which OCR'd pages need no LLM structuring. A page qualifies when the OCR
+ * service already sent it as flat key/value fields ({@code rawBlocks}) and every
+ * token on it is such a field with a confidence of at least
+ * {@code extraction.bypass.minConfidence}; it is then turned into an
+ * {@link ExtractionResult.Page} as is. Free text, nested values and anything less
+ * certain still go to the LLM.
+ */
+@Service
+public class ConfidenceGate {
+
+    private final boolean enabled;
+    private final float minConfidence;
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicLong structured = new AtomicLong();
+
+    public ConfidenceGate(
+            @Value("${extraction.bypass.enabled:true}") boolean enabled,
+            @Value("${extraction.bypass.minConfidence:0.9}") float minConfidence
+    ) {
+        this.enabled = enabled;
+        this.minConfidence = minConfidence;
+    }
+
+    /** The page built from its fields, or null when it has to go to the LLM. */
+    public ExtractionResult.Page toPage(OcrTool.PageResult page) {
+        Map<String, Object> fields = enabled ? fields(page) : null;
+        (fields != null ? bypassed : structured).incrementAndGet();
+        return fields != null ? new ExtractionResult.Page(page.getPage(), fields, List.of()) : null;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled);
+        out.put("minConfidence", minConfidence);
+        out.put("pagesBypassed", bypassed.get());
+        out.put("pagesStructured", structured.get());
+        return out;
+    }
+
+    private Map<String, Object> fields(OcrTool.PageResult page) {
+        if (page.tokenCount() == 0 || page.getRawBlocks() == null || page.getRawBlocks().isEmpty()) return null;
+        for (int i = 0; i < page.tokenCount(); i++) {
+            if (page.key(i) == null || page.confidence(i) < minConfidence) return null;
+        }
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (Map<String, Object> block : page.getRawBlocks()) {
+            for (Map.Entry<String, Object> e : block.entrySet()) {
+                if (e.getValue() instanceof Map || e.getValue() instanceof List) return null;    // needs structuring
+                fields.putIfAbsent(e.getKey(), e.getValue());
+            }
+        }
+        return fields.isEmpty() ? null : fields;
+    }
+}
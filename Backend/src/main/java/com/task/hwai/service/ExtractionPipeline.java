@@ -0,0 +1,194 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.ExtractionResult;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Staged extraction: OCR, prompt building, LLM structuring and persistence each run
+ * on their own bounded executor, so document N+1 is being OCR'd while document N
+ * waits on the LLM. Thread counts are per stage ({@code app.pipeline.<stage>.threads})
+ * because the OCR service and OpenAI have very different capacity. The LLM chunks of
+ * one document are separate LLM-stage tasks, in up to {@code llm.chunk.parallelism}
+ * lanes, so the stage's thread count caps LLM calls across all documents. Each OCR
+ * and LLM call holds a queued-work permit from {@link AdmissionService}.
+ */
+@Service
+public class ExtractionPipeline {
+
+    public enum Stage { OCR, PROMPT, LLM, PERSIST }
+
+    /** The document to extract, loaded on the OCR stage (it may need a download). */
+    public record Document(String fileId, Path path) {}
+
+    @FunctionalInterface
+    public interface Persister<T> {
+        T persist(ExtractionResult result) throws Exception;
+    }
+
+    private final LangChainExtractionService extraction;
+    private final AdmissionService admission;
+    private final int chunkParallelism;
+    private final Map<Stage, ThreadPoolExecutor> executors = new LinkedHashMap<>();
+
+    public ExtractionPipeline(
+            LangChainExtractionService extraction,
+            AdmissionService admission,
+            @Value("${app.pipeline.ocr.threads:2}") int ocrThreads,
+            @Value("${app.pipeline.prompt.threads:2}") int promptThreads,
+            @Value("${app.pipeline.llm.threads:4}") int llmThreads,
+            @Value("${app.pipeline.persist.threads:2}") int persistThreads,
+            @Value("${app.pipeline.queueCapacity:64}") int queueCapacity,
+            @Value("${llm.chunk.parallelism:4}") int chunkParallelism
+    ) {
+        this.extraction = extraction;
+        this.admission = admission;
+        this.chunkParallelism = Math.max(1, chunkParallelism);
+        executors.put(Stage.OCR, stageExecutor("ocr", ocrThreads, queueCapacity));
+        executors.put(Stage.PROMPT, stageExecutor("prompt", promptThreads, queueCapacity));
+        executors.put(Stage.LLM, stageExecutor("llm", llmThreads, queueCapacity));
+        executors.put(Stage.PERSIST, stageExecutor("persist", persistThreads, queueCapacity));
+    }
+
+    /**
+     * Runs one document through all stages. {@code onStage} hears "ocr_done" and
+     * "llm_done"; {@code persister} runs on the persistence stage. A stage whose queue
+     * is full fails the future with {@link RejectedExecutionException}. Each stage runs
+     * with {@code ctx} bound and is skipped once the run is cancelled or out of time.
+     */
+    public <T> CompletableFuture<T> submit(
+            String runId,
+            RunContext ctx,
+            Callable<Document> source,
+            Consumer<String> onStage,
+            Persister<T> persister
+    ) {
+        AtomicReference<LangChainExtractionService.Job> current = new AtomicReference<>();
+        CompletableFuture<T> result;
+        try {
+            result = CompletableFuture
+                    .supplyAsync(stage(ctx, () -> {
+                        Document doc = source.call();
+                        var job = extraction.begin(doc.fileId(), runId);
+                        current.set(job);
+                        try (var permit = admission.acquire(EnumSet.of(AdmissionService.Work.OCR))) {
+                            extraction.ocr(job, doc.path());
+                        }
+                        onStage.accept("ocr_done");
+                        return job;
+                    }), executors.get(Stage.OCR))
+                    .thenApplyAsync(stage(ctx, job -> {
+                        extraction.buildPrompt(job);
+                        return job;
+                    }), executors.get(Stage.PROMPT))
+                    .thenCompose(job -> structure(ctx, job, extraction.chunks(job)).thenApply(done -> {
+                        onStage.accept("llm_done");
+                        return job;
+                    }))
+                    .thenApplyAsync(stage(ctx, job -> persister.persist(extraction.parse(job))), executors.get(Stage.PERSIST));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((r, e) -> {
+            if (current.get() != null) extraction.end(current.get());
+        });
+    }
+
+    /**
+     * Sends one round of a document's chunks on the LLM stage, lane by lane so no more than
+     * {@code chunkParallelism} of them are in flight, then any halves of cut-off chunks.
+     * Nothing blocks a stage thread while other chunks are out.
+     */
+    private CompletableFuture<Void> structure(RunContext ctx, LangChainExtractionService.Job job,
+                                              List<LangChainExtractionService.Chunk> round) {
+        if (round.isEmpty()) return CompletableFuture.completedFuture(null);
+        int lanes = Math.min(chunkParallelism, round.size());
+        CompletableFuture<?>[] running = new CompletableFuture<?>[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            for (int i = lane; i < round.size(); i += lanes) {
+                var chunk = round.get(i);
+                chain = chain.thenApplyAsync(stage(ctx, (Void ignored) -> {
+                    try (var permit = admission.acquire(EnumSet.of(AdmissionService.Work.LLM))) {
+                        extraction.structure(job, chunk);
+                    }
+                    return null;
+                }), executors.get(Stage.LLM));
+            }
+            running[lane] = chain;
+        }
+        return CompletableFuture.allOf(running)
+                .thenApplyAsync(stage(ctx, (Void ignored) -> extraction.nextRound(job, round)), executors.get(Stage.PROMPT))
+                .thenCompose(next -> structure(ctx, job, next));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        executors.forEach((stage, ex) -> out.put(stage.name().toLowerCase(), Map.of(
+                "threads", ex.getMaximumPoolSize(),
+                "active", ex.getActiveCount(),
+                "queued", ex.getQueue().size(),
+                "completed", ex.getCompletedTaskCount())));
+        return out;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executors.values().forEach(ExecutorService::shutdownNow);
+    }
+
+    @FunctionalInterface
+    private interface StageCall<T> {
+        T call() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface StageFn<A, B> {
+        B apply(A a) throws Exception;
+    }
+
+    private static <T> java.util.function.Supplier<T> stage(RunContext ctx, StageCall<T> call) {
+        return () -> {
+            try (var bound = ctx.bind()) {
+                ctx.checkActive();
+                return call.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        };
+    }
+
+    private static <A, B> java.util.function.Function<A, B> stage(RunContext ctx, StageFn<A, B> fn) {
+        return a -> {
+            try (var bound = ctx.bind()) {
+                ctx.checkActive();
+                return fn.apply(a);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        };
+    }
+
+    private static ThreadPoolExecutor stageExecutor(String name, int threads, int queueCapacity) {
+        AtomicInteger n = new AtomicInteger();
+        int size = Math.max(1, threads);
+        return new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "pipeline-" + name + "-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+}
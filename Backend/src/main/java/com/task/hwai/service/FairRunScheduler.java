@@ -0,0 +1,161 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.RunPriority;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Decides which claimable runs this node takes next. Interactive runs always go
+ * before batch runs, each class is capped at its own number of concurrent runs, and
+ * within a class tenants share the workers by weighted fair queuing (start-time
+ * fair queuing over the run count), so one tenant's 5,000 forms wait behind, not in
+ * front of, another tenant's single form. Keeps queue wait statistics per class.
+ */
+@Service
+public class FairRunScheduler {
+
+    private static final int WAIT_SAMPLES = 1024;
+
+    public record Candidate(UUID runId, String tenant, RunPriority priority, Instant queuedAt) {}
+
+    private final Map<RunPriority, Integer> caps = new EnumMap<>(RunPriority.class);
+    private final Map<String, Double> weights;
+    private final Map<RunPriority, ClassState> classes = new EnumMap<>(RunPriority.class);
+
+    public FairRunScheduler(
+            @Value("${app.runs.workers:8}") int workers,
+            @Value("${app.runs.classes.interactive.maxConcurrent:0}") int interactiveCap,
+            @Value("${app.runs.classes.batch.maxConcurrent:0}") int batchCap,
+            @Value("${app.runs.tenantWeights:}") String tenantWeights
+    ) {
+        caps.put(RunPriority.INTERACTIVE, interactiveCap > 0 ? interactiveCap : workers);
+        // By default batch work leaves a quarter of the workers free for interactive runs.
+        caps.put(RunPriority.BATCH, batchCap > 0 ? batchCap : Math.max(1, workers - workers / 4));
+        this.weights = parseWeights(tenantWeights);
+        for (RunPriority p : RunPriority.values()) classes.put(p, new ClassState());
+    }
+
+    /** Orders up to {@code slots} candidates for claiming; candidates over a class cap are left out. */
+    public synchronized List<Candidate> select(List<Candidate> candidates, int slots) {
+        Map<RunPriority, Map<String, Deque<Candidate>>> queues = new EnumMap<>(RunPriority.class);
+        candidates.stream()
+                .sorted(Comparator.comparing(Candidate::queuedAt))
+                .forEach(c -> queues.computeIfAbsent(c.priority(), p -> new HashMap<>())
+                        .computeIfAbsent(c.tenant(), t -> new ArrayDeque<>())
+                        .add(c));
+
+        Map<RunPriority, Integer> planned = new EnumMap<>(RunPriority.class);
+        List<Candidate> picks = new ArrayList<>();
+        while (picks.size() < slots) {
+            RunPriority cls = null;
+            for (RunPriority p : RunPriority.values()) {    // declaration order is priority order
+                var waiting = queues.get(p);
+                if (waiting == null || waiting.isEmpty()) continue;
+                if (classes.get(p).running + planned.getOrDefault(p, 0) >= caps.get(p)) continue;
+                cls = p;
+                break;
+            }
+            if (cls == null) break;
+
+            ClassState state = classes.get(cls);
+            var waiting = queues.get(cls);
+            String tenant = null;
+            double tag = 0;
+            for (var e : waiting.entrySet()) {
+                double t = Math.max(state.virtualTime, state.finishTags.getOrDefault(e.getKey(), 0.0));
+                if (tenant == null || t < tag || (t == tag
+                        && e.getValue().peek().queuedAt().isBefore(waiting.get(tenant).peek().queuedAt()))) {
+                    tenant = e.getKey();
+                    tag = t;
+                }
+            }
+            Deque<Candidate> queue = waiting.get(tenant);
+            picks.add(queue.poll());
+            if (queue.isEmpty()) waiting.remove(tenant);
+
+            state.virtualTime = tag;
+            state.finishTags.put(tenant, tag + 1.0 / weightOf(tenant));
+            planned.merge(cls, 1, Integer::sum);
+        }
+
+        // Tenants that fell behind the virtual clock have no backlog left to account for.
+        for (ClassState state : classes.values()) {
+            state.finishTags.values().removeIf(tag -> tag <= state.virtualTime);
+        }
+        return picks;
+    }
+
+    public synchronized void started(Candidate run, Instant now) {
+        ClassState state = classes.get(run.priority());
+        long waitMs = Math.max(0, Duration.between(run.queuedAt(), now).toMillis());
+        state.waitSamples[(int) (state.dispatched % WAIT_SAMPLES)] = waitMs;
+        state.running++;
+        state.dispatched++;
+        state.totalWaitMs += waitMs;
+        state.maxWaitMs = Math.max(state.maxWaitMs, waitMs);
+    }
+
+    public synchronized void finished(RunPriority priority) {
+        classes.get(priority).running--;
+    }
+
+    /** Per-class concurrency and queue wait figures for this node. */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        for (RunPriority p : RunPriority.values()) {
+            ClassState state = classes.get(p);
+            long[] recent = Arrays.copyOf(state.waitSamples, (int) Math.min(state.dispatched, WAIT_SAMPLES));
+            Arrays.sort(recent);
+            Map<String, Object> cls = new LinkedHashMap<>();
+            cls.put("running", state.running);
+            cls.put("maxConcurrent", caps.get(p));
+            cls.put("dispatched", state.dispatched);
+            cls.put("avgWaitMs", state.dispatched == 0 ? 0 : state.totalWaitMs / state.dispatched);
+            cls.put("p50WaitMs", percentile(recent, 0.50));
+            cls.put("p95WaitMs", percentile(recent, 0.95));
+            cls.put("maxWaitMs", state.maxWaitMs);
+            out.put(p.name().toLowerCase(), cls);
+        }
+        return out;
+    }
+
+    private double weightOf(String tenant) {
+        return weights.getOrDefault(tenant, weights.getOrDefault("default", 1.0));
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(q * sorted.length) - 1)];
+    }
+
+    // "acme=4,globex=2,default=1"
+    private static Map<String, Double> parseWeights(String spec) {
+        Map<String, Double> out = new HashMap<>();
+        if (spec == null || spec.isBlank()) return out;
+        for (String entry : spec.split(",")) {
+            String[] kv = entry.split("=", 2);
+            if (kv.length != 2) continue;
+            try {
+                double w = Double.parseDouble(kv[1].trim());
+                if (w > 0) out.put(kv[0].trim(), w);
+            } catch (NumberFormatException e) {
+                System.err.println("[RUNS] Ignoring tenant weight '" + entry + "'");
+            }
+        }
+        return out;
+    }
+
+    private static final class ClassState {
+        int running;
+        long dispatched;
+        long totalWaitMs;
+        long maxWaitMs;
+        final long[] waitSamples = new long[WAIT_SAMPLES];
+        double virtualTime;
+        final Map<String, Double> finishTags = new HashMap<>();
+    }
+}
@@ -0,0 +1,202 @@
+package com.task.hwai.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.task.hwai.model.FormTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The form layouts {@link TemplateExtractor} recognises, one JSON file per template
+ * under {@code ocr.templates.dir}. A template is registered from a sample page: its
+ * layout hash is a difference hash (dHash) of the page shrunk to a 17x17 grid, which
+ * ignores resolution and most handwriting but not where boxes, lines and printed
+ * text sit. A page matches the closest template within
+ * {@code ocr.templates.maxDistance} differing bits (of 512).
+ */
+@Service
+public class FormTemplateRegistry {
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final int GRID = 17;
+    private static final int HASH_LONGS = 8;    // 16x16 cells, a horizontal and a vertical bit each
+    private static final double MIN_STEP = 2.0;    // grey levels; smaller differences are scanner noise
+
+    private final Path dir;
+    private final int maxDistance;
+    private final ImageNormalizer normalizer;
+    private final Map<String, FormTemplate> templates = new ConcurrentHashMap<>();
+    private final ObjectMapper om = new ObjectMapper();
+
+    public FormTemplateRegistry(
+            @Value("${ocr.templates.dir:${app.storage.localDir:./storage}/templates}") String dir,
+            @Value("${ocr.templates.maxDistance:24}") int maxDistance,
+            ImageNormalizer normalizer
+    ) {
+        this.dir = Path.of(dir);
+        this.maxDistance = maxDistance;
+        this.normalizer = normalizer;
+        load();
+    }
+
+    /** A page's template and how many hash bits it differs by. */
+    public record Match(FormTemplate template, int distance) {}
+
+    public List<FormTemplate> list() {
+        List<FormTemplate> out = new ArrayList<>(templates.values());
+        out.sort(Comparator.comparing(FormTemplate::name));
+        return out;
+    }
+
+    public boolean isEmpty() {
+        return templates.isEmpty();
+    }
+
+    /** Registers (or replaces) a template, taking its layout hash from {@code sample}, a blank or filled page. */
+    public FormTemplate register(String name, Path sample, List<FormTemplate.Region> fields) throws Exception {
+        BufferedImage image = ImageIO.read(normalizer.normalize(sample).toFile());
+        if (image == null) throw new IllegalArgumentException("sample is not a readable image");
+        FormTemplate template = new FormTemplate(name, hex(layoutHash(image)), fields);
+        validate(template);
+
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, name, ".tmp");
+        try {
+            om.writeValue(tmp.toFile(), template);
+            Files.move(tmp, fileFor(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        templates.put(name, template);
+        System.out.println("[OCR] Registered form template " + name + " (" + fields.size() + " field(s))");
+        return template;
+    }
+
+    public boolean remove(String name) throws Exception {
+        if (name == null || !NAME.matcher(name).matches()) return false;
+        Files.deleteIfExists(fileFor(name));
+        return templates.remove(name) != null;
+    }
+
+    /** The template closest to {@code page}'s layout, or null when none is within the distance limit. */
+    public Match match(BufferedImage page) {
+        if (templates.isEmpty()) return null;
+        long[] hash = layoutHash(page);
+        Match best = null;
+        for (FormTemplate t : templates.values()) {
+            int distance = distance(hash, parseHex(t.layoutHash()));
+            if (distance <= maxDistance && (best == null || distance < best.distance())) best = new Match(t, distance);
+        }
+        return best;
+    }
+
+    /**
+     * dHash: the page averaged down to 17x17 grey cells; for each of the first 16x16,
+     * one bit telling whether it is clearly brighter than its right-hand neighbour and
+     * one whether it is clearly brighter than the cell below (which catches ruled lines).
+     * Blank paper gives 0 bits, so printed boxes, lines and text carry the hash.
+     */
+    static long[] layoutHash(BufferedImage image) {
+        BufferedImage gray = image.getType() == BufferedImage.TYPE_BYTE_GRAY ? image : ImageNormalizer.orient(image, 1);
+        Raster raster = gray.getRaster();
+        int w = gray.getWidth();
+        int h = gray.getHeight();
+        long[] sums = new long[GRID * GRID];
+        long[] counts = new long[GRID * GRID];
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            raster.getSamples(0, y, w, 1, 0, row);
+            int cellRow = (int) ((long) y * GRID / h) * GRID;
+            for (int x = 0; x < w; x++) {
+                int cell = cellRow + (int) ((long) x * GRID / w);
+                sums[cell] += row[x];
+                counts[cell]++;
+            }
+        }
+        double[] mean = new double[GRID * GRID];
+        for (int i = 0; i < mean.length; i++) mean[i] = (double) sums[i] / Math.max(1, counts[i]);
+
+        long[] hash = new long[HASH_LONGS];
+        int bit = 0;
+        for (int r = 0; r < GRID - 1; r++) {
+            for (int c = 0; c < GRID - 1; c++) {
+                int i = r * GRID + c;
+                if (mean[i] > mean[i + 1] + MIN_STEP) hash[bit / 64] |= 1L << (63 - bit % 64);
+                bit++;
+                if (mean[i] > mean[i + GRID] + MIN_STEP) hash[bit / 64] |= 1L << (63 - bit % 64);
+                bit++;
+            }
+        }
+        return hash;
+    }
+
+    static int distance(long[] a, long[] b) {
+        int d = 0;
+        for (int i = 0; i < a.length; i++) d += Long.bitCount(a[i] ^ b[i]);
+        return d;
+    }
+
+    static String hex(long[] hash) {
+        StringBuilder sb = new StringBuilder();
+        for (long l : hash) sb.append(HexFormat.of().toHexDigits(l));
+        return sb.toString();
+    }
+
+    static long[] parseHex(String hex) {
+        if (hex == null || hex.length() != HASH_LONGS * 16) {
+            throw new IllegalArgumentException("layoutHash must be " + HASH_LONGS * 16 + " hex digits");
+        }
+        long[] hash = new long[HASH_LONGS];
+        for (int i = 0; i < HASH_LONGS; i++) hash[i] = HexFormat.fromHexDigitsToLong(hex, i * 16, i * 16 + 16);
+        return hash;
+    }
+
+    static void validate(FormTemplate t) {
+        if (t.name() == null || !NAME.matcher(t.name()).matches()) {
+            throw new IllegalArgumentException("template name must be 1-64 letters, digits, '-' or '_'");
+        }
+        parseHex(t.layoutHash());
+        if (t.fields() == null || t.fields().isEmpty()) throw new IllegalArgumentException("a template needs at least one field");
+        Set<String> names = new HashSet<>();
+        for (FormTemplate.Region r : t.fields()) {
+            if (r.name() == null || r.name().isBlank() || !names.add(r.name())) {
+                throw new IllegalArgumentException("field names must be present and unique");
+            }
+            if (r.x() < 0 || r.y() < 0 || r.width() <= 0 || r.height() <= 0
+                    || r.x() + r.width() > 1.0001 || r.y() + r.height() > 1.0001) {
+                throw new IllegalArgumentException("field " + r.name() + " must lie within the page (fractions 0-1)");
+            }
+        }
+    }
+
+    private Path fileFor(String name) {
+        return dir.resolve(name + ".json");
+    }
+
+    private void load() {
+        if (!Files.isDirectory(dir)) return;
+        try (var files = Files.list(dir)) {
+            for (Path p : files.filter(f -> f.getFileName().toString().endsWith(".json")).toList()) {
+                try {
+                    FormTemplate t = om.readValue(p.toFile(), FormTemplate.class);
+                    validate(t);
+                    templates.put(t.name(), t);
+                } catch (Exception e) {
+                    System.err.println("[OCR] Skipping form template " + p.getFileName() + ": " + e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("[OCR] Could not read form templates from " + dir + ": " + e.getMessage());
+        }
+        if (!templates.isEmpty()) System.out.println("[OCR] Loaded " + templates.size() + " form template(s)");
+    }
+}
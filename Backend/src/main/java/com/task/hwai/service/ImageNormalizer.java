@@ -0,0 +1,238 @@
+package com.task.hwai.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Prepares uploaded images for OCR with plain ImageIO: applies the EXIF
+ * orientation of phone photos, converts to 8-bit grayscale, scales down to about
+ * {@code ocr.normalize.targetDpi} (assuming the image shows an A4/Letter page) and
+ * re-encodes as PNG. The result is kept under {@code storage/normalized}, named by
+ * the original's digest, so a file is normalised once; the storage lifecycle drops
+ * copies that have not been used for a while. Anything it can't handle (PDFs,
+ * multi-page or unreadable images) is passed through unchanged.
+ */
+@Service
+public class ImageNormalizer {
+
+    private static final double PAGE_LONG_EDGE_INCHES = 11.7;    // A4; Letter is 11.0
+
+    private final boolean enabled;
+    private final int targetDpi;
+    private final int maxLongEdge;
+    private final Path dir;
+
+    public ImageNormalizer(
+            @Value("${ocr.normalize.enabled:true}") boolean enabled,
+            @Value("${ocr.normalize.targetDpi:300}") int targetDpi,
+            @Value("${app.storage.localDir:./storage}") String localDir
+    ) {
+        this.enabled = enabled;
+        this.targetDpi = targetDpi;
+        this.maxLongEdge = (int) Math.round(targetDpi * PAGE_LONG_EDGE_INCHES);
+        this.dir = Path.of(localDir).resolve("normalized");
+    }
+
+    /** Identifies the normalisation settings; part of the OCR cache key. */
+    public String version() {
+        return enabled ? "norm1-gray-" + targetDpi + "dpi" : "raw";
+    }
+
+    /** Returns the normalised copy of {@code image}, or {@code image} itself when it is left as is. */
+    public Path normalize(Path image) {
+        if (!enabled || image.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf")) return image;
+        try {
+            String name = digest(image) + "-" + targetDpi;
+            Path target = dir.resolve(name + ".png");
+            Path keep = dir.resolve(name + ".keep");    // marks originals that normalising would not improve
+            for (Path known : new Path[]{target, keep}) {
+                if (Files.isRegularFile(known)) {
+                    Files.setLastModifiedTime(known, FileTime.fromMillis(System.currentTimeMillis()));
+                    return known == target ? target : image;
+                }
+            }
+            Path out = write(image, target);
+            if (out == image) Files.writeString(keep, "");
+            return out;
+        } catch (Exception e) {
+            System.err.println("[OCR] Could not normalise " + image.getFileName() + ", sending it as is: " + e.getMessage());
+            return image;
+        }
+    }
+
+    private Path write(Path image, Path target) throws Exception {
+        BufferedImage source;
+        int orientation;
+        try (ImageInputStream in = ImageIO.createImageInputStream(image.toFile())) {
+            Files.createDirectories(dir);
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) return image;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                if (reader.getNumImages(true) != 1) return image;    // multi-page TIFFs go through whole
+                IIOImage read = reader.readAll(0, null);
+                source = (BufferedImage) read.getRenderedImage();
+                orientation = exifOrientation(read.getMetadata());
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        boolean alreadyFine = orientation == 1 && source.getType() == BufferedImage.TYPE_BYTE_GRAY
+                && Math.max(source.getWidth(), source.getHeight()) <= maxLongEdge
+                && image.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".png");
+        if (alreadyFine) return image;
+
+        BufferedImage gray = downscale(orient(source, orientation));
+        Path tmp = Files.createTempFile(dir, "norm-", ".tmp");
+        try {
+            ImageIO.write(gray, "png", tmp.toFile());
+            // A grayscale PNG of a noisy photo can be bigger than its JPEG; then, unless it had to be turned or shrunk, send the original.
+            if (orientation == 1 && Files.size(tmp) >= Files.size(image)
+                    && Math.max(source.getWidth(), source.getHeight()) <= maxLongEdge) {
+                return image;
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return target;
+    }
+
+    // Draws the image upright (EXIF orientations 1-8) into an 8-bit grayscale canvas.
+    static BufferedImage orient(BufferedImage src, int orientation) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        boolean swap = orientation >= 5 && orientation <= 8;
+        AffineTransform t = new AffineTransform();
+        switch (orientation) {
+            case 2 -> { t.translate(w, 0); t.scale(-1, 1); }
+            case 3 -> { t.translate(w, h); t.rotate(Math.PI); }
+            case 4 -> { t.translate(0, h); t.scale(1, -1); }
+            case 5 -> { t.rotate(-Math.PI / 2); t.scale(-1, 1); }
+            case 6 -> { t.translate(h, 0); t.rotate(Math.PI / 2); }
+            case 7 -> { t.translate(h, w); t.rotate(Math.PI / 2); t.scale(-1, 1); }
+            case 8 -> { t.translate(0, w); t.rotate(-Math.PI / 2); }
+            default -> { }
+        }
+        BufferedImage out = new BufferedImage(swap ? h : w, swap ? w : h, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setColor(java.awt.Color.WHITE);    // transparent PNG areas become paper, not black
+            g.fillRect(0, 0, out.getWidth(), out.getHeight());
+            g.drawImage(src, t, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    // Halves in steps while far above the target, then one bilinear step: cheap and without aliasing.
+    private BufferedImage downscale(BufferedImage img) {
+        int longEdge = Math.max(img.getWidth(), img.getHeight());
+        if (longEdge <= maxLongEdge) return img;
+        double scale = (double) maxLongEdge / longEdge;
+        int targetW = Math.max(1, (int) Math.round(img.getWidth() * scale));
+        int targetH = Math.max(1, (int) Math.round(img.getHeight() * scale));
+        while (img.getWidth() / 2 >= targetW && img.getHeight() / 2 >= targetH) {
+            img = resize(img, img.getWidth() / 2, img.getHeight() / 2);
+        }
+        return resize(img, targetW, targetH);
+    }
+
+    private static BufferedImage resize(BufferedImage img, int w, int h) {
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(img, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    // JPEG only: the EXIF block is an APP1 marker in the native metadata tree.
+    private static int exifOrientation(IIOMetadata metadata) {
+        if (metadata == null) return 1;
+        try {
+            Node root = metadata.getAsTree("javax_imageio_jpeg_image_1.0");
+            for (Node seq = root.getFirstChild(); seq != null; seq = seq.getNextSibling()) {
+                if (!"markerSequence".equals(seq.getNodeName())) continue;
+                for (Node m = seq.getFirstChild(); m != null; m = m.getNextSibling()) {
+                    NamedNodeMap attrs = m.getAttributes();
+                    Node tag = attrs == null ? null : attrs.getNamedItem("MarkerTag");
+                    if (tag != null && "225".equals(tag.getNodeValue()) && m instanceof IIOMetadataNode node
+                            && node.getUserObject() instanceof byte[] app1) {
+                        int o = orientationFromExif(app1);
+                        if (o != 1) return o;
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // not a JPEG
+        }
+        return 1;
+    }
+
+    /** Orientation tag (0x0112) of an APP1 "Exif" payload; 1 when absent or malformed. */
+    static int orientationFromExif(byte[] app1) {
+        if (app1.length < 14 || app1[0] != 'E' || app1[1] != 'x' || app1[2] != 'i' || app1[3] != 'f') return 1;
+        int tiff = 6;
+        boolean le = app1[tiff] == 'I';
+        int ifd = tiff + read(app1, tiff + 4, 4, le);
+        if (ifd + 2 > app1.length) return 1;
+        int entries = read(app1, ifd, 2, le);
+        for (int i = 0; i < entries; i++) {
+            int e = ifd + 2 + i * 12;
+            if (e + 12 > app1.length) break;
+            if (read(app1, e, 2, le) == 0x0112) {
+                int o = read(app1, e + 8, 2, le);
+                return o >= 1 && o <= 8 ? o : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int read(byte[] b, int off, int len, boolean littleEndian) {
+        int v = 0;
+        for (int i = 0; i < len; i++) {
+            int byteVal = b[littleEndian ? off + len - 1 - i : off + i] & 0xff;
+            v = (v << 8) | byteVal;
+        }
+        return v;
+    }
+
+    private static String digest(Path file) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) md.update(buf, 0, n);
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+}
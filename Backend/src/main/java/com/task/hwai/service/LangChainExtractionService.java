@@ -8,13 +8,24 @@ import dev.langchain4j.data.message.SystemMessage;
 import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.Tracer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Consumer;
 
+/**
+ * OCR, then LLM structuring, of one document. Pages the LLM has to structure are sent
+ * in chunks of at most {@code llm.chunk.maxPages} pages and {@code llm.chunk.maxInputTokens}
+ * prompt tokens, and the answers merged in page order. A chunk whose answer was cut off
+ * at the output limit is split in two and sent again; a single page that still does not
+ * fit is reported in the warnings. {@link ExtractionPipeline} sends the chunks of a
+ * document concurrently on its LLM stage; {@link #structure(Job)} sends them in turn.
+ */
 @Service
 public class LangChainExtractionService {
 
@@ -22,15 +33,33 @@ public class LangChainExtractionService {
     private final OcrTool ocr;
     private final ObjectMapper om = new ObjectMapper();
     private final Tracer tracer;
+    private final ConfidenceGate gate;
+    private final TemplateExtractor templates;
+    private final LlmResponseCache llmCache;
+    private final PromptPayloadEncoder payloads;
+    private final int maxPages;
+    private final int maxInputTokens;
 
     public LangChainExtractionService(
             ChatModel chatModel,
             OcrTool ocr,
-            Tracer tracer
+            Tracer tracer,
+            ConfidenceGate gate,
+            TemplateExtractor templates,
+            LlmResponseCache llmCache,
+            PromptPayloadEncoder payloads,
+            @Value("${llm.chunk.maxPages:4}") int maxPages,
+            @Value("${llm.chunk.maxInputTokens:4000}") int maxInputTokens
     ) {
         this.chatModel = chatModel;
         this.ocr = ocr;
         this.tracer = tracer;
+        this.gate = gate;
+        this.templates = templates;
+        this.llmCache = llmCache;
+        this.payloads = payloads;
+        this.maxPages = Math.max(1, maxPages);
+        this.maxInputTokens = maxInputTokens;
     }
 
     public ExtractionResult extractFromImage(
@@ -38,116 +67,399 @@ public class LangChainExtractionService {
             String runId,
             Path imagePath
     ) throws Exception {
+        return extractFromImage(fileId, runId, imagePath, stage -> {});
+    }
+
+    /** Same as above, reporting "ocr_done" and "llm_done" to {@code onStage} as they happen. */
+    public ExtractionResult extractFromImage(
+            String fileId,
+            String runId,
+            Path imagePath,
+            Consumer<String> onStage
+    ) throws Exception {
+        Job job = begin(fileId, runId);
+        try {
+            ocr(job, imagePath);
+            onStage.accept("ocr_done");
+            buildPrompt(job);
+            structure(job);
+            onStage.accept("llm_done");
+            return parse(job);
+        } finally {
+            end(job);
+        }
+    }
+
+    /**
+     * One document on its way through the stages below. The stages may run on
+     * different threads ({@link ExtractionPipeline}), each handing the job to the next.
+     */
+    public static final class Job {
+        private final String fileId;
+        private final String runId;
+        private final long t0 = System.currentTimeMillis();
+        private final Span root;
+        private List<OcrTool.PageResult> pages;
+        private final List<ExtractionResult.Page> directPages = new ArrayList<>();    // built without the LLM
+        private String documentType;    // the form template's name, when the page matched one
+        private List<Chunk> chunks;    // null when nothing goes to the LLM
+
+        private Job(String fileId, String runId, Span root) {
+            this.fileId = fileId;
+            this.runId = runId;
+            this.root = root;
+        }
+
+        public String runId() {
+            return runId;
+        }
+    }
+
+    /** The pages of one LLM request of a {@link Job} and what came back for them. */
+    public static final class Chunk {
+        private final List<OcrTool.PageResult> pages;
+        private List<ChatMessage> messages;
+        private String fullPrompt;
+        private LlmResponseCache.Key cacheKey;
+        private boolean fromCache;
+        private boolean truncated;
+        private String rawOutput;
+
+        private Chunk(List<OcrTool.PageResult> pages) {
+            this.pages = pages;
+        }
+
+        private int firstPage() {
+            return pages.isEmpty() ? 0 : pages.get(0).getPage();
+        }
 
-        long t0 = System.currentTimeMillis();
+        private String label() {
+            if (pages.isEmpty()) return "Document";
+            int last = pages.get(pages.size() - 1).getPage();
+            return pages.size() == 1 ? "Page " + firstPage() : "Pages " + firstPage() + "-" + last;
+        }
+    }
 
+    public Job begin(String fileId, String runId) {
         Span root = tracer.spanBuilder("langchain.extraction")
                 .setAttribute("file.id", fileId)
                 .setAttribute("run.id", runId)
                 .startSpan();
+        return new Job(fileId, runId, root);
+    }
 
+    // Step 1: OCR Extraction; a page of a registered form has just its fields read
+    public void ocr(Job job, Path imagePath) throws Exception {
+        var ocrSpan = tracer.spanBuilder("ocr.extract").startSpan();
         try {
-            // Step 1: OCR Extraction
-            var ocrSpan = tracer.spanBuilder("ocr.extract").startSpan();
-            List<OcrTool.PageResult> pages;
-            try {
-                pages = ocr.extract(imagePath);
-            } finally {
-                ocrSpan.end();
+            TemplateExtractor.Result form = templates.extract(imagePath);
+            if (form != null) {
+                job.documentType = form.template();
+                job.directPages.add(form.page());
+                job.pages = List.of();
+                return;
             }
+            job.pages = ocr.extract(imagePath);
+        } finally {
+            ocrSpan.end();
+        }
+    }
 
-            Map<String, Object> payload = Map.of("pages", pages);
+    // Step 2: Prompt building, for the pages the confidence gate doesn't take as they are
+    public void buildPrompt(Job job) throws Exception {
+        List<OcrTool.PageResult> forLlm = new ArrayList<>();
+        for (OcrTool.PageResult page : job.pages) {
+            ExtractionResult.Page direct = gate.toPage(page);
+            if (direct != null) job.directPages.add(direct);
+            else forLlm.add(page);
+        }
+        if (forLlm.isEmpty() && !job.directPages.isEmpty()) {
+            System.out.println("[LLM] All " + job.directPages.size() + " page(s) of run " + job.runId
+                    + (job.documentType != null ? " read from form template " + job.documentType
+                    : " above the confidence threshold") + ", skipping the LLM");
+            return;
+        }
 
+        job.chunks = new ArrayList<>();
+        for (List<OcrTool.PageResult> pages : chunk(forLlm)) {
+            Chunk chunk = new Chunk(pages);
+            prepare(job, chunk);
+            job.chunks.add(chunk);
+        }
+        if (job.chunks.size() > 1) {
+            System.out.println("[LLM] Structuring run " + job.runId + " in " + job.chunks.size() + " chunks");
+        }
+    }
 
-            // Step 2: LangChain LLM Call
-            Span llmSpan = tracer.spanBuilder("llm.structuring").startSpan();
-            String rawOutput;
-            try {
-                // Make llmSpan the current span and add attributes to it
-                try (var scope = llmSpan.makeCurrent()) {
-                    rawOutput = extractUsingLangChain(payload, fileId, runId, llmSpan, root);
-                }
-            } finally {
-                llmSpan.end();
+    // Consecutive pages, at most maxPages and (unless a page is bigger on its own) maxInputTokens per chunk.
+    private List<List<OcrTool.PageResult>> chunk(List<OcrTool.PageResult> pages) throws Exception {
+        List<List<OcrTool.PageResult>> chunks = new ArrayList<>();
+        List<OcrTool.PageResult> current = new ArrayList<>();
+        int tokens = 0;
+        for (OcrTool.PageResult page : pages) {
+            int pageTokens = pages.size() > 1 ? payloads.tokens(page, modelName()) : 0;
+            if (!current.isEmpty() && (current.size() >= maxPages || tokens + pageTokens > maxInputTokens)) {
+                chunks.add(current);
+                current = new ArrayList<>();
+                tokens = 0;
+            }
+            current.add(page);
+            tokens += pageTokens;
+        }
+        chunks.add(current);    // an empty document still gets one request
+        return chunks;
+    }
+
+    private void prepare(Job job, Chunk chunk) throws Exception {
+        String systemPrompt = buildSystemPrompt() + (payloads.compact() ? "\n" + PromptPayloadEncoder.FORMAT_NOTE : "");
+        PromptPayloadEncoder.Payload payload = payloads.encode(chunk.pages, modelName());
+        System.out.println("[LLM] Prompt payload for run " + job.runId + " (" + chunk.label().toLowerCase() + "): "
+                + payload.tokens() + " tokens (" + payload.jsonTokens() + " as JSON)");
+        String userPayload = payload.text();
+
+        chunk.messages = Arrays.asList(
+                new SystemMessage(systemPrompt),
+                new UserMessage("OCR_DATA:\n" + userPayload)
+        );
+        chunk.fullPrompt = systemPrompt + "\n\nOCR_DATA:\n" + userPayload;
+        chunk.cacheKey = llmCache.key("extraction", modelName(), systemPrompt, userPayload);
+    }
+
+    // Step 3: LangChain LLM Calls, one per chunk in turn, in rounds until no answer is cut off
+    public void structure(Job job) throws Exception {
+        for (List<Chunk> round = chunks(job); !round.isEmpty(); round = nextRound(job, round)) {
+            for (Chunk chunk : round) structure(job, chunk);
+        }
+    }
+
+    /** The chunks to send to the LLM; empty when nothing goes to the LLM. */
+    public List<Chunk> chunks(Job job) {
+        return job.chunks == null ? List.of() : List.copyOf(job.chunks);
+    }
+
+    /** Sends one chunk, or takes its answer from the cache. Chunks of one job may be sent concurrently. */
+    public void structure(Job job, Chunk chunk) throws Exception {
+        String cached = llmCache.get(chunk.cacheKey);
+        if (cached != null) {
+            System.out.println("[LLM] Reusing the cached answer for " + chunk.label().toLowerCase() + " of run " + job.runId);
+            chunk.rawOutput = cached;
+            chunk.fromCache = true;
+            return;
+        }
+        Span llmSpan = tracer.spanBuilder("llm.structuring").startSpan();
+        try {
+            // Make llmSpan the current span and add attributes to it
+            try (var scope = llmSpan.makeCurrent()) {
+                chunk.rawOutput = extractUsingLangChain(job, chunk, llmSpan);
             }
+        } finally {
+            llmSpan.end();
+        }
+    }
 
-            if (rawOutput == null || rawOutput.isBlank()) {
-                return createFallbackResult(fileId, runId, t0, "LLM returned null or empty response");
+    /**
+     * Once a round of chunks is answered: each multi-page chunk whose answer was cut off
+     * is replaced by its two halves, which are returned to be sent next.
+     */
+    public List<Chunk> nextRound(Job job, List<Chunk> round) throws Exception {
+        List<Chunk> again = new ArrayList<>();
+        for (Chunk chunk : round) {
+            if (!chunk.truncated || chunk.pages.size() < 2) continue;
+            System.out.println("[LLM] Answer for " + chunk.label().toLowerCase() + " of run " + job.runId
+                    + " was cut off, splitting it");
+            job.chunks.remove(chunk);
+            int half = chunk.pages.size() / 2;
+            for (List<OcrTool.PageResult> part : List.of(chunk.pages.subList(0, half),
+                    chunk.pages.subList(half, chunk.pages.size()))) {
+                Chunk smaller = new Chunk(List.copyOf(part));
+                prepare(job, smaller);
+                job.chunks.add(smaller);
+                again.add(smaller);
             }
+        }
+        job.chunks.sort(Comparator.comparingInt(Chunk::firstPage));
+        return again;
+    }
+
+    // Step 4: Clean and parse each chunk's JSON and merge them, in page order, with the pages built without the LLM
+    public ExtractionResult parse(Job job) throws Exception {
+        if (job.chunks == null) {
+            String documentType = job.documentType != null ? job.documentType : "generic_form";
+            return new ExtractionResult(job.fileId, job.runId, documentType, List.copyOf(job.directPages),
+                    List.of(), System.currentTimeMillis() - job.t0);
+        }
 
-            // Step 3: Clean and Parse JSON
-            String json = cleanJsonResponse(rawOutput);
-            System.out.println("LANGCHAIN CLEANED JSON --> " + json);
-
-            // Step 4: Parse into ExtractionResult
-            ExtractionResult result;
-            try {
-                result = om.readValue(json, ExtractionResult.class);
-            } catch (Exception e) {
-                System.err.println("❌ INVALID JSON FROM LANGCHAIN LLM");
-                e.printStackTrace();
-                return createFallbackResult(fileId, runId, t0, "LLM returned invalid JSON");
+        Map<Integer, ExtractionResult.Page> pages = new TreeMap<>();
+        for (ExtractionResult.Page page : job.directPages) pages.put(page.page(), page);
+        Set<String> warnings = new LinkedHashSet<>();
+        Map<String, Integer> documentTypes = new LinkedHashMap<>();    // votes, in page order
+        boolean multiple = job.chunks.size() > 1;
+        for (Chunk chunk : job.chunks) {
+            String prefix = multiple ? chunk.label() + ": " : "";
+            ExtractionResult result = parseChunk(job, chunk, prefix, warnings);
+            if (result == null) continue;
+            if (result.documentType() != null) documentTypes.merge(result.documentType(), 1, Integer::sum);
+            place(chunk, result.pages(), pages, prefix, warnings);
+            if (result.warnings() != null) {
+                for (String w : result.warnings()) warnings.add(prefix + w);
             }
+        }
+
+        String documentType = documentTypes.entrySet().stream()
+                .max(Map.Entry.comparingByValue())    // first of the most frequent wins ties
+                .map(Map.Entry::getKey)
+                .orElse(job.documentType != null ? job.documentType : "generic_form");
+        if (!documentTypes.isEmpty()) System.out.println("✅ LangChain extraction successful for file: " + job.fileId);
+        return new ExtractionResult(job.fileId, job.runId, documentType, new ArrayList<>(pages.values()),
+                new ArrayList<>(warnings), System.currentTimeMillis() - job.t0);
+    }
 
-            // Step 5: Enforce IDs
-            result = new ExtractionResult(
-                    fileId,
-                    runId,
-                    result.documentType() == null ? "generic_form" : result.documentType(),
-                    result.pages(),
-                    result.warnings(),
-                    System.currentTimeMillis() - t0
-            );
+    // null, with a warning, when the chunk's answer is unusable
+    private ExtractionResult parseChunk(Job job, Chunk chunk, String prefix, Set<String> warnings) {
+        String rawOutput = chunk.rawOutput;
+        if (rawOutput == null || rawOutput.isBlank()) {
+            warnings.add(prefix + "LLM returned null or empty response");
+            return null;
+        }
+        if (chunk.truncated) {
+            System.err.println("❌ LANGCHAIN LLM ANSWER CUT OFF for " + chunk.label().toLowerCase() + " of run " + job.runId);
+            warnings.add(prefix + "LLM output was cut off at its token limit");
+            return null;
+        }
 
-            System.out.println("✅ LangChain extraction successful for file: " + fileId);
-            return result;
+        String json = cleanJsonResponse(rawOutput);
+        System.out.println("LANGCHAIN CLEANED JSON --> " + json);
 
-        } finally {
-            root.end();
+        ExtractionResult result;
+        try {
+            if (json == null) throw new IllegalArgumentException("no JSON object in the answer");
+            result = om.readValue(json, ExtractionResult.class);
+        } catch (Exception e) {
+            System.err.println("❌ INVALID JSON FROM LANGCHAIN LLM");
+            e.printStackTrace();
+            warnings.add(prefix + "LLM returned invalid JSON");
+            return null;
         }
+
+        if (!chunk.fromCache) llmCache.put(chunk.cacheKey, rawOutput);
+        return result;
     }
 
-    private String extractUsingLangChain(
-            Map<String, Object> ocrPayload,
-            String fileId,
-            String runId,
-            Span llmSpan,
-            Span rootSpan
-    ) throws Exception {
+    // The system prompt tells the model to keep the page numbers it is given. Pages it numbered some other
+    // way take the chunk's pages still free, in order; what is left is merged into the chunk's last page.
+    // Nothing is dropped, and every page that had to be moved is reported.
+    private static void place(Chunk chunk, List<ExtractionResult.Page> answer, Map<Integer, ExtractionResult.Page> pages,
+                              String prefix, Set<String> warnings) {
+        if (answer == null) return;
+        if (chunk.pages.isEmpty()) {    // nothing was sent to number against
+            for (ExtractionResult.Page page : answer) pages.merge(page.page(), page, LangChainExtractionService::combine);
+            return;
+        }
+        Set<Integer> sent = new HashSet<>();
+        for (OcrTool.PageResult p : chunk.pages) sent.add(p.getPage());
+        List<ExtractionResult.Page> stray = new ArrayList<>();
+        for (ExtractionResult.Page page : pageNumbers(chunk, answer)) {
+            if (sent.contains(page.page()) && !pages.containsKey(page.page())) pages.put(page.page(), page);
+            else stray.add(page);
+        }
+        Deque<Integer> free = new ArrayDeque<>();
+        for (OcrTool.PageResult p : chunk.pages) {
+            if (!pages.containsKey(p.getPage())) free.add(p.getPage());
+        }
+        int last = chunk.pages.get(chunk.pages.size() - 1).getPage();
+        for (ExtractionResult.Page page : stray) {
+            Integer target = free.poll();
+            if (target != null) {
+                pages.put(target, new ExtractionResult.Page(target, page.fields(), page.tables()));
+                warnings.add(prefix + "LLM numbered page " + target + " as page " + page.page());
+            } else {
+                pages.merge(last, new ExtractionResult.Page(last, page.fields(), page.tables()), LangChainExtractionService::combine);
+                warnings.add(prefix + "LLM returned an extra page " + page.page() + "; merged into page " + last);
+            }
+        }
+    }
 
-        String systemPrompt = buildSystemPrompt();
-        String userPayload = om.writeValueAsString(ocrPayload);
+    // Should the model count a chunk from 1 instead, put its pages back by position.
+    private static List<ExtractionResult.Page> pageNumbers(Chunk chunk, List<ExtractionResult.Page> pages) {
+        Set<Integer> sent = new HashSet<>();
+        for (OcrTool.PageResult p : chunk.pages) sent.add(p.getPage());
+        boolean asSent = pages.stream().allMatch(p -> sent.contains(p.page()));
+        if (asSent || pages.size() != chunk.pages.size()) return pages;
+        List<ExtractionResult.Page> renumbered = new ArrayList<>();
+        for (int i = 0; i < pages.size(); i++) {
+            ExtractionResult.Page p = pages.get(i);
+            renumbered.add(new ExtractionResult.Page(chunk.pages.get(i).getPage(), p.fields(), p.tables()));
+        }
+        return renumbered;
+    }
 
-        List<ChatMessage> messages = Arrays.asList(
-                new SystemMessage(systemPrompt),
-                new UserMessage("OCR_DATA:\n" + userPayload)
-        );
+    // Two answers for one page: fields of the second that clash get a " (2)", " (3)"... suffix, tables are appended.
+    private static ExtractionResult.Page combine(ExtractionResult.Page a, ExtractionResult.Page b) {
+        Map<String, Object> fields = new LinkedHashMap<>(a.fields() != null ? a.fields() : Map.of());
+        if (b.fields() != null) {
+            for (Map.Entry<String, Object> e : b.fields().entrySet()) {
+                String key = e.getKey();
+                for (int n = 2; fields.containsKey(key) && !Objects.equals(fields.get(key), e.getValue()); n++) {
+                    key = e.getKey() + " (" + n + ")";
+                }
+                fields.putIfAbsent(key, e.getValue());
+            }
+        }
+        List<Map<String, Object>> tables = new ArrayList<>(a.tables() != null ? a.tables() : List.of());
+        if (b.tables() != null) tables.addAll(b.tables());
+        return new ExtractionResult.Page(a.page(), fields, tables);
+    }
+
+    public void end(Job job) {
+        job.root.end();
+    }
+
+    private String extractUsingLangChain(Job job, Chunk chunk, Span llmSpan) throws Exception {
+        Span rootSpan = job.root;
+        List<ChatMessage> messages = chunk.messages;
+        boolean traceLevel = chunk == job.chunks.get(0);    // the trace shows the first chunk; each has its own span
 
         // Set Langfuse-specific attributes on the LLM span
-        String fullPrompt = systemPrompt + "\n\nOCR_DATA:\n" + userPayload;
+        String fullPrompt = chunk.fullPrompt;
         
         // Truncate if too long (Langfuse/OpenTelemetry may have limits)
         String inputForLangfuse = fullPrompt.length() > 10000 ? fullPrompt.substring(0, 10000) + "... (truncated)" : fullPrompt;
         
         // Set TRACE-LEVEL attributes on ROOT span (this is what Langfuse displays)
-        rootSpan.setAttribute("input", inputForLangfuse);
+        if (traceLevel) rootSpan.setAttribute("input", inputForLangfuse);
         
         // Also set observation-level attributes on the LLM span
         llmSpan.setAttribute("langfuse.observation.input", inputForLangfuse);
         llmSpan.setAttribute("langfuse.observation.type", "generation");
-        llmSpan.setAttribute("langfuse.observation.model", System.getenv().getOrDefault("OPENAI_MODEL", "gpt-4o"));
+        llmSpan.setAttribute("langfuse.observation.model", modelName());
+        llmSpan.setAttribute("llm.chunk", chunk.label());
         
         System.out.println("[LANGFUSE] Setting trace input on ROOT span (length: " + inputForLangfuse.length() + ")");
 
         try{
-            ChatResponse response = chatModel.chat(messages);
+            ChatResponse response;
+            RunContext ctx = RunContext.current();
+            if (ctx != null) {
+                // The chat client has its own timeout but no cancel hook; it does honour interrupts.
+                ctx.checkActive();
+                try (var cancel = ctx.interruptOnCancel()) {
+                    response = chatModel.chat(messages);
+                } catch (Exception e) {
+                    if (ctx.isAborted()) throw new RunContext.AbortedException(ctx.abortReason());
+                    throw e;
+                }
+                ctx.checkActive();
+            } else {
+                response = chatModel.chat(messages);
+            }
             String responseText = response.aiMessage().text();
+            chunk.truncated = response.finishReason() == FinishReason.LENGTH;
             
             // Truncate response if too long
             String outputForLangfuse = responseText.length() > 10000 ? responseText.substring(0, 10000) + "... (truncated)" : responseText;
             
             // Set TRACE-LEVEL output on ROOT span
-            rootSpan.setAttribute("output", outputForLangfuse);
+            if (traceLevel) rootSpan.setAttribute("output", outputForLangfuse);
             
             // Also set observation-level attributes on LLM span
             llmSpan.setAttribute("langfuse.observation.output", outputForLangfuse);
@@ -167,6 +479,12 @@ public class LangChainExtractionService {
         }
     }
 
+    // as configured in LangchainConfig
+    private static String modelName() {
+        String model = System.getenv("OPENAI_MODEL");
+        return model == null || model.isBlank() ? "gpt-4o" : model;
+    }
+
     private String buildSystemPrompt() {
         return """
                 You are a strict information extraction engine powered by LangChain.
@@ -193,6 +511,8 @@ public class LangChainExtractionService {
                 }
                 
                 IMPORTANT:
+                - Return one entry in "pages" per page of OCR_DATA, with the page number it has there;
+                  never merge, split or renumber pages
                 - Extract all visible text and data from the OCR results
                 - Preserve document structure and grouping
                 - Use descriptive field names based on actual content
@@ -212,22 +532,6 @@ public class LangChainExtractionService {
         if (start >= 0 && end > start) {
             return json.substring(start, end + 1);
         }
-        return "{}";
-    }
-
-    private ExtractionResult createFallbackResult(
-            String fileId,
-            String runId,
-            long t0,
-            String warning
-    ) throws Exception {
-        return new ExtractionResult(
-                fileId,
-                runId,
-                "generic_form",
-                List.of(),
-                List.of(warning),
-                System.currentTimeMillis() - t0
-        );
+        return null;    // no object at all; not to be mistaken for an empty answer
     }
 }
@@ -0,0 +1,161 @@
+package com.task.hwai.service;
+
+import com.task.hwai.entity.LlmCacheEntity;
+import com.task.hwai.repo.LlmCacheRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Structuring answers reused for identical input. The chat models run at temperature 0,
+ * so the same prompt over the same OCR payload gets the same answer; it is looked up
+ * by a SHA-256 of the caller's kind, the model, {@code llm.cache.promptVersion} and the
+ * prompt with Unicode and whitespace normalised. Two tiers: a bounded in-memory LRU
+ * ({@code llm.cache.memoryEntries}) and the {@code llm_cache} table, which survives
+ * restarts and is shared between nodes. Rows unused for {@code llm.cache.ttlDays} are
+ * dropped. Callers store only answers they could parse.
+ */
+@Service
+public class LlmResponseCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final LlmCacheRepo repo;
+    private final boolean enabled;
+    private final String promptVersion;
+    private final int ttlDays;
+    private final Map<String, Entry> memory;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong dbHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+
+    private record Entry(String kind, String model, String response) {}
+
+    public LlmResponseCache(
+            LlmCacheRepo repo,
+            @Value("${llm.cache.enabled:true}") boolean enabled,
+            @Value("${llm.cache.memoryEntries:500}") int memoryEntries,
+            @Value("${llm.cache.promptVersion:1}") String promptVersion,
+            @Value("${llm.cache.ttlDays:30}") int ttlDays
+    ) {
+        this.repo = repo;
+        this.enabled = enabled;
+        this.promptVersion = promptVersion;
+        this.ttlDays = ttlDays;
+        int capacity = Math.max(1, memoryEntries);
+        this.memory = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    /** Identifies one request; {@code kind} keeps the callers' different answer formats apart. */
+    public record Key(String hash, String kind, String model) {}
+
+    public Key key(String kind, String model, String systemPrompt, String userPrompt) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{kind, model, promptVersion, normalize(systemPrompt), normalize(userPrompt)}) {
+                md.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            return new Key(HexFormat.of().formatHex(md.digest()), kind, model);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** The stored answer, or null on a miss (or when the cache is off). */
+    public String get(Key key) {
+        if (!enabled || key == null) return null;
+        Entry cached = memory.get(key.hash());
+        if (cached != null) {
+            memoryHits.incrementAndGet();
+            return cached.response();
+        }
+        try {
+            Optional<LlmCacheEntity> row = repo.findById(key.hash());
+            if (row.isPresent()) {
+                dbHits.incrementAndGet();
+                repo.touch(key.hash(), Instant.now());
+                memory.put(key.hash(), new Entry(key.kind(), key.model(), row.get().getResponse()));
+                return row.get().getResponse();
+            }
+        } catch (Exception e) {
+            System.err.println("[LLM-CACHE] Lookup failed, calling the model: " + e.getMessage());
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(Key key, String response) {
+        if (!enabled || key == null || response == null || response.isBlank()) return;
+        memory.put(key.hash(), new Entry(key.kind(), key.model(), response));
+        stores.incrementAndGet();
+        try {
+            LlmCacheEntity row = new LlmCacheEntity();
+            row.setCacheKey(key.hash());
+            row.setKind(key.kind());
+            row.setModel(key.model());
+            row.setPromptVersion(promptVersion);
+            row.setResponse(response);
+            repo.save(row);
+        } catch (Exception e) {
+            // still served from memory; it just won't survive a restart
+            System.err.println("[LLM-CACHE] Could not store answer: " + e.getMessage());
+        }
+    }
+
+    /** Drops the answers of one kind and/or model; both null drops everything. Returns the rows deleted. */
+    public int invalidate(String kind, String model) {
+        synchronized (memory) {
+            memory.values().removeIf(e -> (kind == null || kind.equals(e.kind())) && (model == null || model.equals(e.model())));
+        }
+        int deleted = repo.deleteMatching(kind, model);
+        invalidated.addAndGet(deleted);
+        System.out.println("[LLM-CACHE] Invalidated " + deleted + " answer(s)"
+                + (kind != null ? " of kind " + kind : "") + (model != null ? " for model " + model : ""));
+        return deleted;
+    }
+
+    @Scheduled(initialDelayString = "${llm.cache.sweepMs:3600000}", fixedDelayString = "${llm.cache.sweepMs:3600000}")
+    public int expire() {
+        if (ttlDays <= 0) return 0;
+        int deleted = repo.deleteUnusedSince(Instant.now().minus(Duration.ofDays(ttlDays)));
+        if (deleted > 0) System.out.println("[LLM-CACHE] Expired " + deleted + " answer(s) unused for " + ttlDays + " days");
+        return deleted;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled);
+        out.put("promptVersion", promptVersion);
+        out.put("memoryEntries", memory.size());
+        out.put("memoryHits", memoryHits.get());
+        out.put("dbHits", dbHits.get());
+        out.put("misses", misses.get());
+        out.put("stores", stores.get());
+        out.put("invalidated", invalidated.get());
+        return out;
+    }
+
+    // NFC and runs of whitespace collapsed, so re-encoded or re-wrapped OCR text still hits
+    static String normalize(String text) {
+        if (text == null) return "";
+        return WHITESPACE.matcher(Normalizer.normalize(text, Normalizer.Form.NFC)).replaceAll(" ").trim();
+    }
+}
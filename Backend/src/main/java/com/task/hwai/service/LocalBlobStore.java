@@ -0,0 +1,65 @@
+package com.task.hwai.service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Blobs on the local filesystem. Storage URIs are plain paths, which keeps rows
+ * written before the store was pluggable readable as-is.
+ */
+public class LocalBlobStore implements BlobStore {
+
+    private final Path root;
+
+    public LocalBlobStore(Path root) {
+        this.root = root;
+        try { Files.createDirectories(root); } catch (Exception ignored) {}
+    }
+
+    @Override
+    public String put(String key, Path staged) throws Exception {
+        Path target = root.resolve(key);
+        Files.createDirectories(target.getParent());
+        Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target.toString();
+    }
+
+    @Override
+    public boolean exists(String storageUri) {
+        return Files.exists(Path.of(storageUri));
+    }
+
+    @Override
+    public Path localPath(String storageUri) {
+        return Path.of(storageUri);
+    }
+
+    @Override
+    public void delete(String storageUri) throws Exception {
+        Files.deleteIfExists(Path.of(storageUri));
+    }
+
+    @Override
+    public List<String> listOlderThan(Instant cutoff) throws Exception {
+        try (var files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(p -> {
+                        try {
+                            return Files.getLastModifiedTime(p).toInstant().isBefore(cutoff);
+                        } catch (Exception e) {
+                            return false;
+                        }
+                    })
+                    .map(Path::toString)
+                    .toList();
+        }
+    }
+
+    @Override
+    public boolean owns(String storageUri) {
+        return storageUri != null && !storageUri.contains("://");
+    }
+}
@@ -0,0 +1,226 @@
+package com.task.hwai.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Single-pass reader for a {@code multipart/form-data} body. Parts are exposed one
+ * at a time as streams that end at the next boundary, so a part's content can be
+ * written straight to its destination without the container spooling it first.
+ */
+public class MultipartStreamReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;    // CRLF "--" boundary
+    private final byte[] buf;
+    private int pos;
+    private int limit;
+    private int scanned;    // no delimiter starts before this index; later reads resume the search here
+    private boolean finished;
+    private PartInputStream current;
+
+    public record Part(String name, String filename, String contentType, InputStream body) {}
+
+    public MultipartStreamReader(InputStream in, String boundary) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buf = new byte[BUFFER_SIZE + delimiter.length];
+    }
+
+    public static String boundaryOf(String contentType) {
+        if (contentType == null) return null;
+        for (String param : contentType.split(";")) {
+            String p = param.trim();
+            if (p.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+                String b = p.substring("boundary=".length());
+                if (b.length() >= 2 && b.startsWith("\"") && b.endsWith("\"")) b = b.substring(1, b.length() - 1);
+                return b.isEmpty() ? null : b;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the next part, draining whatever is left of the previous one, or null at the end. */
+    public Part nextPart() throws IOException {
+        if (finished) return null;
+        if (current == null) {
+            skipPreamble();
+        } else {
+            current.drain();
+        }
+        if (finished || !afterDelimiter()) {
+            finished = true;
+            return null;
+        }
+
+        Map<String, String> headers = readHeaders();
+        String disposition = headers.getOrDefault("content-disposition", "");
+        current = new PartInputStream();
+        return new Part(
+                dispositionParam(disposition, "name"),
+                dispositionParam(disposition, "filename"),
+                headers.get("content-type"),
+                current
+        );
+    }
+
+    // The first boundary has no leading CRLF; treat the body as if it had one.
+    private void skipPreamble() throws IOException {
+        fill();
+        byte[] first = java.util.Arrays.copyOfRange(delimiter, 2, delimiter.length);
+        if (startsWith(first)) {
+            pos += first.length;
+            return;
+        }
+        current = new PartInputStream();
+        current.drain();
+    }
+
+    // Consumes what follows a delimiter: "--" ends the body, CRLF starts a part.
+    private boolean afterDelimiter() throws IOException {
+        if (!ensure(2)) return false;
+        if (buf[pos] == '-' && buf[pos + 1] == '-') {
+            pos += 2;
+            return false;
+        }
+        while (ensure(1) && (buf[pos] == ' ' || buf[pos] == '\t')) pos++;
+        if (!ensure(2) || buf[pos] != '\r' || buf[pos + 1] != '\n') {
+            throw new IOException("Malformed multipart body: expected CRLF after boundary");
+        }
+        pos += 2;
+        return true;
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int total = 0;
+        while (true) {
+            if (!ensure(1)) throw new IOException("Malformed multipart body: truncated part headers");
+            byte b = buf[pos++];
+            if (++total > MAX_HEADER_BYTES) throw new IOException("Multipart part headers too large");
+            if (b == '\n') {
+                String l = line.toString(StandardCharsets.UTF_8).strip();
+                line.reset();
+                if (l.isEmpty()) return headers;
+                int colon = l.indexOf(':');
+                if (colon > 0) {
+                    headers.put(l.substring(0, colon).trim().toLowerCase(Locale.ROOT), l.substring(colon + 1).trim());
+                }
+            } else {
+                line.write(b);
+            }
+        }
+    }
+
+    private static String dispositionParam(String disposition, String key) {
+        for (String param : disposition.split(";")) {
+            String p = param.trim();
+            int eq = p.indexOf('=');
+            if (eq > 0 && p.substring(0, eq).trim().equalsIgnoreCase(key)) {
+                String v = p.substring(eq + 1).trim();
+                if (v.length() >= 2 && v.startsWith("\"") && v.endsWith("\"")) v = v.substring(1, v.length() - 1);
+                return v;
+            }
+        }
+        return null;
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (limit - pos < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[pos + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private boolean ensure(int n) throws IOException {
+        while (limit - pos < n) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+    // Compacts the window and reads more; false once the underlying stream is exhausted.
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            scanned = Math.max(0, scanned - pos);
+            pos = 0;
+        }
+        if (limit == buf.length) return true;
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n <= 0) return false;
+        limit += n;
+        return true;
+    }
+
+    // Each byte is compared once per delimiter alignment, however small the reads: the search
+    // resumes where the last one stopped, less the tail a partial delimiter could start in.
+    private int indexOfDelimiter() {
+        outer:
+        for (int i = Math.max(pos, scanned); i <= limit - delimiter.length; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buf[i + j] != delimiter[j]) continue outer;
+            }
+            scanned = i;
+            return i;
+        }
+        scanned = Math.max(pos, limit - delimiter.length + 1);
+        return -1;
+    }
+
+    private class PartInputStream extends InputStream {
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) return -1;
+            if (len == 0) return 0;
+            while (true) {
+                int hit = indexOfDelimiter();
+                // Bytes before a possible partial delimiter at the window's tail are safe to hand out.
+                int safeEnd = hit >= 0 ? hit : Math.max(pos, limit - delimiter.length + 1);
+                if (safeEnd > pos) {
+                    int n = Math.min(len, safeEnd - pos);
+                    System.arraycopy(buf, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+                if (hit == pos) {
+                    pos += delimiter.length;
+                    done = true;
+                    return -1;
+                }
+                if (!fill()) {
+                    done = true;
+                    finished = true;
+                    throw new IOException("Malformed multipart body: missing closing boundary");
+                }
+            }
+        }
+
+        void drain() throws IOException {
+            byte[] skip = new byte[8192];
+            while (read(skip, 0, skip.length) != -1) {
+                // discard
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.task.hwai.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Python OCR replicas {@link SimpleOcrTool} spreads its calls over
+ * ({@code ocr.python.urls}, comma-separated; {@code ocr.python.url} when unset). A call
+ * goes to the healthy endpoint with the fewest requests outstanding. An endpoint is
+ * ejected after {@code ocr.python.ejectAfterFailures} failed calls in a row, or when its
+ * {@code /health} route does not answer healthy, and is taken back once it does.
+ * Also tracks recent call latencies, from which the hedging delay is taken.
+ */
+@Service
+public class OcrEndpointPool {
+
+    private static final int LATENCY_WINDOW = 200;
+    private static final int MIN_SAMPLES = 20;    // no hedging before the p95 means something
+
+    private final List<Endpoint> endpoints;
+    private final OkHttpClient healthHttp;
+    private final int ejectAfterFailures;
+    private final boolean hedgeEnabled;
+    private final long hedgeMinDelayMs;
+    private final AtomicInteger rotation = new AtomicInteger();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final ObjectMapper om = new ObjectMapper();
+
+    // Ring buffer of the last LATENCY_WINDOW successful call durations, all endpoints together.
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private int latencyNext;
+
+    public OcrEndpointPool(
+            OkHttpClient http,
+            @Value("${ocr.python.urls:${ocr.python.url:http://python-service:8000/upload}}") String urls,
+            @Value("${ocr.python.ejectAfterFailures:3}") int ejectAfterFailures,
+            @Value("${ocr.python.healthTimeoutMs:2000}") long healthTimeoutMs,
+            @Value("${ocr.python.hedge.enabled:false}") boolean hedgeEnabled,
+            @Value("${ocr.python.hedge.minDelayMs:2000}") long hedgeMinDelayMs
+    ) {
+        List<Endpoint> list = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (!url.isBlank()) list.add(new Endpoint(url.trim()));
+        }
+        if (list.isEmpty()) throw new IllegalArgumentException("ocr.python.urls must name at least one endpoint");
+        this.endpoints = List.copyOf(list);
+        this.healthHttp = http.newBuilder().callTimeout(healthTimeoutMs, TimeUnit.MILLISECONDS).build();
+        this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+    }
+
+    public List<Endpoint> endpoints() {
+        return endpoints;
+    }
+
+    /**
+     * The healthy endpoint with the fewest calls outstanding, other than {@code exclude}.
+     * With every endpoint ejected the first pick still returns one (an error from the
+     * service beats none); a pick with {@code exclude} set returns null instead.
+     */
+    public Endpoint pick(Endpoint exclude) {
+        int n = endpoints.size();
+        int start = Math.floorMod(rotation.getAndIncrement(), n);    // ties go round-robin
+        Endpoint best = null;
+        Endpoint fallback = null;
+        for (int i = 0; i < n; i++) {
+            Endpoint e = endpoints.get((start + i) % n);
+            if (e == exclude) continue;
+            if (e.healthy) {
+                if (best == null || e.outstanding.get() < best.outstanding.get()) best = e;
+            } else if (fallback == null || e.outstanding.get() < fallback.outstanding.get()) {
+                fallback = e;
+            }
+        }
+        if (best != null) return best;
+        return exclude == null ? fallback : null;
+    }
+
+    /** Whether a slow call may be duplicated to a second endpoint. */
+    public boolean hedging() {
+        return hedgeEnabled && endpoints.size() > 1;
+    }
+
+    /** How long to wait before hedging: the recent p95, at least {@code ocr.python.hedge.minDelayMs}; -1 while too few calls are known. */
+    public long hedgeDelayMs() {
+        long p95 = p95();
+        return p95 < 0 ? -1 : Math.max(hedgeMinDelayMs, p95);
+    }
+
+    public void hedgeSent() {
+        hedges.incrementAndGet();
+    }
+
+    public void hedgeWon() {
+        hedgeWins.incrementAndGet();
+    }
+
+    public void begin(Endpoint e) {
+        e.outstanding.incrementAndGet();
+    }
+
+    public void end(Endpoint e) {
+        e.outstanding.decrementAndGet();
+    }
+
+    public void succeeded(Endpoint e, long millis) {
+        e.failures.set(0);
+        synchronized (latencies) {
+            latencies[latencyNext] = millis;
+            latencyNext = (latencyNext + 1) % LATENCY_WINDOW;
+            if (latencyCount < LATENCY_WINDOW) latencyCount++;
+        }
+    }
+
+    public void failed(Endpoint e, String reason) {
+        if (e.failures.incrementAndGet() >= ejectAfterFailures && e.healthy) {
+            e.healthy = false;
+            System.err.println("[OCR] Ejecting " + e.url + " after " + e.failures.get() + " failed calls: " + reason);
+        }
+    }
+
+    long p95() {
+        long[] sorted;
+        synchronized (latencies) {
+            if (latencyCount < MIN_SAMPLES) return -1;
+            sorted = Arrays.copyOf(latencies, latencyCount);
+        }
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+    }
+
+    /** Probes every endpoint's {@code /health}; ejects the ones that are down and takes back the ones that recovered. */
+    @Scheduled(initialDelayString = "${ocr.python.healthIntervalMs:10000}", fixedDelayString = "${ocr.python.healthIntervalMs:10000}")
+    public void checkHealth() {
+        if (endpoints.size() == 1 && endpoints.get(0).healthy) return;    // nowhere else to send calls anyway
+        for (Endpoint e : endpoints) {
+            String problem = probe(e);
+            if (problem == null && !e.healthy) {
+                e.failures.set(0);
+                e.healthy = true;
+                System.out.println("[OCR] " + e.url + " is healthy again");
+            } else if (problem != null && e.healthy) {
+                e.healthy = false;
+                System.err.println("[OCR] Ejecting " + e.url + ": " + problem);
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Endpoint e : endpoints) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("url", e.url);
+            m.put("healthy", e.healthy);
+            m.put("outstanding", e.outstanding.get());
+            list.add(m);
+        }
+        out.put("endpoints", list);
+        out.put("p95Ms", p95());
+        out.put("hedging", hedging());
+        out.put("hedges", hedges.get());
+        out.put("hedgeWins", hedgeWins.get());
+        return out;
+    }
+
+    // null when healthy, otherwise what is wrong
+    private String probe(Endpoint e) {
+        if (e.healthUrl == null) return "no health URL for " + e.url;
+        Request request = new Request.Builder().url(e.healthUrl).get().build();
+        try (Response response = healthHttp.newCall(request).execute()) {
+            if (!response.isSuccessful()) return "/health returned " + response.code();
+            JsonNode body = om.readTree(response.body().byteStream());
+            // the service answers /health before its agent is up, but /upload then fails with 503
+            if (!body.path("agent_initialized").asBoolean(true)) return "agent not initialized";
+            return null;
+        } catch (Exception ex) {
+            return "/health failed: " + ex.getMessage();
+        }
+    }
+
+    /** One OCR service replica. */
+    public static final class Endpoint {
+        final String url;
+        final HttpUrl healthUrl;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        volatile boolean healthy = true;
+
+        Endpoint(String url) {
+            this.url = url;
+            HttpUrl parsed = HttpUrl.parse(url);
+            this.healthUrl = parsed == null ? null : parsed.resolve("/health");
+        }
+
+        public String url() {
+            return url;
+        }
+
+        public boolean healthy() {
+            return healthy;
+        }
+
+        public int outstanding() {
+            return outstanding.get();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.task.hwai.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Decodes the Python OCR service's response straight from the byte stream into
+ * {@link OcrTool.PageResult}s, in one pass and without an intermediate tree.
+ * Accepts every shape the service has produced: the payload under
+ * {@code extracted_data}, {@code ocr-extract} or {@code text} (in that order of
+ * preference) or the root itself, as a {@code pages} array, a {@code paragraphs}
+ * array, a plain string, or an object of fields. Field tokens carry the field name as
+ * their key. Confidences are taken from fields sent as {@code {"value", "confidence"}},
+ * else from a numeric {@code confidence} on the page or beside the payload; tokens
+ * without one get 0.
+ */
+public final class OcrResponseParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final List<String> PAYLOAD_KEYS = List.of("extracted_data", "ocr-extract", "text");
+    private static final float UNKNOWN = Float.NaN;    // until resolved at the end of parse
+
+    private OcrResponseParser() {}
+
+    public static List<OcrTool.PageResult> parse(InputStream in) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            JsonToken t = p.nextToken();
+            if (t == null) return emptyPage();
+            float[] documentConfidence = {UNKNOWN};
+            List<OcrTool.PageResult> pages = t == JsonToken.START_OBJECT ? readObject(p, documentConfidence) : readPayload(p);
+            return resolve(pages, documentConfidence[0]);
+        }
+    }
+
+    // Current token: a payload value of any type.
+    private static List<OcrTool.PageResult> readPayload(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.START_OBJECT) return readObject(p, null);
+        if (t == JsonToken.VALUE_STRING) {
+            String text = p.getText();
+            return List.of(OcrTool.PageResult.builder().add(null, text, UNKNOWN).build(1, List.of(Map.of("text", text))));
+        }
+        p.skipChildren();
+        return emptyPage();
+    }
+
+    // Current token: START_OBJECT. At the root (documentConfidence set), a payload key wins over the
+    // root's own fields, and a numeric "confidence" beside the payload or pages applies to all of it.
+    private static List<OcrTool.PageResult> readObject(JsonParser p, float[] documentConfidence) throws IOException {
+        boolean root = documentConfidence != null;
+        float rootConfidence = UNKNOWN;
+        List<OcrTool.PageResult> pages = null;
+        OcrTool.PageResult.Builder paragraphTokens = null;
+        List<Object> paragraphs = null;
+        OcrTool.PageResult.Builder fieldTokens = OcrTool.PageResult.builder();
+        Map<String, Object> fields = new LinkedHashMap<>();
+        List<OcrTool.PageResult> payload = null;
+        int payloadRank = Integer.MAX_VALUE;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken value = p.nextToken();
+            int rank = root ? PAYLOAD_KEYS.indexOf(name) : -1;
+            if (root && name.equals("confidence") && value.isNumeric()) {
+                rootConfidence = p.getFloatValue();
+                if (payload == null) {    // in a plain object of fields it may be a field of the form
+                    Object v = readValue(p);
+                    fields.put(name, v);
+                    fieldTokens.add(name, name + ": " + asText(v), UNKNOWN);
+                }
+            } else if (rank >= 0) {
+                if (rank < payloadRank) {
+                    payload = readPayload(p);
+                    payloadRank = rank;
+                } else {
+                    p.skipChildren();
+                }
+            } else if (payload != null) {
+                p.skipChildren();    // the root's own fields no longer matter
+            } else if (name.equals("pages") && value == JsonToken.START_ARRAY) {
+                pages = readPages(p);
+            } else if (name.equals("paragraphs") && value == JsonToken.START_ARRAY) {
+                paragraphTokens = OcrTool.PageResult.builder();
+                paragraphs = new ArrayList<>();
+                while (p.nextToken() != JsonToken.END_ARRAY) {
+                    Object v = readValue(p);
+                    paragraphs.add(v);
+                    paragraphTokens.add(null, asText(v), UNKNOWN);
+                }
+            } else {
+                Object v = readValue(p);
+                float confidence = fieldConfidence(v);
+                if (!Float.isNaN(confidence)) v = ((Map<?, ?>) v).get("value");
+                fields.put(name, v);
+                fieldTokens.add(name, name + ": " + asText(v), confidence);
+            }
+        }
+
+        if (root && (payload != null || pages != null || paragraphs != null)) documentConfidence[0] = rootConfidence;
+        if (payload != null) return payload;
+        if (pages != null) return pages;
+        if (paragraphs != null) {
+            Map<String, Object> block = new LinkedHashMap<>();
+            block.put("paragraphs", paragraphs);
+            return List.of(paragraphTokens.build(1, List.of(block)));
+        }
+        return List.of(fieldTokens.build(1, List.of(fields)));
+    }
+
+    // Current token: START_ARRAY of page objects.
+    private static List<OcrTool.PageResult> readPages(JsonParser p) throws IOException {
+        List<OcrTool.PageResult> pages = new ArrayList<>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            OcrTool.PageResult.Builder fieldTokens = OcrTool.PageResult.builder();
+            OcrTool.PageResult.Builder textTokens = OcrTool.PageResult.builder();
+            OcrTool.PageResult.Builder lineTokens = OcrTool.PageResult.builder();
+            List<Map<String, Object>> rawBlocks = new ArrayList<>();
+            float pageConfidence = UNKNOWN;
+
+            if (p.currentToken() == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = p.currentName();
+                    JsonToken value = p.nextToken();
+                    if (name.equals("fields") && value == JsonToken.START_OBJECT) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> map = (Map<String, Object>) readValue(p);
+                        for (Map.Entry<String, Object> field : map.entrySet()) {
+                            Object v = field.getValue();
+                            float confidence = fieldConfidence(v);
+                            if (!Float.isNaN(confidence)) field.setValue(v = ((Map<?, ?>) v).get("value"));
+                            if (v != null) fieldTokens.add(field.getKey(), v.toString(), confidence);
+                        }
+                        rawBlocks.add(map);
+                    } else if (name.equals("text")) {
+                        textTokens.add(null, asText(readValue(p)), UNKNOWN);
+                    } else if (name.equals("lines") && value == JsonToken.START_ARRAY) {
+                        while (p.nextToken() != JsonToken.END_ARRAY) {
+                            lineTokens.add(null, asText(readValue(p)), UNKNOWN);
+                        }
+                    } else if (name.equals("confidence") && value.isNumeric()) {
+                        pageConfidence = p.getFloatValue();
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            } else {
+                p.skipChildren();
+            }
+
+            // fields, then text, then lines, whatever order the keys came in
+            OcrTool.PageResult page = fieldTokens.addAll(textTokens).addAll(lineTokens).build(pages.size() + 1, rawBlocks);
+            pages.add(Float.isNaN(pageConfidence) ? page : page.withDefaultConfidence(pageConfidence));
+        }
+        return pages;
+    }
+
+    // A field sent as {"value": ..., "confidence": 0.97}: its confidence, else UNKNOWN.
+    private static float fieldConfidence(Object v) {
+        if (v instanceof Map<?, ?> m && m.size() == 2 && m.containsKey("value") && m.get("confidence") instanceof Number c) {
+            return c.floatValue();
+        }
+        return UNKNOWN;
+    }
+
+    // Tokens without a confidence of their own take the page's, then the document's if it sent one,
+    // and whatever is still unknown becomes 0, as before confidences were sent.
+    private static List<OcrTool.PageResult> resolve(List<OcrTool.PageResult> pages, float documentConfidence) {
+        List<OcrTool.PageResult> out = new ArrayList<>(pages.size());
+        for (OcrTool.PageResult page : pages) {
+            if (!Float.isNaN(documentConfidence)) page = page.withDefaultConfidence(documentConfidence);
+            out.add(page.withDefaultConfidence(0.0f));
+        }
+        return out;
+    }
+
+    // Current token: any value; returns it as plain Java maps, lists, strings, numbers and booleans.
+    private static Object readValue(JsonParser p) throws IOException {
+        switch (p.currentToken()) {
+            case START_OBJECT -> {
+                Map<String, Object> map = new LinkedHashMap<>();
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = p.currentName();
+                    p.nextToken();
+                    map.put(name, readValue(p));
+                }
+                return map;
+            }
+            case START_ARRAY -> {
+                List<Object> list = new ArrayList<>();
+                while (p.nextToken() != JsonToken.END_ARRAY) list.add(readValue(p));
+                return list;
+            }
+            case VALUE_STRING -> {
+                return p.getText();
+            }
+            case VALUE_NUMBER_INT -> {
+                return p.getNumberValue();
+            }
+            case VALUE_NUMBER_FLOAT -> {
+                return p.getDoubleValue();
+            }
+            case VALUE_TRUE -> {
+                return Boolean.TRUE;
+            }
+            case VALUE_FALSE -> {
+                return Boolean.FALSE;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    // Same text as JsonNode.asText(""): scalars as written, containers and null as "".
+    private static String asText(Object v) {
+        if (v == null || v instanceof Map || v instanceof List) return "";
+        return v.toString();
+    }
+
+    private static List<OcrTool.PageResult> emptyPage() {
+        return List.of(OcrTool.PageResult.builder().add(null, "", 0.0f).build(1, List.of()));
+    }
+}
@@ -2,37 +2,261 @@ package com.task.hwai.service;
 
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public interface OcrTool {
     List<PageResult> extract(Path path) throws Exception;
 
+    /**
+     * Non-blocking variant of {@link #extract}: the future completes with the pages, or
+     * with the exception {@code extract} would have thrown. Engines that do their work
+     * in-process do it on the calling thread and return a completed future; remote ones
+     * return while the call is in flight. Runs within the caller's {@link RunContext}.
+     */
+    default CompletableFuture<List<PageResult>> extractAsync(Path path) {
+        try {
+            return CompletableFuture.completedFuture(extract(path));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /** Identifies the engine and whatever affects its output; part of the OCR cache key. */
+    default String version() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Waits for {@code pages} on behalf of the calling run, for the blocking
+     * {@link #extract} of an asynchronous tool: rethrows the failure itself and stops
+     * waiting, with {@link RunContext.AbortedException}, when the run is cancelled.
+     */
+    static List<PageResult> await(CompletableFuture<List<PageResult>> pages) throws Exception {
+        RunContext ctx = RunContext.current();
+        try (RunContext.Registration interrupt = ctx != null ? ctx.interruptOnCancel() : () -> {}) {
+            return pages.get();
+        } catch (InterruptedException e) {
+            pages.cancel(true);
+            if (ctx != null) ctx.checkActive();
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
     // PageResult and Token are defined as nested classes below for convenience:
+
+    /**
+     * One page of OCR output, stored column-wise: the token texts share one char buffer
+     * (token {@code i} is {@code chars[offsets[i] .. offsets[i+1])}), with parallel arrays
+     * for confidences, field keys and, when the engine reports them, bounding boxes. A
+     * page of thousands of words is a handful of arrays rather than thousands of objects.
+     * {@link #getTokens()} is a view over them and serialises to the same JSON as a list
+     * of {@link Token}s.
+     */
     public static class PageResult {
         private final int page;
-        private final java.util.List<Token> tokens;
+        private final char[] chars;
+        private final int[] offsets;
+        private final float[] confidences;
+        private final String[] keys;     // null when no token has one
+        private final int[] boxes;       // x, y, width, height per token; null when no token has one
         private final java.util.List<java.util.Map<String,Object>> rawBlocks;
 
         public PageResult(int page, java.util.List<Token> tokens, java.util.List<java.util.Map<String,Object>> rawBlocks) {
+            this(page, Builder.of(tokens), rawBlocks);
+        }
+
+        private PageResult(int page, Builder b, java.util.List<java.util.Map<String,Object>> rawBlocks) {
             this.page = page;
-            this.tokens = tokens;
+            this.chars = java.util.Arrays.copyOf(b.chars, b.length);
+            this.offsets = java.util.Arrays.copyOf(b.offsets, b.count + 1);
+            this.confidences = java.util.Arrays.copyOf(b.confidences, b.count);
+            this.keys = b.keys == null ? null : java.util.Arrays.copyOf(b.keys, b.count);
+            this.boxes = b.boxes == null ? null : java.util.Arrays.copyOf(b.boxes, b.count * 4);
             this.rawBlocks = rawBlocks;
         }
 
+        private PageResult(PageResult from, float[] confidences) {
+            this.page = from.page;
+            this.chars = from.chars;
+            this.offsets = from.offsets;
+            this.confidences = confidences;
+            this.keys = from.keys;
+            this.boxes = from.boxes;
+            this.rawBlocks = from.rawBlocks;
+        }
+
         public int getPage() { return page; }
-        public java.util.List<Token> getTokens() { return tokens; }
+
+        /** The tokens as objects, made on access; prefer the indexed accessors in loops over large pages. */
+        public java.util.List<Token> getTokens() {
+            return new java.util.AbstractList<>() {
+                @Override
+                public Token get(int i) {
+                    java.util.Objects.checkIndex(i, confidences.length);
+                    return new Token(key(i), text(i), confidences[i], box(i));
+                }
+
+                @Override
+                public int size() {
+                    return confidences.length;
+                }
+            };
+        }
+
         public java.util.List<java.util.Map<String,Object>> getRawBlocks() { return rawBlocks; }
+
+        public int tokenCount() { return confidences.length; }
+        public String text(int i) { return new String(chars, offsets[i], offsets[i + 1] - offsets[i]); }
+        public float confidence(int i) { return confidences[i]; }
+        public String key(int i) { return keys == null ? null : keys[i]; }
+
+        /** {x, y, width, height} of token {@code i} in pixels, or null when the engine gave none. */
+        public int[] box(int i) {
+            if (boxes == null || boxes[i * 4 + 2] < 0) return null;
+            return java.util.Arrays.copyOfRange(boxes, i * 4, i * 4 + 4);
+        }
+
+        /** This page with {@code confidence} for every token whose confidence is NaN (not known yet). */
+        public PageResult withDefaultConfidence(float confidence) {
+            float[] resolved = null;
+            for (int i = 0; i < confidences.length; i++) {
+                if (Float.isNaN(confidences[i])) {
+                    if (resolved == null) resolved = confidences.clone();
+                    resolved[i] = confidence;
+                }
+            }
+            return resolved == null ? this : new PageResult(this, resolved);
+        }
+
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        /** Appends tokens straight into the columns, without a {@link Token} per word. */
+        public static final class Builder {
+            private char[] chars = new char[256];
+            private int length;
+            private int[] offsets = new int[17];
+            private float[] confidences = new float[16];
+            private String[] keys;
+            private int[] boxes;
+            private int count;
+
+            private static Builder of(java.util.List<Token> tokens) {
+                Builder b = new Builder();
+                if (tokens != null) {
+                    for (Token t : tokens) {
+                        b.add(t.getKey(), t.getText(), t.getConfidence());
+                        int[] box = t.getBox();
+                        if (box != null) b.box(box[0], box[1], box[2], box[3]);
+                    }
+                }
+                return b;
+            }
+
+            public Builder add(String key, String text, float confidence) {
+                String value = text == null ? "" : text;
+                if (count == confidences.length) {
+                    int capacity = confidences.length * 2;
+                    confidences = java.util.Arrays.copyOf(confidences, capacity);
+                    offsets = java.util.Arrays.copyOf(offsets, capacity + 1);
+                    if (keys != null) keys = java.util.Arrays.copyOf(keys, capacity);
+                    if (boxes != null) boxes = growBoxes(boxes, capacity);
+                }
+                if (length + value.length() > chars.length) {
+                    chars = java.util.Arrays.copyOf(chars, Math.max(chars.length * 2, length + value.length()));
+                }
+                value.getChars(0, value.length(), chars, length);
+                length += value.length();
+                if (key != null && keys == null) keys = new String[confidences.length];
+                if (keys != null) keys[count] = key;
+                confidences[count] = confidence;
+                offsets[++count] = length;
+                return this;
+            }
+
+            /** Sets the bounding box of the token added last. */
+            public Builder box(int x, int y, int width, int height) {
+                if (count == 0) throw new IllegalStateException("No token to put a box on");
+                if (boxes == null) boxes = growBoxes(new int[0], confidences.length);
+                int at = (count - 1) * 4;
+                boxes[at] = x;
+                boxes[at + 1] = y;
+                boxes[at + 2] = width;
+                boxes[at + 3] = height;
+                return this;
+            }
+
+            public Builder addAll(PageResult page) {
+                for (int i = 0; i < page.tokenCount(); i++) {
+                    add(page.key(i), page.text(i), page.confidence(i));
+                    int[] box = page.box(i);
+                    if (box != null) box(box[0], box[1], box[2], box[3]);
+                }
+                return this;
+            }
+
+            public Builder addAll(Builder other) {
+                for (int i = 0; i < other.count; i++) {
+                    int from = other.offsets[i];
+                    add(other.keys == null ? null : other.keys[i],
+                            new String(other.chars, from, other.offsets[i + 1] - from), other.confidences[i]);
+                    if (other.boxes != null && other.boxes[i * 4 + 2] >= 0) {
+                        box(other.boxes[i * 4], other.boxes[i * 4 + 1], other.boxes[i * 4 + 2], other.boxes[i * 4 + 3]);
+                    }
+                }
+                return this;
+            }
+
+            public int size() {
+                return count;
+            }
+
+            public PageResult build(int page, java.util.List<java.util.Map<String,Object>> rawBlocks) {
+                return new PageResult(page, this, rawBlocks);
+            }
+
+            // Unset boxes are -1 (width -1 marks "no box").
+            private static int[] growBoxes(int[] boxes, int tokens) {
+                int[] grown = java.util.Arrays.copyOf(boxes, tokens * 4);
+                java.util.Arrays.fill(grown, boxes.length, grown.length, -1);
+                return grown;
+            }
+        }
     }
 
     public static class Token {
+        private final String key;
         private final String text;
         private final float confidence;
+        private final int[] box;
 
         public Token(String text, float confidence) {
+            this(null, text, confidence);
+        }
+
+        /** A token that is the value of a form field: {@code key} is the field's name. */
+        public Token(String key, String text, float confidence) {
+            this(key, text, confidence, null);
+        }
+
+        public Token(String key, String text, float confidence, int[] box) {
+            this.key = key;
             this.text = text;
             this.confidence = confidence;
+            this.box = box;
         }
 
+        @com.fasterxml.jackson.annotation.JsonInclude(com.fasterxml.jackson.annotation.JsonInclude.Include.NON_NULL)
+        public String getKey() { return key; }
         public String getText() { return text; }
+        /** 0..1 as reported by the engine; 0 when it reports none. */
         public float getConfidence() { return confidence; }
+        /** {x, y, width, height} in pixels, when the engine reports where the token is. */
+        @com.fasterxml.jackson.annotation.JsonInclude(com.fasterxml.jackson.annotation.JsonInclude.Include.NON_NULL)
+        public int[] getBox() { return box; }
     }
 }
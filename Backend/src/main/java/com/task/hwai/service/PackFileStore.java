@@ -0,0 +1,141 @@
+package com.task.hwai.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+/**
+ * Append-only pack files for cold small blobs, so the storage volume holds a few
+ * large files instead of millions of tiny ones. Each {@code pack-NNNNNN.dat} has a
+ * sidecar {@code .idx} with one {@code <digest> <offset> <length>} line per entry;
+ * {@code BlobEntity.packName/packOffset} is the index the application reads from.
+ */
+@Service
+public class PackFileStore {
+
+    private final Path packDir;
+    private final Path unpackedDir;
+    private final long maxPackBytes;
+    private String currentPack;
+
+    public record Placement(String packName, long offset, long length) {}
+
+    public PackFileStore(
+            @Value("${app.storage.localDir}") String dir,
+            @Value("${app.storage.pack.maxPackBytes:1073741824}") long maxPackBytes
+    ) {
+        Path base = Path.of(dir);
+        this.packDir = base.resolve("packs");
+        this.unpackedDir = base.resolve("cache").resolve("unpacked");
+        this.maxPackBytes = maxPackBytes;
+        try {
+            Files.createDirectories(packDir);
+            Files.createDirectories(unpackedDir);
+        } catch (Exception ignored) {}
+    }
+
+    /** Appends {@code source} to the open pack, rolling to a new one when it is full. Durable on return. */
+    public synchronized Placement append(String digest, Path source) throws IOException {
+        String pack = openPack();
+        long length = Files.size(source);
+        long offset;
+        try (FileChannel out = FileChannel.open(packDir.resolve(pack + ".dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            offset = out.size();
+            long copied = 0;
+            while (copied < length) {
+                long n = out.transferFrom(in, offset + copied, length - copied);
+                if (n <= 0) throw new IOException("Blob " + digest + " is shorter than recorded");
+                copied += n;
+            }
+            out.force(true);
+        }
+        Files.writeString(packDir.resolve(pack + ".idx"), digest + " " + offset + " " + length + "\n",
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        return new Placement(pack, offset, length);
+    }
+
+    /**
+     * Local file holding one packed entry. Entries are copied out once into a small
+     * cache because OCR clients want a standalone file with the original extension.
+     * A reused copy is touched so the stray sweep does not take it while it is read.
+     */
+    public Path extract(String packName, long offset, long length, String fileName) throws IOException {
+        Path target = unpackedDir.resolve(fileName);
+        if (Files.exists(target) && Files.size(target) == length) {
+            try {
+                Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+                return target;
+            } catch (NoSuchFileException sweptMeanwhile) {
+                // copy it out again below
+            }
+        }
+
+        Path partial = unpackedDir.resolve(fileName + "." + Thread.currentThread().threadId() + ".part");
+        try (FileChannel in = FileChannel.open(packDir.resolve(packName + ".dat"), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(partial,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long copied = 0;
+            while (copied < length) {
+                long n = in.transferTo(offset + copied, length - copied, out);
+                if (n <= 0) throw new IOException("Pack " + packName + " is shorter than its index says");
+                copied += n;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    public synchronized List<String> sealedPacks() throws IOException {
+        String open = openPack();
+        try (var files = Files.list(packDir)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.endsWith(".dat"))
+                    .map(n -> n.substring(0, n.length() - ".dat".length()))
+                    .filter(n -> !n.equals(open))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    public long size(String packName) throws IOException {
+        Path p = packDir.resolve(packName + ".dat");
+        return Files.exists(p) ? Files.size(p) : 0;
+    }
+
+    public synchronized void deletePack(String packName) throws IOException {
+        Files.deleteIfExists(packDir.resolve(packName + ".dat"));
+        Files.deleteIfExists(packDir.resolve(packName + ".idx"));
+    }
+
+    public Path unpackedDir() {
+        return unpackedDir;
+    }
+
+    private String openPack() throws IOException {
+        if (currentPack == null) {
+            try (var files = Files.list(packDir)) {
+                currentPack = files.map(p -> p.getFileName().toString())
+                        .filter(n -> n.matches("pack-\\d{6}\\.dat"))
+                        .map(n -> n.substring(0, n.length() - ".dat".length()))
+                        .max(String::compareTo)
+                        .orElse("pack-000001");
+            }
+        }
+        if (size(currentPack) >= maxPackBytes) {
+            int next = Integer.parseInt(currentPack.substring("pack-".length())) + 1;
+            currentPack = String.format("pack-%06d", next);
+        }
+        return currentPack;
+    }
+}
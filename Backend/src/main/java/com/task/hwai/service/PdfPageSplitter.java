@@ -0,0 +1,155 @@
+package com.task.hwai.service;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.io.FileUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * OCR of PDFs page by page. Pages are rasterised one after another at
+ * {@code ocr.pdf.dpi} and each page image is OCR'd on a shared page pool as soon as
+ * it is rendered, with at most {@code ocr.pdf.maxPagesInFlight} pages of one
+ * document in flight, so a document takes about as long as its slowest pages rather
+ * than the sum of them. Results come back in page order. Pages are OCR'd with
+ * {@link OcrTool#extractAsync}, so remote calls don't hold a page thread.
+ */
+@Service
+public class PdfPageSplitter {
+
+    private final boolean enabled;
+    private final int dpi;
+    private final int maxPagesInFlight;
+    private final ThreadPoolExecutor pagePool;
+
+    public PdfPageSplitter(
+            @Value("${ocr.pdf.split:true}") boolean enabled,
+            @Value("${ocr.pdf.dpi:300}") int dpi,
+            @Value("${ocr.pdf.maxPagesInFlight:4}") int maxPagesInFlight,
+            @Value("${ocr.pdf.threads:8}") int threads
+    ) {
+        this.enabled = enabled;
+        this.dpi = dpi;
+        this.maxPagesInFlight = Math.max(1, maxPagesInFlight);
+        AtomicInteger n = new AtomicInteger();
+        int size = Math.max(1, threads);
+        // Unbounded queue: each document already caps what it has queued at maxPagesInFlight.
+        this.pagePool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "ocr-page-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int dpi() {
+        return dpi;
+    }
+
+    public boolean handles(Path path) {
+        return enabled && path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf");
+    }
+
+    /**
+     * Splits {@code pdf} into page images and runs {@code pageOcr} on each. A failed page
+     * fails the document; pages still queued are then dropped. Runs with the caller's
+     * {@link RunContext} bound on the page threads.
+     */
+    public List<OcrTool.PageResult> ocrPages(Path pdf, OcrTool pageOcr) throws Exception {
+        RunContext ctx = RunContext.current();
+        Path dir = Files.createTempDirectory("ocr-pages-");
+        Semaphore inFlight = new Semaphore(maxPagesInFlight);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<CompletableFuture<List<OcrTool.PageResult>>>> started = new ArrayList<>();
+        List<CompletableFuture<List<OcrTool.PageResult>>> pages = new ArrayList<>();
+        try {
+            try (PDDocument doc = PDDocument.load(pdf.toFile())) {
+                PDFRenderer renderer = new PDFRenderer(doc);
+                for (int i = 0; i < doc.getNumberOfPages(); i++) {
+                    inFlight.acquire();    // rendering stays only a few pages ahead of OCR
+                    if (failure.get() != null) {
+                        inFlight.release();
+                        break;
+                    }
+                    if (ctx != null) ctx.checkActive();
+                    Path page = dir.resolve(String.format("page-%04d.png", i + 1));
+                    try {
+                        ImageIO.write(renderer.renderImageWithDPI(i, dpi, ImageType.GRAY), "png", page.toFile());
+                    } catch (Exception e) {
+                        inFlight.release();
+                        throw e;
+                    }
+                    // A page thread is held only while the engine works in-process; a remote call returns it at once.
+                    var start = CompletableFuture.supplyAsync(() -> {
+                        try (RunContext.Registration bound = ctx != null ? ctx.bind() : () -> {}) {
+                            return pageOcr.extractAsync(page);
+                        }
+                    }, pagePool);
+                    var result = start.thenCompose(f -> f);
+                    result.whenComplete((value, error) -> {
+                        if (error != null) {
+                            failure.compareAndSet(null, error instanceof CompletionException && error.getCause() != null
+                                    ? error.getCause() : error);
+                        }
+                        FileUtils.deleteQuietly(page.toFile());
+                        inFlight.release();
+                    });
+                    started.add(start);
+                    pages.add(result);
+                }
+            }
+
+            List<OcrTool.PageResult> out = new ArrayList<>(pages.size());
+            for (CompletableFuture<List<OcrTool.PageResult>> page : pages) {
+                out.add(merge(out.size() + 1, page.get()));
+            }
+            return out;
+        } catch (ExecutionException e) {
+            cancel(started);
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } catch (Exception e) {
+            cancel(started);
+            throw e;
+        } finally {
+            FileUtils.deleteQuietly(dir.toFile());
+        }
+    }
+
+    // Drops pages still queued and cancels the ones in flight.
+    private static void cancel(List<CompletableFuture<CompletableFuture<List<OcrTool.PageResult>>>> started) {
+        for (var start : started) {
+            if (!start.cancel(true)) {
+                var running = start.getNow(null);
+                if (running != null) running.cancel(true);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pagePool.shutdownNow();
+    }
+
+    // One page image normally gives one page; anything more is folded into it.
+    private static OcrTool.PageResult merge(int number, List<OcrTool.PageResult> parts) {
+        if (parts.size() == 1 && parts.get(0).getPage() == number) return parts.get(0);
+        OcrTool.PageResult.Builder tokens = OcrTool.PageResult.builder();
+        List<java.util.Map<String, Object>> rawBlocks = new ArrayList<>();
+        for (OcrTool.PageResult part : parts) {
+            tokens.addAll(part);
+            if (part.getRawBlocks() != null) rawBlocks.addAll(part.getRawBlocks());
+        }
+        return tokens.build(number, rawBlocks);
+    }
+}
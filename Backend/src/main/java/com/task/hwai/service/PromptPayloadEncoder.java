@@ -0,0 +1,199 @@
+package com.task.hwai.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns OCR pages into the OCR_DATA part of a structuring prompt. The compact format
+ * ({@code llm.payload.format=compact}) is one section per page:
+ * <pre>
+ * ## page 1
+ * name: Ada Lovelace
+ * total: 1?0 (?41%)
+ * Invoice 42 issued 2024-01-02
+ * </pre>
+ * Fields from {@code rawBlocks} come first as {@code key: value} lines; keyed tokens for
+ * a field already printed are left out, other keyed tokens follow the same way, and the
+ * free-text tokens come last, one line per text line when the engine gave word boxes.
+ * {@code paragraphs} and {@code text} blocks that only repeat the free text are skipped.
+ * Confidences are only shown where they are known and below
+ * {@code llm.payload.lowConfidence}. {@code json} sends the pages as they serialise.
+ * Token counts of both forms are logged per prompt and summed in {@link #stats()}.
+ */
+@Service
+public class PromptPayloadEncoder {
+
+    /** Explains the compact format to the model; goes into the system prompt. */
+    public static final String FORMAT_NOTE = """
+            OCR_DATA FORMAT:
+            - One section per page, starting with "## page N".
+            - "key: value" lines are fields the OCR service already recognised.
+            - Other lines are free text in reading order.
+            - "(?NN%)" after a value means the OCR was only NN% confident in it.
+            """;
+
+    // rawBlocks the parser keeps beside the free-text tokens made from them
+    private static final Set<String> FREE_TEXT_BLOCKS = Set.of("paragraphs", "text");
+
+    private final boolean compact;
+    private final float lowConfidence;
+    private final ObjectMapper om = new ObjectMapper();
+    private final Map<String, TokenCountEstimator> estimators = new ConcurrentHashMap<>();
+
+    private final AtomicLong payloads = new AtomicLong();
+    private final AtomicLong jsonTokens = new AtomicLong();
+    private final AtomicLong sentTokens = new AtomicLong();
+
+    public PromptPayloadEncoder(
+            @Value("${llm.payload.format:compact}") String format,
+            @Value("${llm.payload.lowConfidence:0.6}") float lowConfidence
+    ) {
+        this.compact = !"json".equalsIgnoreCase(format.trim());
+        this.lowConfidence = lowConfidence;
+    }
+
+    /** The payload to send, with its token count and that of the plain JSON it replaces. */
+    public record Payload(String text, int tokens, int jsonTokens) {}
+
+    public boolean compact() {
+        return compact;
+    }
+
+    public Payload encode(List<OcrTool.PageResult> pages, String model) throws Exception {
+        String json = om.writeValueAsString(Map.of("pages", pages));
+        String text = compact ? compact(pages) : json;
+        TokenCountEstimator estimator = estimator(model);
+        int jsonCount = estimator.estimateTokenCountInText(json);
+        int count = compact ? estimator.estimateTokenCountInText(text) : jsonCount;
+        payloads.incrementAndGet();
+        jsonTokens.addAndGet(jsonCount);
+        sentTokens.addAndGet(count);
+        return new Payload(text, count, jsonCount);
+    }
+
+    /** Tokens {@code page} alone takes in the configured format; for sizing chunks, not counted in the stats. */
+    public int tokens(OcrTool.PageResult page, String model) throws Exception {
+        String text = compact ? compact(List.of(page)) : om.writeValueAsString(page);
+        return estimator(model).estimateTokenCountInText(text);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("format", compact ? "compact" : "json");
+        out.put("payloads", payloads.get());
+        out.put("jsonTokens", jsonTokens.get());
+        out.put("sentTokens", sentTokens.get());
+        long json = jsonTokens.get();
+        out.put("savedShare", json == 0 ? 0.0 : 1.0 - (double) sentTokens.get() / json);
+        return out;
+    }
+
+    String compact(List<OcrTool.PageResult> pages) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (OcrTool.PageResult page : pages) {
+            if (!sb.isEmpty()) sb.append('\n');
+            sb.append("## page ").append(page.getPage()).append('\n');
+
+            // lowest known confidence per field, to mark doubtful values where they are printed
+            Map<String, Float> fieldConfidence = new HashMap<>();
+            for (int i = 0; i < page.tokenCount(); i++) {
+                float c = page.confidence(i);
+                if (page.key(i) != null && c > 0) fieldConfidence.merge(page.key(i), c, Math::min);
+            }
+
+            Set<String> freeText = new HashSet<>();
+            for (int i = 0; i < page.tokenCount(); i++) {
+                if (page.key(i) == null) freeText.add(page.text(i).strip());
+            }
+
+            Set<String> printed = new HashSet<>();
+            Set<String> printedKeys = new HashSet<>();
+            if (page.getRawBlocks() != null) {
+                for (Map<String, Object> block : page.getRawBlocks()) {
+                    if (block == null) continue;
+                    for (Map.Entry<String, Object> e : block.entrySet()) {
+                        if (FREE_TEXT_BLOCKS.contains(e.getKey()) && repeats(e.getValue(), freeText)) continue;
+                        String value = value(e.getValue());
+                        if (value.isEmpty() || !printed.add(e.getKey() + '\0' + value)) continue;
+                        printedKeys.add(e.getKey());
+                        field(sb, e.getKey(), value, fieldConfidence.getOrDefault(e.getKey(), 0f));
+                    }
+                }
+            }
+
+            StringBuilder free = new StringBuilder();
+            int[] previous = null;
+            for (int i = 0; i < page.tokenCount(); i++) {
+                String text = page.text(i).strip();
+                if (text.isEmpty()) continue;
+                String key = page.key(i);
+                if (key != null) {
+                    // the parser gives fields of a plain object as "key: value" tokens
+                    if (text.startsWith(key + ":")) text = text.substring(key.length() + 1).strip();
+                    if (!text.isEmpty() && !printedKeys.contains(key) && printed.add(key + '\0' + text)) {
+                        field(sb, key, text, page.confidence(i));
+                    }
+                    continue;
+                }
+                int[] box = page.box(i);
+                if (!free.isEmpty()) {
+                    // a word starting below the middle of the previous one begins a new line
+                    boolean newLine = box != null && previous != null && box[1] > previous[1] + previous[3] / 2;
+                    free.append(newLine ? '\n' : ' ');
+                }
+                free.append(text);
+                mark(free, page.confidence(i));
+                previous = box;
+            }
+            if (!free.isEmpty()) sb.append(free).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // A "paragraphs" or "text" block whose every line is also a free-text token.
+    private static boolean repeats(Object v, Set<String> freeText) {
+        if (v instanceof Collection<?> c) {
+            return !c.isEmpty() && c.stream().allMatch(item -> item != null && freeText.contains(String.valueOf(item).strip()));
+        }
+        return v != null && freeText.contains(String.valueOf(v).strip());
+    }
+
+    private void field(StringBuilder sb, String key, String value, float confidence) {
+        sb.append(key).append(": ").append(value.replace('\n', ' '));
+        mark(sb, confidence);
+        sb.append('\n');
+    }
+
+    // 0 means the engine gave no confidence
+    private void mark(StringBuilder sb, float confidence) {
+        if (confidence > 0 && confidence < lowConfidence) {
+            sb.append(" (?").append(Math.round(confidence * 100)).append("%)");
+        }
+    }
+
+    private String value(Object v) throws Exception {
+        if (v == null) return "";
+        if (v instanceof Map<?, ?> || v instanceof Collection<?>) {
+            String json = om.writeValueAsString(v);
+            return json.equals("{}") || json.equals("[]") ? "" : json;
+        }
+        return String.valueOf(v).strip();
+    }
+
+    private TokenCountEstimator estimator(String model) {
+        return estimators.computeIfAbsent(model == null ? "gpt-4o" : model, name -> {
+            try {
+                return new OpenAiTokenCountEstimator(name);
+            } catch (Exception unknownModel) {
+                return new OpenAiTokenCountEstimator("gpt-4o");
+            }
+        });
+    }
+}
@@ -0,0 +1,143 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.OcrEngine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Chooses the OCR engine behind {@link CachingOcrTool}. Picks the engine a run asked
+ * for ({@link RunContext#ocrEngine()}), else {@code ocr.engine.default}, and retries
+ * a failed extraction once on {@code ocr.engine.fallback} when one is configured.
+ * PDFs are split into pages first ({@link PdfPageSplitter}), with the fallback
+ * applied per page; other images are normalised first ({@link ImageNormalizer}).
+ */
+@Service
+public class RoutingOcrTool implements OcrTool {
+
+    private final SimpleOcrTool remote;
+    private final TesseractOcrTool tesseract;
+    private final PdfPageSplitter pdfPages;
+    private final ImageNormalizer normalizer;
+    private final OcrEngine defaultEngine;
+    private final OcrEngine fallbackEngine;
+
+    public RoutingOcrTool(
+            SimpleOcrTool remote,
+            TesseractOcrTool tesseract,
+            PdfPageSplitter pdfPages,
+            ImageNormalizer normalizer,
+            @Value("${ocr.engine.default:remote}") String defaultEngine,
+            @Value("${ocr.engine.fallback:}") String fallbackEngine
+    ) {
+        this.remote = remote;
+        this.tesseract = tesseract;
+        this.pdfPages = pdfPages;
+        this.normalizer = normalizer;
+        OcrEngine parsed = OcrEngine.parse(defaultEngine);
+        this.defaultEngine = parsed != null ? parsed : OcrEngine.REMOTE;
+        this.fallbackEngine = OcrEngine.parse(fallbackEngine);
+    }
+
+    @Override
+    public List<PageResult> extract(Path path) throws Exception {
+        RunContext ctx = RunContext.current();
+        OcrEngine engine = engineFor(ctx);
+        if (pdfPages.handles(path)) {
+            return pdfPages.ocrPages(path, pageTool(engine, ctx));
+        }
+        return extract(engine, normalizer.normalize(path), ctx);
+    }
+
+    /**
+     * Images go to the engine's own {@link OcrTool#extractAsync}, so a remote call holds
+     * no thread; PDFs are rendered on the calling thread and their pages OCR'd on the
+     * page pool, also asynchronously.
+     */
+    @Override
+    public CompletableFuture<List<PageResult>> extractAsync(Path path) {
+        RunContext ctx = RunContext.current();
+        OcrEngine engine = engineFor(ctx);
+        if (pdfPages.handles(path)) {
+            try {
+                return CompletableFuture.completedFuture(pdfPages.ocrPages(path, pageTool(engine, ctx)));
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return extractAsync(engine, normalizer.normalize(path), ctx);
+    }
+
+    private CompletableFuture<List<PageResult>> extractAsync(OcrEngine engine, Path path, RunContext ctx) {
+        CompletableFuture<List<PageResult>> pages = tool(engine).extractAsync(path);
+        if (fallbackEngine == null || fallbackEngine == engine) return pages;
+        // On the common pool: the failure may complete on an HTTP callback thread, and the fallback may block.
+        return pages.exceptionallyComposeAsync(error -> {
+            Throwable e = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (e instanceof RunContext.AbortedException || (ctx != null && ctx.isAborted())) {
+                return CompletableFuture.failedFuture(e);
+            }
+            System.err.println("[OCR] " + engine.name().toLowerCase() + " failed (" + e.getMessage()
+                    + "), retrying with " + fallbackEngine.name().toLowerCase());
+            try (RunContext.Registration bound = ctx != null ? ctx.bind() : () -> {}) {
+                return tool(fallbackEngine).extractAsync(path).exceptionallyCompose(fallbackError -> {
+                    e.addSuppressed(fallbackError instanceof CompletionException && fallbackError.getCause() != null
+                            ? fallbackError.getCause() : fallbackError);
+                    return CompletableFuture.failedFuture(e);
+                });
+            }
+        });
+    }
+
+    // Per-page OCR for the PDF splitter, blocking or not, with the fallback applied per page.
+    private OcrTool pageTool(OcrEngine engine, RunContext ctx) {
+        return new OcrTool() {
+            @Override
+            public List<PageResult> extract(Path page) throws Exception {
+                return RoutingOcrTool.this.extract(engine, page, ctx);
+            }
+
+            @Override
+            public CompletableFuture<List<PageResult>> extractAsync(Path page) {
+                return RoutingOcrTool.this.extractAsync(engine, page, ctx);
+            }
+        };
+    }
+
+    private List<PageResult> extract(OcrEngine engine, Path path, RunContext ctx) throws Exception {
+        try {
+            return tool(engine).extract(path);
+        } catch (Exception e) {
+            if (fallbackEngine == null || fallbackEngine == engine
+                    || e instanceof RunContext.AbortedException || (ctx != null && ctx.isAborted())) {
+                throw e;
+            }
+            System.err.println("[OCR] " + engine.name().toLowerCase() + " failed (" + e.getMessage()
+                    + "), retrying with " + fallbackEngine.name().toLowerCase());
+            try {
+                return tool(fallbackEngine).extract(path);
+            } catch (Exception fallbackError) {
+                e.addSuppressed(fallbackError);
+                throw e;
+            }
+        }
+    }
+
+    /** Version of the engine that would OCR {@code path} in the calling run, including how the file is prepared. */
+    public String versionFor(Path path) {
+        String version = tool(engineFor(RunContext.current())).version();
+        return version + (pdfPages.handles(path) ? "-pdf" + pdfPages.dpi() : "-" + normalizer.version());
+    }
+
+    private OcrEngine engineFor(RunContext ctx) {
+        return ctx != null && ctx.ocrEngine() != null ? ctx.ocrEngine() : defaultEngine;
+    }
+
+    private OcrTool tool(OcrEngine engine) {
+        return engine == OcrEngine.TESSERACT ? tesseract : remote;
+    }
+}
@@ -0,0 +1,142 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.OcrEngine;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline and cancellation of one run while it is being processed. Pipeline stages
+ * bind it to their thread ({@link #bind()}), so OCR and LLM clients can find it via
+ * {@link #current()} without it being threaded through every signature. Blocking
+ * calls register how to abort themselves ({@link #onCancel}); cancelling the run,
+ * or reaching the deadline, runs those actions.
+ */
+public final class RunContext {
+
+    /** Thrown when work is attempted for a run that was cancelled or ran out of time. */
+    public static class AbortedException extends RuntimeException {
+        public AbortedException(String message) {
+            super(message);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final ThreadLocal<RunContext> CURRENT = new ThreadLocal<>();
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "run-deadlines");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final UUID runId;
+    private final Instant deadline;
+    private final Set<Runnable> cancelActions = ConcurrentHashMap.newKeySet();
+    private final ScheduledFuture<?> deadlineTimer;
+    private volatile String abortReason;
+    private volatile OcrEngine ocrEngine;
+
+    public RunContext(UUID runId, Duration budget) {
+        this.runId = runId;
+        this.deadline = Instant.now().plus(budget);
+        this.deadlineTimer = DEADLINES.schedule(
+                () -> cancel("Deadline of " + budget.toSeconds() + "s exceeded"),
+                budget.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /** The context bound to the calling thread, or null outside run processing. */
+    public static RunContext current() {
+        return CURRENT.get();
+    }
+
+    public Registration bind() {
+        RunContext previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) CURRENT.remove();
+            else CURRENT.set(previous);
+        };
+    }
+
+    public UUID runId() {
+        return runId;
+    }
+
+    /** The OCR engine the run asked for, or null for the configured default. */
+    public OcrEngine ocrEngine() {
+        return ocrEngine;
+    }
+
+    public void setOcrEngine(OcrEngine ocrEngine) {
+        this.ocrEngine = ocrEngine;
+    }
+
+    public Duration remaining() {
+        Duration left = Duration.between(Instant.now(), deadline);
+        return left.isNegative() ? Duration.ZERO : left;
+    }
+
+    public boolean isAborted() {
+        return abortReason != null;
+    }
+
+    public String abortReason() {
+        return abortReason;
+    }
+
+    public void checkActive() {
+        if (abortReason != null) throw new AbortedException(abortReason);
+    }
+
+    /** Aborts the run; the first reason wins. */
+    public void cancel(String reason) {
+        synchronized (this) {
+            if (abortReason != null) return;
+            abortReason = reason;
+        }
+        deadlineTimer.cancel(false);
+        for (Runnable action : cancelActions) {
+            try {
+                action.run();
+            } catch (Exception e) {
+                System.err.println("[RUNS] Cancel action for run " + runId + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Registers how to abort an in-flight call; runs it right away if the run is already aborted. */
+    public Registration onCancel(Runnable action) {
+        cancelActions.add(action);
+        if (abortReason != null) action.run();
+        return () -> cancelActions.remove(action);
+    }
+
+    /** Interrupts the calling thread on cancel, for blocking calls that only respond to interrupts. */
+    public Registration interruptOnCancel() {
+        Thread thread = Thread.currentThread();
+        Registration registration = onCancel(thread::interrupt);
+        return () -> {
+            registration.close();
+            // don't leak a late interrupt into the next task on this pooled thread
+            if (abortReason != null) Thread.interrupted();
+        };
+    }
+
+    /** Releases the deadline timer once the run is finished. */
+    public void close() {
+        deadlineTimer.cancel(false);
+        cancelActions.clear();
+    }
+}
@@ -0,0 +1,186 @@
+package com.task.hwai.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.task.hwai.entity.RunEntity;
+import com.task.hwai.model.ExtractionResult;
+import com.task.hwai.model.RunEvent;
+import com.task.hwai.model.RunStatus;
+import com.task.hwai.repo.RunRepo;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * In-process fan-out of run progress to Server-Sent Events subscribers. Emitters
+ * are async servlet responses, so connections hold no thread; sends run on a few
+ * single-threaded stripes (a run always maps to the same stripe, which keeps its
+ * events in order). Runs processed by another node are caught by a periodic
+ * status check of the runs that have subscribers here.
+ */
+@Service
+public class RunEventBus {
+
+    private final RunRepo runRepo;
+    private final ExtractionService extractionService;
+    private final long emitterTimeoutMs;
+    private final ExecutorService[] stripes;
+    private final Map<UUID, Set<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+    private final Map<UUID, RunStatus> lastStatus = new ConcurrentHashMap<>();
+    private final ObjectMapper om = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    public RunEventBus(
+            RunRepo runRepo,
+            ExtractionService extractionService,
+            @Value("${app.runs.events.timeoutMs:900000}") long emitterTimeoutMs,
+            @Value("${app.runs.events.fanOutThreads:4}") int fanOutThreads
+    ) {
+        this.runRepo = runRepo;
+        this.extractionService = extractionService;
+        this.emitterTimeoutMs = emitterTimeoutMs;
+        this.stripes = new ExecutorService[Math.max(1, fanOutThreads)];
+        for (int i = 0; i < stripes.length; i++) {
+            String name = "run-events-" + (i + 1);
+            stripes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /** Subscribes to a run; the current state is sent first. Null if the run does not exist. */
+    public SseEmitter subscribe(UUID runId) {
+        if (!runRepo.existsById(runId)) return null;
+
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        subscribers.computeIfAbsent(runId, k -> ConcurrentHashMap.newKeySet()).add(emitter);
+        emitter.onCompletion(() -> unsubscribe(runId, emitter));
+        emitter.onTimeout(() -> {
+            unsubscribe(runId, emitter);
+            emitter.complete();
+        });
+        emitter.onError(e -> unsubscribe(runId, emitter));
+
+        // Read the state only after registering, so a transition in between is not lost.
+        RunEvent current = runRepo.findById(runId).map(this::snapshot).orElse(null);
+        if (current != null) {
+            // the sweep compares against this, or it would send the same state again as a transition
+            if (current.status() != null) lastStatus.putIfAbsent(runId, current.status());
+            stripeOf(runId).execute(() -> {
+                send(emitter, current);
+                if (current.terminal()) emitter.complete();
+            });
+        }
+        return emitter;
+    }
+
+    public void publish(RunEvent event) {
+        if (!subscribers.containsKey(event.runId())) return;
+        if (event.status() != null) lastStatus.put(event.runId(), event.status());
+        try {
+            stripeOf(event.runId()).execute(() -> deliver(event));
+        } catch (RejectedExecutionException shuttingDown) {
+            // subscribers reconnect and get the current state
+        }
+    }
+
+    private void deliver(RunEvent event) {
+        Set<SseEmitter> emitters = event.terminal()
+                ? subscribers.remove(event.runId())
+                : subscribers.get(event.runId());
+        if (event.terminal()) lastStatus.remove(event.runId());
+        if (emitters == null) return;
+        for (SseEmitter emitter : emitters) {
+            send(emitter, event);
+            if (event.terminal()) emitter.complete();
+        }
+    }
+
+    private void send(SseEmitter emitter, RunEvent event) {
+        try {
+            emitter.send(SseEmitter.event().name(event.stage()).data(event));
+        } catch (Exception e) {
+            emitter.completeWithError(e);
+        }
+    }
+
+    private void unsubscribe(UUID runId, SseEmitter emitter) {
+        subscribers.computeIfPresent(runId, (k, set) -> {
+            set.remove(emitter);
+            return set.isEmpty() ? null : set;
+        });
+        if (!subscribers.containsKey(runId)) lastStatus.remove(runId);
+    }
+
+    /** Picks up transitions made on other nodes for runs watched from this one. */
+    @Scheduled(fixedDelayString = "${app.runs.events.sweepMs:3000}")
+    public void sweep() {
+        if (subscribers.isEmpty()) return;
+        List<UUID> watched = new ArrayList<>(subscribers.keySet());
+        for (RunEntity run : runRepo.findAllById(watched)) {
+            if (run.getStatus() != lastStatus.get(run.getRunId())) publish(snapshot(run));
+        }
+    }
+
+    // Proxies and load balancers drop connections that stay silent for too long.
+    @Scheduled(fixedDelayString = "${app.runs.events.keepAliveMs:15000}")
+    public void keepAlive() {
+        subscribers.forEach((runId, emitters) -> stripeOf(runId).execute(() -> {
+            for (SseEmitter emitter : emitters) {
+                try {
+                    emitter.send(SseEmitter.event().comment("keepalive"));
+                } catch (Exception e) {
+                    emitter.completeWithError(e);
+                }
+            }
+        }));
+    }
+
+    private RunEvent snapshot(RunEntity run) {
+        ExtractionResult result = null;
+        if (run.getStatus() == RunStatus.COMPLETED) {
+            result = extractionService.getExtractionByRunId(run.getRunId())
+                    .map(ex -> readResult(ex.getResultJson()))
+                    .orElse(null);
+        }
+        return new RunEvent(run.getRunId(), run.getStatus().name().toLowerCase(), run.getStatus(),
+                Instant.now(), result, run.getStatus() == RunStatus.FAILED || run.getStatus() == RunStatus.CANCELLED
+                        ? run.getError() : null);
+    }
+
+    private ExtractionResult readResult(String json) {
+        try {
+            return om.readValue(json, ExtractionResult.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private ExecutorService stripeOf(UUID runId) {
+        return stripes[Math.floorMod(runId.hashCode(), stripes.length)];
+    }
+
+    public int subscriberCount() {
+        return subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService stripe : stripes) stripe.shutdownNow();
+    }
+}
@@ -0,0 +1,135 @@
+package com.task.hwai.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.task.hwai.entity.ExtractionEntity;
+import com.task.hwai.model.ExtractionResult;
+import com.task.hwai.model.RunEvent;
+import com.task.hwai.model.RunStatus;
+import com.task.hwai.repo.FileRepo;
+import com.task.hwai.repo.RunRepo;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Feeds one claimed run through the {@link ExtractionPipeline} and records the
+ * outcome on the run. Called from {@link RunQueueService}, never from request threads.
+ * Outcomes are only written while {@code owner} still holds the run's lease, so a
+ * node that lost its lease cannot overwrite the result of the node that took over.
+ */
+@Service
+public class RunProcessor {
+
+    private final RunRepo runRepo;
+    private final FileRepo fileRepo;
+    private final ExtractionService extractionService;
+    private final ExtractionPipeline pipeline;
+    private final StorageService storage;
+    private final TransactionTemplate tx;
+    private final RunEventBus events;
+    private final ObjectMapper om = new ObjectMapper();
+
+    public RunProcessor(
+            RunRepo runRepo,
+            FileRepo fileRepo,
+            ExtractionService extractionService,
+            ExtractionPipeline pipeline,
+            StorageService storage,
+            TransactionTemplate tx,
+            RunEventBus events
+    ) {
+        this.runRepo = runRepo;
+        this.fileRepo = fileRepo;
+        this.extractionService = extractionService;
+        this.pipeline = pipeline;
+        this.storage = storage;
+        this.tx = tx;
+        this.events = events;
+    }
+
+    /** Completes once the outcome is recorded (or discarded); never completes exceptionally. */
+    public CompletableFuture<Void> process(UUID runId, String owner, RunContext ctx) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        pipeline.submit(
+                        runId.toString(),
+                        ctx,
+                        () -> load(runId, ctx),
+                        stage -> events.publish(RunEvent.stage(runId, stage)),
+                        result -> {
+                            complete(runId, owner, result);
+                            return (Void) null;
+                        })
+                .handle((ok, error) -> {
+                    if (error != null) fail(runId, owner, ctx, unwrap(error));
+                    done.complete(null);
+                    return null;
+                });
+        // Only once the pipeline is done with the run, cancelled or not: its slot stays
+        // taken while a stage is still unwinding, so the node never runs more than its workers.
+        return done;
+    }
+
+    private ExtractionPipeline.Document load(UUID runId, RunContext ctx) throws Exception {
+        var run = runRepo.findById(runId)
+                .orElseThrow(() -> new IllegalStateException("Run " + runId + " not found"));
+        ctx.setOcrEngine(run.getOcrEngine());
+        var file = fileRepo.findById(run.getFileId())
+                .orElseThrow(() -> new IllegalStateException("File " + run.getFileId() + " not found"));
+        return new ExtractionPipeline.Document(file.getFileId().toString(), storage.resolve(file));
+    }
+
+    private void complete(UUID runId, String owner, ExtractionResult result) throws Exception {
+        String resultJson = om.writeValueAsString(result);
+        Boolean recorded = tx.execute(status -> {
+            if (runRepo.finish(runId, owner, RunStatus.COMPLETED, Instant.now(), null) == 0) return false;
+            ExtractionEntity extraction = extractionService.getExtractionByRunId(runId)
+                    .orElseGet(ExtractionEntity::new);
+            extraction.setRunId(runId);
+            extraction.setDocumentType(result.documentType());
+            extraction.setResultJson(resultJson);
+            extractionService.saveExtraction(extraction);
+            return true;
+        });
+        if (!Boolean.TRUE.equals(recorded)) {
+            System.err.println("[RUNS] Run " + runId + " finished after its lease was lost; result discarded");
+            return;
+        }
+        events.publish(new RunEvent(runId, "completed", RunStatus.COMPLETED, Instant.now(), result, null));
+    }
+
+    private void fail(UUID runId, String owner, RunContext ctx, Throwable error) {
+        try {
+            if (error instanceof RejectedExecutionException) {
+                // A stage queue is full: give the run back rather than failing it.
+                runRepo.releaseLease(runId, owner);
+                System.err.println("[RUNS] Pipeline full, run " + runId + " returned to the queue");
+                return;
+            }
+            // an aborted call surfaces as some I/O error; the abort reason says what happened
+            String message = truncate(ctx.isAborted() ? ctx.abortReason() : error.getMessage());
+            System.err.println("❌ Run " + runId + " failed: " + message);
+            if (runRepo.finish(runId, owner, RunStatus.FAILED, Instant.now(), message) == 1) {
+                events.publish(new RunEvent(runId, "failed", RunStatus.FAILED, Instant.now(), null, message));
+            }
+        } catch (Exception e) {
+            System.err.println("[RUNS] Could not record failure of run " + runId + ": " + e.getMessage());
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    private static String truncate(String message) {
+        return message != null && message.length() > 4000 ? message.substring(0, 4000) : message;
+    }
+}
@@ -0,0 +1,247 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.RunEvent;
+import com.task.hwai.model.RunPriority;
+import com.task.hwai.model.RunStatus;
+import com.task.hwai.repo.RunRepo;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Durable run queue shared by every backend instance. The {@code runs} table is the
+ * queue: uploads insert QUEUED rows and nudge the dispatcher, which locks claimable
+ * rows with {@code FOR UPDATE SKIP LOCKED} and takes a lease on them. Workers renew
+ * their leases with a heartbeat; a run whose lease expires (its node died) becomes
+ * claimable again, until {@code app.runs.maxAttempts} is used up. Which runs are
+ * claimed, and in which order, is up to the {@link FairRunScheduler}.
+ * {@code app.runs.workers} is the number of runs a node keeps in flight; they are
+ * processed by the {@link ExtractionPipeline} stages.
+ */
+@Service
+public class RunQueueService {
+
+    private final RunRepo runRepo;
+    private final RunProcessor processor;
+    private final WorkerNode node;
+    private final FairRunScheduler scheduler;
+    private final RunEventBus events;
+    private final TransactionTemplate tx;
+    private final int workers;
+    private final Duration leaseTtl;
+    private final int maxAttempts;
+    private final int candidateWindow;
+    private final Semaphore freeWorkers;
+    private final Duration deadline;
+    private final Map<UUID, RunContext> held = new ConcurrentHashMap<>();
+    private final ExecutorService dispatcher;
+
+    public RunQueueService(
+            RunRepo runRepo,
+            RunProcessor processor,
+            WorkerNode node,
+            FairRunScheduler scheduler,
+            RunEventBus events,
+            TransactionTemplate tx,
+            @Value("${app.runs.workers:8}") int workers,
+            @Value("${app.runs.leaseSeconds:60}") int leaseSeconds,
+            @Value("${app.runs.maxAttempts:3}") int maxAttempts,
+            @Value("${app.runs.deadlineSeconds:600}") int deadlineSeconds,
+            @Value("${app.runs.scheduler.candidateWindow:500}") int candidateWindow
+    ) {
+        this.runRepo = runRepo;
+        this.processor = processor;
+        this.node = node;
+        this.scheduler = scheduler;
+        this.events = events;
+        this.tx = tx;
+        this.workers = workers;
+        this.leaseTtl = Duration.ofSeconds(leaseSeconds);
+        this.maxAttempts = maxAttempts;
+        this.deadline = Duration.ofSeconds(deadlineSeconds);
+        this.candidateWindow = candidateWindow;
+        this.freeWorkers = new Semaphore(workers);
+        this.dispatcher = Executors.newSingleThreadExecutor(named("run-dispatcher"));
+    }
+
+    // A node restarting under the same id hands its old leases back right away
+    // instead of leaving them to expire.
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverInterruptedRuns() {
+        int n = runRepo.releaseLeasesOf(node.id());
+        if (n > 0) System.out.println("[RUNS] Re-queued " + n + " run(s) interrupted by a restart of " + node.id());
+        nudge();
+    }
+
+    @Scheduled(fixedDelayString = "${app.runs.pollMs:2000}")
+    public void poll() {
+        nudge();
+    }
+
+    @Scheduled(fixedDelayString = "${app.runs.heartbeatMs:15000}")
+    public void heartbeat() {
+        Instant now = Instant.now();
+        for (var entry : held.entrySet()) {
+            UUID runId = entry.getKey();
+            try {
+                if (runRepo.renewLease(runId, node.id(), now, now.plus(leaseTtl)) == 0 && held.remove(runId) != null) {
+                    // cancelled (possibly via another node) or taken over: stop spending on it
+                    System.err.println("[RUNS] Lost lease on run " + runId + "; aborting it");
+                    entry.getValue().cancel("Run was cancelled or taken over by another node");
+                }
+            } catch (Exception e) {
+                System.err.println("[RUNS] Heartbeat for run " + runId + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Signals that runs were queued or workers freed up; claiming happens off the caller's thread. */
+    public void nudge() {
+        try {
+            dispatcher.execute(this::dispatch);
+        } catch (RejectedExecutionException shuttingDown) {
+            // runs stay QUEUED in the table and are picked up by any live node
+        }
+    }
+
+    private void dispatch() {
+        int free = freeWorkers.availablePermits();
+        if (free == 0) return;
+
+        List<FairRunScheduler.Candidate> claimed;
+        try {
+            claimed = tx.execute(status -> claimBatch(free));
+        } catch (Exception e) {
+            System.err.println("[RUNS] Claiming runs failed: " + e.getMessage());
+            return;
+        }
+        Instant now = Instant.now();
+        for (FairRunScheduler.Candidate run : claimed) {
+            // Only this thread acquires permits, so the ones counted above are still free.
+            freeWorkers.acquireUninterruptibly();
+            RunContext ctx = new RunContext(run.runId(), deadline);
+            held.put(run.runId(), ctx);
+            scheduler.started(run, now);
+            events.publish(RunEvent.stage(run.runId(), "processing"));
+            processor.process(run.runId(), node.id(), ctx).whenComplete((ok, error) -> {
+                ctx.close();
+                held.remove(run.runId());
+                scheduler.finished(run.priority());
+                freeWorkers.release();
+                nudge();
+            });
+        }
+    }
+
+    private List<FairRunScheduler.Candidate> claimBatch(int slots) {
+        Instant now = Instant.now();
+        int abandoned = runRepo.failAbandoned(now, maxAttempts);
+        if (abandoned > 0) System.err.println("[RUNS] Failed " + abandoned + " run(s) after " + maxAttempts + " lost workers");
+
+        List<FairRunScheduler.Candidate> heads = new ArrayList<>();
+        for (Object[] row : runRepo.findClaimableHeads(now, slots, candidateWindow)) {
+            heads.add(new FairRunScheduler.Candidate(
+                    UUID.fromString((String) row[0]),
+                    (String) row[1],
+                    row[2] != null ? RunPriority.valueOf((String) row[2]) : RunPriority.INTERACTIVE,
+                    toInstant(row[3])));
+        }
+        List<FairRunScheduler.Candidate> picks = scheduler.select(heads, slots);
+        if (picks.isEmpty()) return picks;
+
+        Set<String> locked = new HashSet<>(runRepo.lockClaimable(now,
+                picks.stream().map(FairRunScheduler.Candidate::runId).toList()));
+        List<FairRunScheduler.Candidate> claimed = new ArrayList<>();
+        for (FairRunScheduler.Candidate run : picks) {
+            if (locked.contains(run.runId().toString())
+                    && runRepo.claim(run.runId(), node.id(), now, now.plus(leaseTtl)) == 1) {
+                claimed.add(run);
+            }
+        }
+        return claimed;
+    }
+
+    private static Instant toInstant(Object column) {
+        if (column instanceof Instant i) return i;
+        if (column instanceof java.sql.Timestamp t) return t.toInstant();
+        if (column instanceof java.time.OffsetDateTime o) return o.toInstant();
+        if (column instanceof java.time.LocalDateTime l) return l.toInstant(java.time.ZoneOffset.UTC);
+        return Instant.now();
+    }
+
+    /** Queue depth per class across all nodes plus this node's scheduler figures. */
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        Map<String, Long> queued = new LinkedHashMap<>();
+        for (RunPriority p : RunPriority.values()) queued.put(p.name().toLowerCase(), 0L);
+        for (Object[] row : runRepo.countQueuedByPriority()) {
+            if (row[0] != null) queued.put(((RunPriority) row[0]).name().toLowerCase(), (Long) row[1]);
+        }
+        out.put("node", node.id());
+        out.put("workers", workers);
+        out.put("activeWorkers", activeWorkers());
+        out.put("queued", queued);
+        out.put("classes", scheduler.stats());
+        return out;
+    }
+
+    /**
+     * Cancels a queued or running run. A run in progress here is aborted right away
+     * (in-flight OCR and LLM calls are cancelled, and its slot is freed once the stage it
+     * is in has unwound); one running on another node is aborted there on that node's next
+     * heartbeat. Empty if the run does not exist.
+     */
+    public Optional<Boolean> cancel(UUID runId) {
+        if (!runRepo.existsById(runId)) return Optional.empty();
+        if (runRepo.cancel(runId, Instant.now(), "Cancelled by request") == 0) return Optional.of(false);
+
+        RunContext ctx = held.get(runId);
+        if (ctx != null) ctx.cancel("Cancelled by request");
+        events.publish(new RunEvent(runId, "cancelled", RunStatus.CANCELLED, Instant.now(), null, "Cancelled by request"));
+        return Optional.of(true);
+    }
+
+    public int activeWorkers() {
+        return workers - freeWorkers.availablePermits();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+        try {
+            runRepo.releaseLeasesOf(node.id());
+        } catch (Exception e) {
+            System.err.println("[RUNS] Could not release leases on shutdown: " + e.getMessage());
+        }
+    }
+
+    private static java.util.concurrent.ThreadFactory named(String prefix) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,105 @@
+package com.task.hwai.service;
+
+import com.task.hwai.entity.FileEntity;
+import com.task.hwai.entity.RunEntity;
+import com.task.hwai.model.OcrEngine;
+import com.task.hwai.model.RunPriority;
+import com.task.hwai.model.RunStatus;
+import com.task.hwai.model.UploadResponse;
+import com.task.hwai.repo.FileRepo;
+import com.task.hwai.repo.RunRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/** Registers stored uploads as files with a queued run, for single uploads and batches alike. */
+@Service
+public class RunSubmissionService {
+
+    private final FileRepo fileRepo;
+    private final RunRepo runRepo;
+    private final RunQueueService runQueue;
+    private final Set<String> trustedKeys;
+
+    public RunSubmissionService(
+            FileRepo fileRepo,
+            RunRepo runRepo,
+            RunQueueService runQueue,
+            @Value("${app.runs.trustedKeyDigests:}") String trustedKeyDigests
+    ) {
+        this.fileRepo = fileRepo;
+        this.runRepo = runRepo;
+        this.runQueue = runQueue;
+        this.trustedKeys = Arrays.stream(trustedKeyDigests.split(","))
+                .map(String::trim).filter(d -> !d.isEmpty()).map(String::toLowerCase)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /** How the runs of one submission are scheduled and processed; a null engine means the configured default. */
+    public record RunOptions(RunPriority priority, String tenant, UUID batchId, OcrEngine ocrEngine) {}
+
+    public UploadResponse submit(FileEntity fe, StorageService.StoredBlob saved, String name, String mimeType,
+                                 RunOptions options) {
+        UploadResponse response = register(fe, saved, name, mimeType, options);
+        runQueue.nudge();
+        return response;
+    }
+
+    /** Same as {@link #submit} without waking the dispatcher; call {@link #flush()} afterwards. */
+    public UploadResponse register(FileEntity fe, StorageService.StoredBlob saved, String name, String mimeType,
+                                   RunOptions options) {
+        UUID fileId = fe.getFileId();
+        fe.setName(name);
+        fe.setMimeType(mimeType);
+        fe.setStorageUri(saved.storageUri());
+        fe.setContentDigest(saved.digest());
+        fe.setSize(saved.size());
+        fileRepo.save(fe);
+
+        var run = new RunEntity();
+        run.setFileId(fileId);
+        run.setBatchId(options.batchId());
+        run.setStatus(RunStatus.QUEUED);
+        run.setPriority(options.priority());
+        run.setTenant(options.tenant());
+        run.setOcrEngine(options.ocrEngine());
+        runRepo.save(run);
+
+        return new UploadResponse(fileId, run.getRunId());
+    }
+
+    public void flush() {
+        runQueue.nudge();
+    }
+
+    /**
+     * Fair-share key for the scheduler, derived from the caller's API key (never stored,
+     * only a short digest). {@code X-Tenant-Id} is only honoured from keys whose SHA-256
+     * is in {@code app.runs.trustedKeyDigests}, e.g. a gateway submitting for its tenants;
+     * anyone else could use it to jump into a fresh or someone else's share.
+     */
+    public String tenantOf(String tenantId, String apiKey) {
+        if (apiKey == null || apiKey.isBlank()) return "anonymous";
+        byte[] hash = sha256(apiKey);
+        if (tenantId != null && !tenantId.isBlank() && trustedKeys.contains(HexFormat.of().formatHex(hash))) {
+            return tenantId.trim();
+        }
+        return "key-" + HexFormat.of().formatHex(hash, 0, 6);
+    }
+
+    private static byte[] sha256(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
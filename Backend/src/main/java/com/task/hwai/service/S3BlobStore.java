@@ -0,0 +1,299 @@
+package com.task.hwai.service;
+
+import jakarta.annotation.PreDestroy;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Blobs in an S3-compatible bucket (AWS, MinIO, LocalStack...). Large objects are
+ * uploaded as parallel multipart uploads and fetched with parallel ranged GETs
+ * into a bounded local read-through cache, since OCR needs a file on disk. A cache
+ * file handed out by {@link #localPath} is pinned for {@code pin} (the longest a run
+ * may read it) and is not evicted meanwhile, even if the cache runs over its bound.
+ */
+public class S3BlobStore implements BlobStore {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final S3Client s3;
+    private final String bucket;
+    private final Path cacheDir;
+    private final long partSize;
+    private final long cacheMaxBytes;
+    private final Duration pin;
+    private final ExecutorService transfers;
+    private final ConcurrentHashMap<String, CompletableFuture<Path>> inflightFetches = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Path, Instant> handedOut = new ConcurrentHashMap<>();
+    private final Object evicting = new Object();
+
+    public S3BlobStore(S3Client s3, String bucket, Path cacheDir, long partSize, int parallelism, long cacheMaxBytes,
+                       Duration pin) {
+        if (partSize < 5L * 1024 * 1024) throw new IllegalArgumentException("S3 multipart parts must be at least 5MB");
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.cacheDir = cacheDir;
+        this.partSize = partSize;
+        this.cacheMaxBytes = cacheMaxBytes;
+        this.pin = pin;
+        this.transfers = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "s3-transfer");
+            t.setDaemon(true);
+            return t;
+        });
+        try { Files.createDirectories(cacheDir); } catch (Exception ignored) {}
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        transfers.shutdownNow();
+    }
+
+    @Override
+    public String put(String key, Path staged) throws Exception {
+        long size = Files.size(staged);
+        if (size <= partSize) {
+            s3.putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(), RequestBody.fromFile(staged));
+        } else {
+            multipartUpload(key, staged, size);
+        }
+        // Keep the bytes we already have as a warm cache entry instead of re-downloading them for OCR.
+        Path cached = cachePath(key);
+        Files.createDirectories(cached.getParent());
+        Files.move(staged, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        evictIfNeeded();
+        return "s3://" + bucket + "/" + key;
+    }
+
+    private void multipartUpload(String key, Path staged, long size) throws Exception {
+        String uploadId = s3.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket).key(key).build()).uploadId();
+        try {
+            List<Future<CompletedPart>> futures = new ArrayList<>();
+            int partNumber = 1;
+            for (long offset = 0; offset < size; offset += partSize, partNumber++) {
+                final int number = partNumber;
+                final long from = offset;
+                final long length = Math.min(partSize, size - offset);
+                futures.add(transfers.submit(() -> {
+                    var response = s3.uploadPart(UploadPartRequest.builder()
+                                    .bucket(bucket).key(key).uploadId(uploadId)
+                                    .partNumber(number).contentLength(length).build(),
+                            RequestBody.fromContentProvider(() -> openRange(staged, from, length), length,
+                                    "application/octet-stream"));
+                    return CompletedPart.builder().partNumber(number).eTag(response.eTag()).build();
+                }));
+            }
+            List<CompletedPart> parts = new ArrayList<>();
+            for (Future<CompletedPart> f : futures) parts.add(awaitTransfer(f));
+
+            s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build());
+        } catch (Exception e) {
+            s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).uploadId(uploadId).build());
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean exists(String storageUri) {
+        try {
+            s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(keyOf(storageUri)).build());
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) return false;
+            throw e;
+        }
+    }
+
+    @Override
+    public Path localPath(String storageUri) throws Exception {
+        String key = keyOf(storageUri);
+        Path cached = cachePath(key);
+        // Pinned before the lookup, under the lock eviction deletes under, so a hit can't be evicted before it is read.
+        synchronized (this) {
+            handedOut.put(cached, Instant.now());
+            if (Files.exists(cached)) {
+                Files.setLastModifiedTime(cached, FileTime.from(Instant.now()));
+                return cached;
+            }
+        }
+
+        // Concurrent readers of the same object share one download.
+        CompletableFuture<Path> mine = new CompletableFuture<>();
+        CompletableFuture<Path> fetch = inflightFetches.putIfAbsent(key, mine);
+        if (fetch != null) return awaitTransfer(fetch);
+        try {
+            mine.complete(download(key, cached));
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflightFetches.remove(key);
+        }
+        evictIfNeeded();
+        return cached;
+    }
+
+    private Path download(String key, Path cached) throws Exception {
+        long size = s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build()).contentLength();
+        Files.createDirectories(cached.getParent());
+        Path partial = cached.resolveSibling(cached.getFileName() + "." + Thread.currentThread().threadId() + ".part");
+        try {
+            try (FileChannel out = FileChannel.open(partial,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (size == 0) {
+                    // nothing to fetch
+                } else if (size <= partSize) {
+                    fetchRange(key, 0, size, out);
+                } else {
+                    List<Future<?>> ranges = new ArrayList<>();
+                    for (long offset = 0; offset < size; offset += partSize) {
+                        final long from = offset;
+                        final long length = Math.min(partSize, size - offset);
+                        ranges.add(transfers.submit(() -> {
+                            fetchRange(key, from, length, out);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> f : ranges) awaitTransfer(f);
+                }
+            }
+            Files.move(partial, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return cached;
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    // Positional writes, so ranges can land in the shared channel in any order.
+    private void fetchRange(String key, long from, long length, FileChannel out) throws IOException {
+        GetObjectRequest request = GetObjectRequest.builder().bucket(bucket).key(key)
+                .range("bytes=" + from + "-" + (from + length - 1)).build();
+        try (ResponseInputStream<GetObjectResponse> in = s3.getObject(request)) {
+            byte[] chunk = new byte[COPY_BUFFER_SIZE];
+            long position = from;
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                ByteBuffer buf = ByteBuffer.wrap(chunk, 0, n);
+                while (buf.hasRemaining()) position += out.write(buf, position);
+            }
+            if (position != from + length) {
+                throw new IOException("Short read for s3://" + bucket + "/" + key + " range starting at " + from);
+            }
+        }
+    }
+
+    @Override
+    public void delete(String storageUri) throws Exception {
+        String key = keyOf(storageUri);
+        s3.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+        Files.deleteIfExists(cachePath(key));
+    }
+
+    @Override
+    public List<String> listOlderThan(Instant cutoff) {
+        List<String> uris = new ArrayList<>();
+        for (var page : s3.listObjectsV2Paginator(ListObjectsV2Request.builder().bucket(bucket).build())) {
+            for (S3Object o : page.contents()) {
+                if (o.lastModified() != null && o.lastModified().isBefore(cutoff)) {
+                    uris.add("s3://" + bucket + "/" + o.key());
+                }
+            }
+        }
+        return uris;
+    }
+
+    @Override
+    public boolean owns(String storageUri) {
+        return storageUri != null && storageUri.startsWith("s3://" + bucket + "/");
+    }
+
+    private String keyOf(String storageUri) {
+        if (!owns(storageUri)) throw new IllegalArgumentException("Not an object in bucket " + bucket + ": " + storageUri);
+        return storageUri.substring(("s3://" + bucket + "/").length());
+    }
+
+    private Path cachePath(String key) {
+        Path p = cacheDir.resolve(key).normalize();
+        if (!p.startsWith(cacheDir.normalize())) throw new IllegalArgumentException("Invalid object key: " + key);
+        return p;
+    }
+
+    private static InputStream openRange(Path file, long from, long length) {
+        try {
+            FileChannel ch = FileChannel.open(file, StandardOpenOption.READ).position(from);
+            return new org.apache.commons.io.input.BoundedInputStream(Channels.newInputStream(ch), length);
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    // Least recently used entries go first; the files themselves are the index. Pinned entries are skipped.
+    private void evictIfNeeded() {
+        synchronized (evicting) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        Instant pinnedSince = Instant.now().minus(pin);
+        handedOut.values().removeIf(at -> at.isBefore(pinnedSince));
+        try (var files = Files.walk(cacheDir)) {
+            List<Path> entries = files.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().endsWith(".part"))
+                    .sorted(Comparator.comparing(S3BlobStore::lastModified))
+                    .toList();
+            long total = 0;
+            for (Path p : entries) total += Files.size(p);
+            for (Path p : entries) {
+                if (total <= cacheMaxBytes) break;
+                synchronized (this) {
+                    if (handedOut.containsKey(p)) continue;
+                    long size = Files.size(p);
+                    Files.deleteIfExists(p);
+                    total -= size;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[STORAGE] Cache eviction failed: " + e.getMessage());
+        }
+    }
+
+    private static FileTime lastModified(Path p) {
+        try {
+            return Files.getLastModifiedTime(p);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static <T> T awaitTransfer(Future<T> f) throws Exception {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+}
@@ -1,122 +1,209 @@
 package com.task.hwai.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.*;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * OCR through the Python service. Each call goes to one of the replicas in
+ * {@link OcrEndpointPool}; with {@code ocr.python.hedge.enabled}, a call still running
+ * after the pool's hedging delay is sent to a second replica as well and whichever
+ * answers first is used, the other cancelled. Calls are asynchronous
+ * ({@link #extractAsync}), so no thread waits on one; {@link #extract} blocks on it.
+ */
 @Service
 public class SimpleOcrTool implements OcrTool {
 
+    private static final ScheduledExecutorService HEDGE_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ocr-hedge-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final OkHttpClient http;
-    private final ObjectMapper om = new ObjectMapper();
-    private final String pythonOcrUrl; // updated default to Docker service name
+    private final OcrEndpointPool endpoints;
+    private final String serviceVersion;
 
     public SimpleOcrTool(
             OkHttpClient http,
-            @Value("${ocr.python.url:http://python-service:8000/upload}") String pythonOcrUrl
+            OcrEndpointPool endpoints,
+            @Value("${ocr.python.version:1}") String serviceVersion
     ) {
-        this.http = http;
-        this.pythonOcrUrl = pythonOcrUrl;
+        // Calls are enqueued; OkHttp's default dispatcher would run only 5 at a time per replica.
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(256);
+        dispatcher.setMaxRequestsPerHost(256);
+        this.http = http.newBuilder().dispatcher(dispatcher).build();
+        this.endpoints = endpoints;
+        this.serviceVersion = serviceVersion;
+    }
+
+    // Bump ocr.python.version when the Python service's OCR model changes; the suffix is how
+    // responses are parsed (p2: field keys and confidences), so older cached pages aren't reused.
+    @Override
+    public String version() {
+        return "remote-" + serviceVersion + "-p2";
     }
 
     @Override
     public List<PageResult> extract(Path path) throws Exception {
+        return OcrTool.await(extractAsync(path));
+    }
+
+    /**
+     * Sends the file and returns while the call is in flight; the response is parsed on
+     * OkHttp's callback thread. Cancelling the returned future cancels the calls.
+     */
+    @Override
+    public CompletableFuture<List<PageResult>> extractAsync(Path path) {
         File file = path.toFile();
-        if (!file.exists()) throw new IllegalArgumentException("File not found: " + path);
+        if (!file.exists()) return CompletableFuture.failedFuture(new IllegalArgumentException("File not found: " + path));
 
         // Set input attribute for Langfuse
         System.out.println("[LANGFUSE OCR] Extracting from file: " + file.getName());
 
-        // Build multipart request
+        // Build multipart request; a file body can be sent more than once, so a hedge reuses it
         RequestBody fileBody = RequestBody.create(file, MediaType.parse("image/*"));
         MultipartBody requestBody = new MultipartBody.Builder()
                 .setType(MultipartBody.FORM)
                 .addFormDataPart("file", file.getName(), fileBody)
                 .build();
 
-        Request request = new Request.Builder()
-                .url(pythonOcrUrl)
-                .post(requestBody)
-                .build();
+        // Within a run the calls are bounded by the run's deadline and aborted on cancel.
+        RunContext ctx = RunContext.current();
+        if (ctx != null && ctx.isAborted()) {
+            return CompletableFuture.failedFuture(new RunContext.AbortedException(ctx.abortReason()));
+        }
+        List<Call> calls = new CopyOnWriteArrayList<>();
+        RunContext.Registration cancel = ctx != null ? ctx.onCancel(() -> calls.forEach(Call::cancel)) : () -> {};
+
+        OcrEndpointPool.Endpoint first = endpoints.pick(null);
+        CompletableFuture<List<PageResult>> primary = send(first, requestBody, ctx, calls);
+        long delay = endpoints.hedging() ? endpoints.hedgeDelayMs() : -1;
+        AtomicBoolean finished = new AtomicBoolean();
+        CompletableFuture<List<PageResult>> pages = delay < 0 ? primary : hedged(primary, first, delay, file.getName(),
+                second -> send(second, requestBody, ctx, calls), ctx, finished);
+
+        CompletableFuture<List<PageResult>> result = pages.handle((value, error) -> {
+            if (error == null) return value;
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof RunContext.AbortedException aborted) throw aborted;
+            if (ctx != null && ctx.isAborted()) throw new RunContext.AbortedException(ctx.abortReason());
+            throw new RuntimeException("Failed to call Python OCR server: " + cause.getMessage(), cause);
+        });
+        result.whenComplete((value, error) -> {
+            finished.set(true);
+            cancel.close();
+            calls.forEach(Call::cancel);    // the hedge that lost, or everything when the caller gave up
+        });
+        return result;
+    }
 
-        try (Response response = http.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new RuntimeException("Python OCR server returned: " + response.code() + " - " + response.message());
+    // Sends a second attempt if the first is still running after delayMs; the first success wins.
+    private CompletableFuture<List<PageResult>> hedged(CompletableFuture<List<PageResult>> primary,
+                                                       OcrEndpointPool.Endpoint first, long delayMs, String name,
+                                                       Function<OcrEndpointPool.Endpoint, CompletableFuture<List<PageResult>>> resend,
+                                                       RunContext ctx, AtomicBoolean finished) {
+        CompletableFuture<List<PageResult>> hedge = new CompletableFuture<>();
+        AtomicBoolean decided = new AtomicBoolean();    // whether the hedge was sent or can no longer be
+        ScheduledFuture<?> timer = HEDGE_TIMER.schedule(() -> {
+            if (finished.get() || !decided.compareAndSet(false, true)) return;
+            OcrEndpointPool.Endpoint second = endpoints.pick(first);
+            if (second == null || (ctx != null && ctx.isAborted())) {
+                hedge.completeExceptionally(new IllegalStateException("No endpoint to hedge to"));
+                return;
             }
+            System.out.println("[OCR] " + name + " still running on " + first.url()
+                    + " after " + delayMs + "ms, hedging to " + second.url());
+            endpoints.hedgeSent();
+            resend.apply(second).whenComplete((value, error) -> {
+                if (error == null) {
+                    if (!primary.isDone() || primary.isCompletedExceptionally()) endpoints.hedgeWon();
+                    hedge.complete(value);
+                } else {
+                    hedge.completeExceptionally(error);
+                }
+            });
+        }, delayMs, TimeUnit.MILLISECONDS);
+        primary.whenComplete((value, error) -> {
+            if (decided.compareAndSet(false, true)) {
+                timer.cancel(false);
+                hedge.completeExceptionally(error != null ? error : new CancellationException());
+            }
+        });
 
-            String body = response.body() == null ? "" : response.body().string();
-            
-            // Log output for Langfuse
-            String outputPreview = body.length() > 200 ? body.substring(0, 200) + "..." : body;
-            System.out.println("[LANGFUSE OCR] Received response (preview): " + outputPreview);
-            
-            JsonNode root = om.readTree(body);
-
-            JsonNode extracted = null;
-            if (root.has("extracted_data")) extracted = root.get("extracted_data");
-            else if (root.has("ocr-extract")) extracted = root.get("ocr-extract");
-            else if (root.has("text")) extracted = root.get("text");
-            else extracted = root;
-
-            List<PageResult> pages = new ArrayList<>();
-
-            if (extracted.has("pages") && extracted.get("pages").isArray()) {
-                int idx = 1;
-                for (JsonNode pageNode : extracted.get("pages")) {
-                    List<OcrTool.Token> tokens = new ArrayList<>();
-                    List<Map<String,Object>> rawBlocks = new ArrayList<>();
-
-                    if (pageNode.has("fields")) {
-                        Map<String,Object> fieldsMap = om.convertValue(pageNode.get("fields"), Map.class);
-                        rawBlocks.add(fieldsMap);
-                        for (Object v : fieldsMap.values()) {
-                            if (v != null) tokens.add(new OcrTool.Token(v.toString(), 0.0f));
-                        }
-                    }
-
-                    if (pageNode.has("text")) {
-                        tokens.add(new OcrTool.Token(pageNode.get("text").asText(""), 0.0f));
-                    }
-                    if (pageNode.has("lines") && pageNode.get("lines").isArray()) {
-                        for (JsonNode ln : pageNode.get("lines")) tokens.add(new OcrTool.Token(ln.asText(""), 0.0f));
-                    }
+        return firstSuccess(primary, hedge);
+    }
 
-                    pages.add(new PageResult(idx++, tokens, rawBlocks));
-                }
+    private CompletableFuture<List<PageResult>> send(OcrEndpointPool.Endpoint endpoint, RequestBody body,
+                                                     RunContext ctx, List<Call> calls) {
+        Request request = new Request.Builder()
+                .url(endpoint.url())
+                .post(body)
+                .build();
+        Call call = http.newCall(request);
+        if (ctx != null) {
+            call.timeout().timeout(Math.max(1, ctx.remaining().toMillis()), TimeUnit.MILLISECONDS);
+        }
+        calls.add(call);
+
+        CompletableFuture<List<PageResult>> result = new CompletableFuture<>();
+        long started = System.nanoTime();
+        endpoints.begin(endpoint);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                endpoints.end(endpoint);
+                if (!call.isCanceled()) endpoints.failed(endpoint, e.getMessage());
+                result.completeExceptionally(e);
+            }
 
-            } else if (extracted.isTextual()) {
-                pages.add(new PageResult(1, List.of(new OcrTool.Token(extracted.asText(""), 0.0f)), List.of(Map.of("text", extracted.asText("")))));
-            } else if (extracted.isObject()) {
-                List<OcrTool.Token> tokens = new ArrayList<>();
-                List<Map<String,Object>> rawBlocks = new ArrayList<>();
-                if (extracted.has("paragraphs") && extracted.get("paragraphs").isArray()) {
-                    for (JsonNode p : extracted.get("paragraphs")) tokens.add(new OcrTool.Token(p.asText(""), 0.0f));
-                    rawBlocks.add(om.convertValue(extracted.get("paragraphs"), Map.class));
-                } else {
-                    rawBlocks.add(om.convertValue(extracted, Map.class));
-                    Iterator<Map.Entry<String, JsonNode>> it = extracted.fields();
-                    while (it.hasNext()) {
-                        Map.Entry<String, JsonNode> e = it.next();
-                        tokens.add(new OcrTool.Token(e.getKey() + ": " + e.getValue().asText(""), 0.0f));
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    if (!response.isSuccessful()) {
+                        if (response.code() >= 500) endpoints.failed(endpoint, "HTTP " + response.code());
+                        throw new RuntimeException("Python OCR server returned: " + response.code() + " - " + response.message());
                     }
+
+                    // Log output for Langfuse (peeked, so the body is still read as a stream below)
+                    String preview = response.peekBody(200).string();
+                    String outputPreview = preview.length() >= 200 ? preview + "..." : preview;
+                    System.out.println("[LANGFUSE OCR] Received response (preview): " + outputPreview);
+
+                    List<PageResult> pages = OcrResponseParser.parse(response.body().byteStream());
+                    endpoints.succeeded(endpoint, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                    result.complete(pages);
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    endpoints.end(endpoint);
                 }
-                pages.add(new PageResult(1, tokens, rawBlocks));
-            } else {
-                pages.add(new PageResult(1, List.of(new OcrTool.Token("", 0.0f)), List.of()));
             }
+        });
+        return result;
+    }
 
-            return pages;
-        } catch (Exception ex) {
-            throw new RuntimeException("Failed to call Python OCR server: " + ex.getMessage(), ex);
-        }
+    // Completes with the first of the two to succeed, or fails once both have failed.
+    private static <T> CompletableFuture<T> firstSuccess(CompletableFuture<T> a, CompletableFuture<T> b) {
+        CompletableFuture<T> first = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        BiConsumer<T, Throwable> done = (value, error) -> {
+            if (error == null) first.complete(value);
+            else if (failed.incrementAndGet() == 2) first.completeExceptionally(error);
+        };
+        a.whenComplete(done);
+        b.whenComplete(done);
+        return first;
     }
 }
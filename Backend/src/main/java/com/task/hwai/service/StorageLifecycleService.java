@@ -0,0 +1,277 @@
+package com.task.hwai.service;
+
+import com.task.hwai.entity.BlobEntity;
+import com.task.hwai.entity.FileEntity;
+import com.task.hwai.entity.RunEntity;
+import com.task.hwai.model.RunStatus;
+import com.task.hwai.repo.BatchRepo;
+import com.task.hwai.repo.BlobRepo;
+import com.task.hwai.repo.ExtractionRepo;
+import com.task.hwai.repo.FileRepo;
+import com.task.hwai.repo.RunRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Background housekeeping for the storage volume. Blobs move through three tiers:
+ * hot (a loose file per blob), cold (appended to a pack file once unused for
+ * {@code app.storage.pack.coldAfterDays}) and expired (deleted after
+ * {@code app.storage.retention.days}, 0 keeps files forever). Each pass also drops
+ * files whose results are gone and sweeps unreferenced blobs and stray objects.
+ */
+@Service
+public class StorageLifecycleService {
+
+    private static final int BATCH = 500;
+
+    private final FileRepo fileRepo;
+    private final RunRepo runRepo;
+    private final ExtractionRepo extractionRepo;
+    private final BlobRepo blobRepo;
+    private final BatchRepo batchRepo;
+    private final StorageService storage;
+    private final BlobStore blobStore;
+    private final PackFileStore packs;
+    private final Path baseDir;
+    private final Duration grace;
+    private final int retentionDays;
+    private final int coldAfterDays;
+    private final long packMaxBlobBytes;
+    private final double repackBelowLiveRatio;
+
+    public StorageLifecycleService(
+            FileRepo fileRepo,
+            RunRepo runRepo,
+            ExtractionRepo extractionRepo,
+            BlobRepo blobRepo,
+            BatchRepo batchRepo,
+            StorageService storage,
+            BlobStore blobStore,
+            PackFileStore packs,
+            @Value("${app.storage.localDir}") String localDir,
+            @Value("${app.storage.lifecycle.graceHours:24}") int graceHours,
+            @Value("${app.storage.retention.days:0}") int retentionDays,
+            @Value("${app.storage.pack.coldAfterDays:30}") int coldAfterDays,
+            @Value("${app.storage.pack.maxBlobBytes:262144}") long packMaxBlobBytes,
+            @Value("${app.storage.pack.repackBelowLiveRatio:0.5}") double repackBelowLiveRatio
+    ) {
+        this.fileRepo = fileRepo;
+        this.runRepo = runRepo;
+        this.extractionRepo = extractionRepo;
+        this.blobRepo = blobRepo;
+        this.batchRepo = batchRepo;
+        this.storage = storage;
+        this.blobStore = blobStore;
+        this.packs = packs;
+        this.baseDir = Path.of(localDir);
+        this.grace = Duration.ofHours(graceHours);
+        this.retentionDays = retentionDays;
+        this.coldAfterDays = coldAfterDays;
+        this.packMaxBlobBytes = packMaxBlobBytes;
+        this.repackBelowLiveRatio = repackBelowLiveRatio;
+    }
+
+    @Scheduled(initialDelayString = "${app.storage.lifecycle.initialDelayMs:60000}",
+            fixedDelayString = "${app.storage.lifecycle.intervalMs:3600000}")
+    public void runLifecycle() {
+        runJob("release files", this::releaseFiles);
+        runJob("orphan blobs", this::sweepOrphanBlobs);
+        runJob("stray objects", this::sweepStrayObjects);
+        runJob("pack compaction", this::compactColdBlobs);
+        runJob("repack", this::repackSparsePacks);
+        runJob("empty batches", () -> batchRepo.deleteEmptyCreatedBefore(Instant.now().minus(grace)));
+    }
+
+    /**
+     * Deletes files (with their runs) that are no longer needed: every run was
+     * cancelled, or completed and its extraction was deleted, no run is left at all, or the file outlived
+     * the retention period. Their blob references are released.
+     */
+    int releaseFiles() throws Exception {
+        Instant now = Instant.now();
+        Instant graceCutoff = now.minus(grace);
+        Instant retentionCutoff = retentionDays > 0 ? now.minus(Duration.ofDays(retentionDays)) : null;
+
+        int released = 0;
+        Instant after = Instant.EPOCH;
+        List<FileEntity> batch;
+        while (!(batch = fileRepo.findTop500ByCreatedAtGreaterThanAndCreatedAtLessThanOrderByCreatedAt(after, graceCutoff)).isEmpty()) {
+            for (FileEntity file : batch) {
+                List<RunEntity> runs = runRepo.findByFileId(file.getFileId());
+                boolean expired = retentionCutoff != null && file.getCreatedAt().isBefore(retentionCutoff)
+                        && runs.stream().allMatch(r -> isTerminal(r.getStatus()));
+                if (expired || isSpent(runs)) {
+                    for (RunEntity run : runs) {
+                        extractionRepo.deleteByRunId(run.getRunId());
+                        runRepo.delete(run);
+                    }
+                    fileRepo.delete(file);
+                    storage.release(file);
+                    released++;
+                }
+            }
+            after = batch.get(batch.size() - 1).getCreatedAt();
+        }
+        return released;
+    }
+
+    private boolean isSpent(List<RunEntity> runs) {
+        if (runs.isEmpty()) return true;
+        for (RunEntity run : runs) {
+            if (run.getStatus() == RunStatus.CANCELLED) continue;    // nothing to keep
+            if (run.getStatus() != RunStatus.COMPLETED) return false;
+            if (extractionRepo.existsByRunId(run.getRunId())) return false;
+        }
+        return true;
+    }
+
+    private static boolean isTerminal(RunStatus status) {
+        return status == RunStatus.COMPLETED || status == RunStatus.FAILED || status == RunStatus.CANCELLED;
+    }
+
+    int sweepOrphanBlobs() throws Exception {
+        Instant cutoff = Instant.now().minus(grace);
+        int deleted = 0;
+        List<BlobEntity> batch;
+        while (!(batch = blobRepo.findByRefCountLessThanEqualAndLastReferencedAtBefore(0, cutoff, PageRequest.of(0, BATCH))).isEmpty()) {
+            int before = deleted;
+            for (BlobEntity blob : batch) {
+                if (storage.deleteBlob(blob, cutoff)) deleted++;
+            }
+            if (deleted == before) break;
+        }
+        return deleted;
+    }
+
+    /**
+     * Objects nothing points at: leftovers from upload races, pre-dedup uploads whose
+     * rows are gone, abandoned staging files and stale unpacked copies. Unpacked and
+     * normalised copies have their mtime refreshed on every use, so only idle ones age out.
+     */
+    int sweepStrayObjects() throws Exception {
+        Instant cutoff = Instant.now().minus(grace);
+        int deleted = 0;
+
+        for (String uri : blobStore.listOlderThan(cutoff)) {
+            if (!blobRepo.existsByStorageUri(uri) && !fileRepo.existsByStorageUri(uri)) {
+                blobStore.delete(uri);
+                deleted++;
+            }
+        }
+
+        try (var legacy = Files.list(baseDir)) {
+            for (Path p : legacy.filter(Files::isRegularFile).toList()) {
+                if (p.getFileName().toString().matches("[0-9a-f-]{36}_.*")
+                        && isOlderThan(p, cutoff)
+                        && !fileRepo.existsByStorageUri(p.toString())) {
+                    Files.deleteIfExists(p);
+                    deleted++;
+                }
+            }
+        }
+
+        for (Path dir : List.of(baseDir.resolve("staging"), baseDir.resolve("normalized"), packs.unpackedDir())) {
+            if (!Files.isDirectory(dir)) continue;
+            try (var files = Files.list(dir)) {
+                for (Path p : files.filter(Files::isRegularFile).toList()) {
+                    if (isOlderThan(p, cutoff)) {
+                        Files.deleteIfExists(p);
+                        deleted++;
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /** Moves small loose blobs that have not been referenced for a while into pack files. */
+    int compactColdBlobs() throws Exception {
+        if (!(blobStore instanceof LocalBlobStore)) return 0;
+        Instant coldCutoff = Instant.now().minus(Duration.ofDays(coldAfterDays));
+        int packed = 0;
+        List<BlobEntity> batch;
+        while (!(batch = blobRepo.findByPackNameIsNullAndSizeLessThanEqualAndLastReferencedAtBefore(
+                packMaxBlobBytes, coldCutoff, PageRequest.of(0, BATCH))).isEmpty()) {
+            int before = packed;
+            for (BlobEntity blob : batch) {
+                if (blob.getRefCount() <= 0 || !storage.isPackable(blob)) continue;
+                Path loose = Path.of(blob.getStorageUri());
+                if (!Files.exists(loose)) continue;
+
+                var placement = packs.append(blob.getDigest(), loose);
+                String packedUri = "pack:" + placement.packName() + "/" + loose.getFileName();
+                if (blobRepo.relocate(blob.getDigest(), blob.getStorageUri(), packedUri,
+                        placement.packName(), placement.offset()) == 1) {
+                    fileRepo.relocate(blob.getDigest(), blob.getStorageUri(), packedUri);
+                    Files.deleteIfExists(loose);
+                    packed++;
+                }
+            }
+            if (packed == before) break;
+        }
+        return packed;
+    }
+
+    /**
+     * Packs are append-only, so deleted entries leave dead space. Sealed packs whose
+     * live share fell below the threshold have their live entries copied into the
+     * open pack and are then removed.
+     */
+    int repackSparsePacks() throws Exception {
+        int reclaimed = 0;
+        for (String pack : packs.sealedPacks()) {
+            long size = packs.size(pack);
+            long live = blobRepo.livePackBytes(pack);
+            if (size > 0 && live >= size * repackBelowLiveRatio) continue;
+
+            for (BlobEntity blob : blobRepo.findByPackName(pack)) {
+                String fileName = blob.getStorageUri().substring(blob.getStorageUri().lastIndexOf('/') + 1);
+                Path copy = packs.extract(pack, blob.getPackOffset(), blob.getSize(), fileName);
+                var placement = packs.append(blob.getDigest(), copy);
+                String packedUri = "pack:" + placement.packName() + "/" + fileName;
+                if (blobRepo.relocate(blob.getDigest(), blob.getStorageUri(), packedUri,
+                        placement.packName(), placement.offset()) == 1) {
+                    fileRepo.relocate(blob.getDigest(), blob.getStorageUri(), packedUri);
+                }
+            }
+            if (blobRepo.findByPackName(pack).isEmpty()) {
+                packs.deletePack(pack);
+                reclaimed++;
+            }
+        }
+        return reclaimed;
+    }
+
+    private static boolean isOlderThan(Path p, Instant cutoff) {
+        try {
+            return Files.getLastModifiedTime(p).toInstant().isBefore(cutoff);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void runJob(String name, Job job) {
+        long t0 = System.currentTimeMillis();
+        try {
+            int n = job.run();
+            if (n > 0) {
+                System.out.println("[LIFECYCLE] " + name + ": " + n + " item(s) in " + (System.currentTimeMillis() - t0) + " ms");
+            }
+        } catch (Exception e) {
+            System.err.println("[LIFECYCLE] " + name + " failed: " + e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Job {
+        int run() throws Exception;
+    }
+}
@@ -1,22 +1,232 @@
 package com.task.hwai.service;
 
+import com.task.hwai.entity.BlobEntity;
+import com.task.hwai.entity.FileEntity;
+import com.task.hwai.repo.BlobRepo;
+import com.task.hwai.repo.FileRepo;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.multipart.MultipartFile;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Locale;
 
+/**
+ * Content-addressed upload store. Every upload is hashed (SHA-256) and size-checked
+ * while it is streamed through a channel into a local staging file; the first upload
+ * of a digest is handed to the configured {@link BlobStore} under
+ * {@code blobs/<2 hex>/<digest>-<generation>.<ext>}, later uploads of the same bytes
+ * only bump the blob's reference count and the staging copy is dropped. Every write
+ * gets a fresh generation, so an object the sweeper is deleting for a dropped row is
+ * never one a newer row points at.
+ */
 @Service
 public class StorageService {
-    private final Path baseDir;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final SecureRandom GENERATIONS = new SecureRandom();
+
+    private final Path stagingDir;
+    private final BlobRepo blobRepo;
+    private final BlobStore blobStore;
+    private final PackFileStore packs;
+    private final FileRepo fileRepo;
+    private final long maxUploadBytes;
+
+    public record StoredBlob(String digest, String storageUri, long size, boolean deduplicated) {}
+
+    public StorageService(
+            @Value("${app.storage.localDir}") String dir,
+            @Value("${app.storage.maxUploadBytes:209715200}") long maxUploadBytes,
+            BlobRepo blobRepo,
+            BlobStore blobStore,
+            PackFileStore packs,
+            FileRepo fileRepo
+    ) {
+        this.maxUploadBytes = maxUploadBytes;
+        this.stagingDir = Path.of(dir).resolve("staging");
+        this.blobRepo = blobRepo;
+        this.blobStore = blobStore;
+        this.packs = packs;
+        this.fileRepo = fileRepo;
+        try { Files.createDirectories(stagingDir); } catch (Exception ignored) {}
+    }
+
+    public StoredBlob save(MultipartFile file, String fileId) throws Exception {
+        try (InputStream in = file.getInputStream()) {
+            return save(in, fileId, file.getOriginalFilename());
+        }
+    }
+
+    public StoredBlob save(InputStream in, String fileId, String originalName) throws Exception {
+        Path staging = stagingDir.resolve(fileId + ".part");
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        long size = 0;
+        try (ReadableByteChannel src = Channels.newChannel(in);
+             FileChannel dst = FileChannel.open(staging,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            while (src.read(buf) != -1) {
+                buf.flip();
+                size += buf.remaining();
+                if (size > maxUploadBytes) throw new MaxUploadSizeExceededException(maxUploadBytes);
+                md.update(buf.array(), buf.arrayOffset(), buf.remaining());
+                while (buf.hasRemaining()) dst.write(buf);
+                buf.clear();
+            }
+        } catch (Exception e) {
+            Files.deleteIfExists(staging);
+            throw e;
+        }
+        return commit(staging, HexFormat.of().formatHex(md.digest()), size, originalName);
+    }
+
+    /**
+     * Hands a fully written, already hashed staging file to the blob store, or
+     * drops it if a blob with the same digest exists, and takes a reference.
+     */
+    StoredBlob commit(Path staging, String digest, long size, String originalName) throws Exception {
+        var existing = blobRepo.findById(digest).orElse(null);
+        boolean retained = false;
+        // Only a reference taken on the row itself counts: once it is held the sweeper's
+        // conditional delete can no longer succeed. If the row went in between, the
+        // sweeper may be deleting its object right now, so never point a new row at it.
+        if (existing != null && isReadable(existing) && blobRepo.incrementRefCount(digest, Instant.now()) == 1) {
+            retained = true;
+            BlobEntity held = blobRepo.findById(digest).orElseThrow();
+            if (isReadable(held)) {
+                Files.deleteIfExists(staging);
+                return new StoredBlob(digest, held.getStorageUri(), size, true);
+            }
+        }
+
+        String uri = blobStore.put(blobKey(digest, originalName), staging);
+
+        BlobEntity blob = retained ? blobRepo.findById(digest).orElseThrow() : retain(digest, size, uri);
+        if (!blob.getStorageUri().equals(uri)) {
+            // A concurrent upload of the same bytes registered first (or an old blob
+            // lost its object and was re-pointed); keep the registered copy only.
+            if (isReadable(blob)) {
+                blobStore.delete(uri);
+                return new StoredBlob(digest, blob.getStorageUri(), size, true);
+            }
+            // Only the location changes; saving the row would write back a stale reference count.
+            if (blobRepo.relocate(digest, blob.getStorageUri(), uri, null, null) == 0) {
+                blobStore.delete(uri);    // re-pointed by a concurrent upload first
+                return new StoredBlob(digest, blobRepo.findById(digest).orElseThrow().getStorageUri(), size, true);
+            }
+        }
+        return new StoredBlob(digest, uri, size, false);
+    }
+
+    /**
+     * Local file for an uploaded file, e.g. for OCR. Goes through the blob row when
+     * there is one, since cold blobs may have been moved into a pack file since upload;
+     * {@code FileEntity.storageUri} follows such moves but is only a fallback here.
+     */
+    public Path resolve(FileEntity file) throws Exception {
+        if (file.getContentDigest() == null) return resolve(file.getStorageUri());
+        for (int attempt = 0; ; attempt++) {
+            var blob = blobRepo.findById(file.getContentDigest()).orElse(null);
+            if (blob == null) return resolve(file.getStorageUri());
+            try {
+                return resolve(blob);
+            } catch (NoSuchFileException movedWhileReading) {
+                // Repacked between the lookup and the read; the row points at the new place now.
+                if (attempt > 0) throw movedWhileReading;
+            }
+        }
+    }
+
+    /**
+     * Local file for a stored object. Plain paths (including rows from before blobs
+     * were pluggable) are returned as-is.
+     */
+    public Path resolve(String storageUri) throws Exception {
+        if (blobStore.owns(storageUri)) return blobStore.localPath(storageUri);
+        return Path.of(storageUri);
+    }
+
+    Path resolve(BlobEntity blob) throws Exception {
+        if (blob.getPackName() != null) {
+            String uri = blob.getStorageUri();
+            return packs.extract(blob.getPackName(), blob.getPackOffset(), blob.getSize(),
+                    uri.substring(uri.lastIndexOf('/') + 1));
+        }
+        return resolve(blob.getStorageUri());
+    }
+
+    /** Drops the reference a deleted {@link FileEntity} held; the bytes go once the sweeper sees no references. */
+    public void release(FileEntity file) throws Exception {
+        if (file.getContentDigest() != null) {
+            blobRepo.decrementRefCount(file.getContentDigest(), Instant.now());
+        } else if (file.getStorageUri() != null && !fileRepo.existsByStorageUri(file.getStorageUri())) {
+            // Uploads from before deduplication own their file outright.
+            Files.deleteIfExists(resolve(file.getStorageUri()));
+        }
+    }
+
+    /**
+     * Deletes an unreferenced blob unless it was referenced again after {@code cutoff}.
+     * The object goes after the row; a commit racing in between writes a new generation.
+     */
+    public boolean deleteBlob(BlobEntity blob, Instant cutoff) throws Exception {
+        if (blobRepo.deleteIfUnreferenced(blob.getDigest(), cutoff) == 0) return false;
+        // Packed bytes become dead space in their pack and are reclaimed by repacking.
+        if (blob.getPackName() == null) blobStore.delete(blob.getStorageUri());
+        return true;
+    }
+
+    /** Whether a blob's bytes live on this node's disk and may be moved into pack files. */
+    public boolean isPackable(BlobEntity blob) {
+        return blobStore instanceof LocalBlobStore && blobStore.owns(blob.getStorageUri());
+    }
+
+    private boolean isReadable(BlobEntity blob) throws Exception {
+        return blob.getPackName() != null || blobStore.exists(blob.getStorageUri());
+    }
+
+    // A first upload inserts the row; when two race, the loser's insert conflicts on the
+    // digest and it takes a reference on the winner's row instead.
+    private BlobEntity retain(String digest, long size, String storageUri) {
+        if (blobRepo.incrementRefCount(digest, Instant.now()) == 0) {
+            BlobEntity blob = new BlobEntity();
+            blob.setDigest(digest);
+            blob.setSize(size);
+            blob.setStorageUri(storageUri);
+            blob.setRefCount(1);
+            try {
+                return blobRepo.saveAndFlush(blob);
+            } catch (DataIntegrityViolationException race) {
+                blobRepo.incrementRefCount(digest, Instant.now());
+            }
+        }
+        return blobRepo.findById(digest).orElseThrow();
+    }
 
-    public StorageService(@Value("${app.storage.localDir}") String dir) {
-        this.baseDir = Path.of(dir);
-        try { Files.createDirectories(baseDir); } catch (Exception ignored) {}
+    private static String blobKey(String digest, String originalName) {
+        byte[] generation = new byte[4];
+        GENERATIONS.nextBytes(generation);
+        return digest.substring(0, 2) + "/" + digest + "-" + HexFormat.of().formatHex(generation) + extensionOf(originalName);
     }
 
-    public Path save(MultipartFile file, String fileId) throws Exception {
-        Path p = baseDir.resolve(fileId + "_" + file.getOriginalFilename());
-        Files.copy(file.getInputStream(), p, StandardCopyOption.REPLACE_EXISTING);
-        return p;
+    // The OCR service validates uploads by file extension, so blobs keep the one
+    // the first upload of their content arrived with.
+    static String extensionOf(String name) {
+        if (name == null) return "";
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || dot == name.length() - 1) return "";
+        String ext = name.substring(dot).toLowerCase(Locale.ROOT);
+        return ext.matches("\\.[a-z0-9]{1,8}") ? ext : "";
     }
 }
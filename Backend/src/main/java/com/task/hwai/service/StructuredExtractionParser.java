@@ -8,6 +8,7 @@ import dev.langchain4j.data.message.SystemMessage;
 import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.Tracer;
 import org.springframework.stereotype.Service;
@@ -22,10 +23,12 @@ public class StructuredExtractionParser {
     private final ChatModel chatModel;
     private final Tracer tracer;
     private final ObjectMapper om = new ObjectMapper();
+    private final LlmResponseCache llmCache;
 
-    public StructuredExtractionParser(ChatModel chatModel, Tracer tracer) {
+    public StructuredExtractionParser(ChatModel chatModel, Tracer tracer, LlmResponseCache llmCache) {
         this.chatModel = chatModel;
         this.tracer = tracer;
+        this.llmCache = llmCache;
     }
 
     public ExtractionResult parseStructuredExtraction(
@@ -79,6 +82,12 @@ public class StructuredExtractionParser {
     ) throws Exception {
 
         String systemPrompt = buildStructuredExtractionPrompt(documentType);
+        LlmResponseCache.Key cacheKey = llmCache.key("structured", modelName(), systemPrompt, ocrText);
+        String cached = llmCache.get(cacheKey);
+        if (cached != null) {
+            System.out.println("[LLM] Reusing the cached structured answer for run " + runId);
+            return cached;
+        }
 
         List<ChatMessage> messages = Arrays.asList(
                 new SystemMessage(systemPrompt),
@@ -101,6 +110,12 @@ public class StructuredExtractionParser {
 
             ChatResponse response = chatModel.chat(messages);
             String content = response.aiMessage().text();
+            boolean truncated = response.finishReason() == FinishReason.LENGTH;
+            if (truncated) {
+                // plain text has no page boundaries to split on; the caller gets what came back
+                System.err.println("❌ Structured extraction answer was cut off at its token limit");
+                rootSpan.setAttribute("llm.truncated", true);
+            }
 
             // Set Langfuse trace output
             String outputForLangfuse = content.length() > 10000 ? content.substring(0, 10000) + "... (truncated)" : content;
@@ -120,6 +135,12 @@ public class StructuredExtractionParser {
                 content = content.substring(start, end + 1);
             }
 
+            try {
+                om.readTree(content);    // only complete answers that parse are worth reusing
+                if (!truncated) llmCache.put(cacheKey, content);
+            } catch (Exception notJson) {
+                // left to the caller to report
+            }
             return content;
         } catch (Exception ex) {
             rootSpan.setAttribute("error", true);
@@ -131,6 +152,12 @@ public class StructuredExtractionParser {
         }
     }
 
+    // as configured in LangchainConfig
+    private static String modelName() {
+        String model = System.getenv("OPENAI_MODEL");
+        return model == null || model.isBlank() ? "gpt-4o" : model;
+    }
+
     private String buildStructuredExtractionPrompt(String documentType) {
         return String.format("""
                 You are a document structure expert specializing in %s documents.
@@ -0,0 +1,144 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.ExtractionResult;
+import com.task.hwai.model.FormTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OCR for pages of a registered form ({@link FormTemplateRegistry}). A matching page
+ * is cut into its field regions, each OCR'd on its own (through the cached
+ * {@link OcrTool}, all at once), and the text of each becomes the field of that name,
+ * so the page needs neither full-page OCR nor the LLM. Single images only; PDFs and
+ * pages matching no template take the normal path.
+ */
+@Service
+public class TemplateExtractor {
+
+    private final FormTemplateRegistry registry;
+    private final ImageNormalizer normalizer;
+    private final OcrTool ocr;
+    private final boolean enabled;
+    private final double padding;
+
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+    private final AtomicLong pagePixels = new AtomicLong();
+    private final AtomicLong regionPixels = new AtomicLong();
+
+    public TemplateExtractor(
+            FormTemplateRegistry registry,
+            ImageNormalizer normalizer,
+            OcrTool ocr,
+            @Value("${ocr.templates.enabled:true}") boolean enabled,
+            @Value("${ocr.templates.regionPadding:0.01}") double padding
+    ) {
+        this.registry = registry;
+        this.normalizer = normalizer;
+        this.ocr = ocr;
+        this.enabled = enabled;
+        this.padding = padding;
+    }
+
+    /** A page read through its template; {@code template} doubles as the document type. */
+    public record Result(String template, ExtractionResult.Page page) {}
+
+    /** The fields of {@code image} when it matches a template, otherwise null. */
+    public Result extract(Path image) throws Exception {
+        if (!enabled || registry.isEmpty() || image.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf")) {
+            return null;
+        }
+        BufferedImage page = ImageIO.read(normalizer.normalize(image).toFile());
+        if (page == null) return null;
+        FormTemplateRegistry.Match match = registry.match(page);
+        if (match == null) {
+            unmatched.incrementAndGet();
+            return null;
+        }
+        FormTemplate template = match.template();
+        System.out.println("[OCR] " + image.getFileName() + " matches form template " + template.name()
+                + " (distance " + match.distance() + "), reading " + template.fields().size() + " region(s)");
+
+        List<Path> crops = new ArrayList<>();
+        try {
+            List<CompletableFuture<List<OcrTool.PageResult>>> results = new ArrayList<>();
+            long pixels = 0;
+            for (FormTemplate.Region region : template.fields()) {
+                BufferedImage crop = crop(page, region);
+                pixels += (long) crop.getWidth() * crop.getHeight();
+                Path file = Files.createTempFile("region-", ".png");
+                crops.add(file);
+                ImageIO.write(crop, "png", file.toFile());
+                results.add(ocr.extractAsync(file));
+            }
+
+            Map<String, Object> fields = new LinkedHashMap<>();
+            try {
+                for (int i = 0; i < results.size(); i++) {
+                    fields.put(template.fields().get(i).name(), text(OcrTool.await(results.get(i))));
+                }
+            } catch (Exception e) {
+                // the page fails as a whole; the other regions' calls are of no use any more
+                for (CompletableFuture<?> result : results) result.cancel(true);
+                throw e;
+            }
+            matched.incrementAndGet();
+            pagePixels.addAndGet((long) page.getWidth() * page.getHeight());
+            regionPixels.addAndGet(pixels);
+            return new Result(template.name(), new ExtractionResult.Page(1, fields, List.of()));
+        } finally {
+            for (Path crop : crops) Files.deleteIfExists(crop);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled);
+        out.put("templates", registry.list().size());
+        out.put("pagesMatched", matched.get());
+        out.put("pagesUnmatched", unmatched.get());
+        long page = pagePixels.get();
+        out.put("regionPixelShare", page == 0 ? 0.0 : (double) regionPixels.get() / page);
+        return out;
+    }
+
+    // The region in pixels, widened by the padding on each side so handwriting over the box edge is kept.
+    BufferedImage crop(BufferedImage page, FormTemplate.Region r) {
+        int w = page.getWidth();
+        int h = page.getHeight();
+        int x0 = clamp((int) Math.floor((r.x() - padding) * w), w - 1);
+        int y0 = clamp((int) Math.floor((r.y() - padding) * h), h - 1);
+        int x1 = clamp((int) Math.ceil((r.x() + r.width() + padding) * w), w);
+        int y1 = clamp((int) Math.ceil((r.y() + r.height() + padding) * h), h);
+        return page.getSubimage(x0, y0, Math.max(1, x1 - x0), Math.max(1, y1 - y0));
+    }
+
+    private static int clamp(int v, int max) {
+        return Math.max(0, Math.min(max, v));
+    }
+
+    // The remote engine answers a crop with an object of fields it names itself, which the parser turns
+    // into "key: value" tokens; only the values belong to the region's field.
+    private static String text(List<OcrTool.PageResult> pages) {
+        StringBuilder sb = new StringBuilder();
+        for (OcrTool.PageResult p : pages) {
+            for (int i = 0; i < p.tokenCount(); i++) {
+                String t = p.text(i).trim();
+                String key = p.key(i);
+                if (key != null && t.startsWith(key + ":")) t = t.substring(key.length() + 1).trim();
+                if (t.isEmpty()) continue;
+                if (!sb.isEmpty()) sb.append(' ');
+                sb.append(t);
+            }
+        }
+        return sb.toString();
+    }
+}
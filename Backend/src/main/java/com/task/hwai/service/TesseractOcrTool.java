@@ -0,0 +1,228 @@
+package com.task.hwai.service;
+
+import com.sun.jna.Pointer;
+import jakarta.annotation.PreDestroy;
+import net.sourceforge.tess4j.ITessAPI;
+import net.sourceforge.tess4j.TessAPI1;
+import net.sourceforge.tess4j.util.ImageIOHelper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OCR inside the JVM with Tesseract (through tess4j's native API). Loading a
+ * language model takes far longer than recognising a form, so initialised engines
+ * are pooled and reused, one per core by default ({@code ocr.tesseract.poolSize}).
+ * Every recognised word becomes a token with Tesseract's word confidence scaled to
+ * 0..1 and its bounding box. Multi-page TIFFs yield one page each; PDFs arrive
+ * already split into page images by {@link PdfPageSplitter}.
+ */
+@Service
+public class TesseractOcrTool implements OcrTool {
+
+    private final String dataPath;
+    private final String language;
+    private final int pageSegMode;
+    private final int poolSize;
+    private final BlockingQueue<Engine> idle;
+    private final AtomicInteger created = new AtomicInteger();
+    private volatile String nativeVersion;
+
+    public TesseractOcrTool(
+            @Value("${ocr.tesseract.datapath:/usr/share/tesseract-ocr/5/tessdata}") String dataPath,
+            @Value("${ocr.tesseract.language:eng}") String language,
+            @Value("${ocr.tesseract.pageSegMode:3}") int pageSegMode,
+            @Value("${ocr.tesseract.poolSize:0}") int poolSize
+    ) {
+        this.dataPath = dataPath;
+        this.language = language;
+        this.pageSegMode = pageSegMode;
+        this.poolSize = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        this.idle = new ArrayBlockingQueue<>(this.poolSize);
+    }
+
+    /** Whether the language data is installed; the native library itself is only loaded on first use. */
+    public boolean isAvailable() {
+        for (String lang : language.split("\\+")) {
+            if (!Files.isRegularFile(Path.of(dataPath, lang + ".traineddata"))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public List<PageResult> extract(Path path) throws Exception {
+        if (!Files.exists(path)) throw new IllegalArgumentException("File not found: " + path);
+        if (!isAvailable()) {
+            throw new IllegalStateException("Tesseract language data '" + language + "' not found in " + dataPath);
+        }
+        RunContext ctx = RunContext.current();
+
+        List<BufferedImage> images = loadPages(path);
+        List<PageResult> pages = new ArrayList<>();
+        Engine engine = acquire(ctx);
+        try {
+            for (BufferedImage image : images) {
+                if (ctx != null) ctx.checkActive();
+                pages.add(engine.recognize(image).build(pages.size() + 1, List.of()));
+            }
+            release(engine);
+        } catch (RunContext.AbortedException e) {
+            release(engine);    // checked between pages, the engine is idle
+            throw e;
+        } catch (RuntimeException | Error e) {
+            discard(engine);
+            throw e;
+        }
+        return pages;
+    }
+
+    @Override
+    public String version() {
+        if (nativeVersion == null) {
+            try {
+                nativeVersion = TessAPI1.TessVersion();
+            } catch (Throwable e) {    // native library missing
+                return "tesseract-unknown-" + language + "-psm" + pageSegMode;
+            }
+        }
+        return "tesseract-" + nativeVersion + "-" + language + "-psm" + pageSegMode;
+    }
+
+    public int poolSize() {
+        return poolSize;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Engine engine;
+        while ((engine = idle.poll()) != null) engine.close();
+    }
+
+    private Engine acquire(RunContext ctx) throws InterruptedException {
+        Engine engine = idle.poll();
+        if (engine != null) return engine;
+        if (created.incrementAndGet() <= poolSize) {
+            try {
+                return new Engine();
+            } catch (RuntimeException e) {
+                created.decrementAndGet();
+                throw e;
+            }
+        }
+        created.decrementAndGet();
+        // Recognition can't be interrupted, so a run waits at most its remaining time for an engine.
+        Duration wait = ctx != null ? ctx.remaining() : Duration.ofMinutes(1);
+        engine = idle.poll(wait.toMillis(), TimeUnit.MILLISECONDS);
+        if (engine == null) throw new IllegalStateException("No Tesseract engine free within " + wait.toSeconds() + "s");
+        return engine;
+    }
+
+    private void release(Engine engine) {
+        TessAPI1.TessBaseAPIClear(engine.handle);
+        if (!idle.offer(engine)) discard(engine);
+    }
+
+    private void discard(Engine engine) {
+        engine.close();
+        created.decrementAndGet();
+    }
+
+    private List<BufferedImage> loadPages(Path path) throws Exception {
+        List<BufferedImage> images = new ArrayList<>();
+        try (var in = ImageIO.createImageInputStream(path.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IllegalArgumentException("Unsupported image format: " + path.getFileName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                int count = reader.getNumImages(true);
+                for (int i = 0; i < count; i++) images.add(reader.read(i));
+            } finally {
+                reader.dispose();
+            }
+        }
+        return images;
+    }
+
+    // Tesseract reads raw 8-bit pixels; grayscale avoids guessing channel order.
+    private static BufferedImage toGray(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) return image;
+        BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        var g = gray.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, java.awt.Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return gray;
+    }
+
+    /** One initialised native engine; used by one thread at a time. */
+    private final class Engine {
+        final ITessAPI.TessBaseAPI handle = TessAPI1.TessBaseAPICreate();
+
+        Engine() {
+            if (TessAPI1.TessBaseAPIInit3(handle, dataPath, language) != 0) {
+                TessAPI1.TessBaseAPIDelete(handle);
+                throw new IllegalStateException("Could not initialise Tesseract with '" + language + "' from " + dataPath);
+            }
+            TessAPI1.TessBaseAPISetPageSegMode(handle, pageSegMode);
+        }
+
+        PageResult.Builder recognize(BufferedImage image) {
+            BufferedImage gray = toGray(image);
+            ByteBuffer pixels = ImageIOHelper.convertImageData(gray);
+            TessAPI1.TessBaseAPISetImage(handle, pixels, gray.getWidth(), gray.getHeight(), 1, gray.getWidth());
+            if (TessAPI1.TessBaseAPIRecognize(handle, null) != 0) {
+                throw new IllegalStateException("Tesseract failed to recognise the page");
+            }
+
+            PageResult.Builder words = PageResult.builder();
+            ITessAPI.TessResultIterator it = TessAPI1.TessBaseAPIGetIterator(handle);
+            if (it == null) return words;    // nothing recognised on this page
+            try {
+                ITessAPI.TessPageIterator page = TessAPI1.TessResultIteratorGetPageIterator(it);
+                int level = ITessAPI.TessPageIteratorLevel.RIL_WORD;
+                IntBuffer left = IntBuffer.allocate(1), top = IntBuffer.allocate(1);
+                IntBuffer right = IntBuffer.allocate(1), bottom = IntBuffer.allocate(1);
+                do {
+                    Pointer text = TessAPI1.TessResultIteratorGetUTF8Text(it, level);
+                    if (text == null) continue;
+                    String word = text.getString(0, "UTF-8").trim();
+                    TessAPI1.TessDeleteText(text);
+                    if (!word.isEmpty()) {
+                        words.add(null, word, TessAPI1.TessResultIteratorConfidence(it, level) / 100f);
+                        if (TessAPI1.TessPageIteratorBoundingBox(page, level, left, top, right, bottom) == ITessAPI.TRUE) {
+                            words.box(left.get(0), top.get(0), right.get(0) - left.get(0), bottom.get(0) - top.get(0));
+                        }
+                    }
+                } while (TessAPI1.TessPageIteratorNext(page, level) == ITessAPI.TRUE);
+            } finally {
+                TessAPI1.TessResultIteratorDelete(it);
+            }
+            return words;
+        }
+
+        void close() {
+            TessAPI1.TessBaseAPIEnd(handle);
+            TessAPI1.TessBaseAPIDelete(handle);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.task.hwai.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * Identity this instance uses as lease owner on runs. Pin it with
+ * {@code app.runs.nodeId} (e.g. the pod name) so a restarted node can hand back its
+ * own leases immediately instead of waiting for them to expire.
+ */
+@Component
+public class WorkerNode {
+
+    private final String id;
+
+    public WorkerNode(@Value("${app.runs.nodeId:}") String configured) {
+        this.id = configured.isBlank() ? hostname() + "-" + UUID.randomUUID().toString().substring(0, 8) : configured;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    private static String hostname() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "node";
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.task.hwai.controller;
+
+import com.task.hwai.entity.BatchEntity;
+import com.task.hwai.entity.RunEntity;
+import com.task.hwai.model.BatchState;
+import com.task.hwai.model.RunStatus;
+import com.task.hwai.repo.BatchRepo;
+import com.task.hwai.repo.ExtractionRepo;
+import com.task.hwai.repo.FileRepo;
+import com.task.hwai.repo.RunRepo;
+import com.task.hwai.service.AdmissionService;
+import com.task.hwai.service.RunQueueService;
+import com.task.hwai.service.RunSubmissionService;
+import com.task.hwai.service.StorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BatchControllerTest {
+
+    @Mock
+    private StorageService storage;
+
+    @Mock
+    private BatchRepo batchRepo;
+
+    @Mock
+    private RunRepo runRepo;
+
+    @Mock
+    private FileRepo fileRepo;
+
+    @Mock
+    private ExtractionRepo extractionRepo;
+
+    @Mock
+    private RunQueueService runQueue;
+
+    private AdmissionService admission;
+
+    @BeforeEach
+    public void setUp() {
+        admission = new AdmissionService(runRepo, 8, 8, 1000, 60_000, 300);
+    }
+
+    @Test
+    public void testBrokenZipCancelsTheRunsItAlreadyRegistered() throws Exception {
+        var submissions = new RunSubmissionService(fileRepo, runRepo, runQueue, "");
+        var controller = new BatchController(storage, submissions, batchRepo, runRepo, fileRepo, extractionRepo, admission, 100, 1 << 20, 100);
+        when(storage.save(any(InputStream.class), anyString(), anyString()))
+                .thenReturn(new StorageService.StoredBlob("d", "local://d", 3, false));
+        List<BatchState> saved = new ArrayList<>();
+        when(batchRepo.save(any())).thenAnswer(inv -> {
+            saved.add(inv.<BatchEntity>getArgument(0).getState());
+            return inv.getArgument(0);
+        });
+
+        // the first form is complete, the body breaks off inside the second
+        var zipped = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(zipped)) {
+            zip.putNextEntry(new ZipEntry("a.png"));
+            zip.write(new byte[]{1, 2, 3});
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("b.png"));
+            zip.write(new byte[4096]);
+            zip.closeEntry();
+        }
+        byte[] body = zipped.toByteArray();
+        var request = new MockHttpServletRequest("POST", "/v1/batches");
+        request.setContentType("application/zip");
+        request.setContent(Arrays.copyOf(body, body.length - 200));
+
+        assertThrows(Exception.class, () -> controller.createBatch(request, "scans", null, null, null, null));
+
+        InOrder order = inOrder(batchRepo, runRepo);
+        order.verify(batchRepo).save(any(BatchEntity.class));
+        order.verify(runRepo).save(any(RunEntity.class));
+        order.verify(runRepo).cancel(any(), any(), startsWith("Batch upload failed"));
+        assertEquals(List.of(BatchState.INGESTING, BatchState.FAILED), saved);
+        verify(runQueue, never()).nudge();
+    }
+
+    @Test
+    public void testZipExpandingPastTheByteLimitIsAbandonedWith413() throws Exception {
+        var submissions = new RunSubmissionService(fileRepo, runRepo, runQueue, "");
+        var controller = new BatchController(storage, submissions, batchRepo, runRepo, fileRepo, extractionRepo, admission, 100, 10, 100);
+        when(storage.save(any(InputStream.class), anyString(), anyString())).thenAnswer(inv -> {
+            long size = inv.<InputStream>getArgument(0).readAllBytes().length;
+            return new StorageService.StoredBlob("d" + size, "local://d", size, false);
+        });
+        List<BatchState> saved = new ArrayList<>();
+        when(batchRepo.save(any())).thenAnswer(inv -> {
+            saved.add(inv.<BatchEntity>getArgument(0).getState());
+            return inv.getArgument(0);
+        });
+
+        var zipped = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(zipped)) {
+            zip.putNextEntry(new ZipEntry("a.png"));
+            zip.write(new byte[8]);
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("bomb.png"));
+            zip.write(new byte[1 << 20]);
+            zip.closeEntry();
+        }
+        var request = new MockHttpServletRequest("POST", "/v1/batches");
+        request.setContentType("application/zip");
+        request.setContent(zipped.toByteArray());
+
+        var response = controller.createBatch(request, "scans", null, null, null, null);
+
+        assertEquals(413, response.getStatusCode().value());
+        // the second file was cut off one byte past the limit rather than stored whole
+        verify(runRepo, times(2)).cancel(any(), any(), startsWith("Batch upload failed"));
+        assertEquals(List.of(BatchState.INGESTING, BatchState.FAILED), saved);
+        verify(runQueue, never()).nudge();
+    }
+
+    @Test
+    public void testRunsPastTheQueueLimitAreSkippedWithRetryAfter() throws Exception {
+        admission = new AdmissionService(runRepo, 8, 8, 3, 60_000, 300);
+        when(runRepo.countByStatus(RunStatus.QUEUED)).thenReturn(1L);
+        var submissions = new RunSubmissionService(fileRepo, runRepo, runQueue, "");
+        var controller = new BatchController(storage, submissions, batchRepo, runRepo, fileRepo, extractionRepo, admission, 100, 1 << 20, 100);
+        when(storage.save(any(InputStream.class), anyString(), anyString()))
+                .thenReturn(new StorageService.StoredBlob("d", "local://d", 3, false));
+
+        var zipped = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(zipped)) {
+            for (int i = 0; i < 5; i++) {
+                zip.putNextEntry(new ZipEntry("scan" + i + ".png"));
+                zip.write(new byte[]{1, 2, 3});
+                zip.closeEntry();
+            }
+        }
+        var request = new MockHttpServletRequest("POST", "/v1/batches");
+        request.setContentType("application/zip");
+        request.setContent(zipped.toByteArray());
+
+        var response = controller.createBatch(request, "scans", null, null, null, null);
+
+        // one run was already queued, so only two of the five fit under the limit of three
+        assertEquals(200, response.getStatusCode().value());
+        var body = (BatchController.BatchResponse) response.getBody();
+        assertEquals(2, body.fileCount());
+        assertEquals(3, body.skipped().size());
+        assertTrue(body.skipped().get(0).reason().startsWith("Run queue is full"));
+        assertEquals("300", response.getHeaders().getFirst("Retry-After"));
+        verify(runRepo, times(2)).save(any(RunEntity.class));
+        assertNotNull(admission.queueFull());
+    }
+}
@@ -0,0 +1,96 @@
+package com.task.hwai.repo;
+
+import com.task.hwai.service.LocalBlobStore;
+import com.task.hwai.service.PackFileStore;
+import com.task.hwai.service.StorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Reference counting of blobs against the configured database, with real commits. */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BlobRepoTest {
+
+    @Autowired
+    private BlobRepo blobRepo;
+
+    @Autowired
+    private FileRepo fileRepo;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void clear() {
+        blobRepo.deleteAll();
+    }
+
+    @Test
+    public void testConcurrentFirstUploadsBothKeepTheirReference() throws Exception {
+        // Both uploads find no row before either inserts; the inserts then go one after the other.
+        var noRowYet = new CyclicBarrier(2);
+        var increments = new AtomicInteger();
+        Object insertOneAtATime = new Object();
+        BlobRepo racing = (BlobRepo) Proxy.newProxyInstance(BlobRepo.class.getClassLoader(), new Class<?>[]{BlobRepo.class},
+                (proxy, method, args) -> {
+                    try {
+                        if (method.getName().equals("saveAndFlush")) {
+                            synchronized (insertOneAtATime) {
+                                return method.invoke(blobRepo, args);
+                            }
+                        }
+                        Object out = method.invoke(blobRepo, args);
+                        if (method.getName().equals("incrementRefCount") && increments.incrementAndGet() <= 2) {
+                            noRowYet.await(10, TimeUnit.SECONDS);
+                        }
+                        return out;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        var store = new LocalBlobStore(tempDir.resolve("blobs"));
+        var storage = new StorageService(tempDir.toString(), 1 << 20, racing, store,
+                new PackFileStore(tempDir.toString(), 1 << 20), fileRepo);
+
+        byte[] scan = "first upload, twice at once".getBytes(StandardCharsets.UTF_8);
+        ExecutorService uploads = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<StorageService.StoredBlob>> saved = List.of(
+                    uploads.submit(() -> storage.save(new ByteArrayInputStream(scan), "f1", "scan.png")),
+                    uploads.submit(() -> storage.save(new ByteArrayInputStream(scan), "f2", "scan.png")));
+            var a = saved.get(0).get(30, TimeUnit.SECONDS);
+            var b = saved.get(1).get(30, TimeUnit.SECONDS);
+
+            var blob = blobRepo.findById(a.digest()).orElseThrow();
+            assertEquals(2, blob.getRefCount());
+            assertEquals(a.storageUri(), b.storageUri());
+            assertEquals(blob.getStorageUri(), a.storageUri());
+            assertNotEquals(a.deduplicated(), b.deduplicated());
+            assertArrayEquals(scan, Files.readAllBytes(storage.resolve(blob.getStorageUri())));
+            try (var objects = Files.walk(tempDir.resolve("blobs"))) {
+                assertEquals(1, objects.filter(Files::isRegularFile).count());
+            }
+        } finally {
+            uploads.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.task.hwai.repo;
+
+import com.task.hwai.entity.RunEntity;
+import com.task.hwai.model.RunPriority;
+import com.task.hwai.model.RunStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the native claim queries against the configured database (H2 in PostgreSQL mode)
+ * rather than an embedded replacement, committing for real so two claimers can race.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class RunRepoTest {
+
+    private static final Duration LEASE = Duration.ofSeconds(60);
+
+    @Autowired
+    private RunRepo runRepo;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void clear() {
+        runRepo.deleteAll();
+    }
+
+    @Test
+    public void testConcurrentClaimersNeverShareARun() throws Exception {
+        Instant queuedAt = Instant.now().minusSeconds(10);
+        for (int i = 0; i < 60; i++) {
+            var run = new RunEntity();
+            run.setTenant("tenant-" + (i % 3));
+            run.setPriority(i % 2 == 0 ? RunPriority.BATCH : RunPriority.INTERACTIVE);
+            run.setQueuedAt(queuedAt.plusMillis(i));
+            runRepo.save(run);
+        }
+
+        var tx = new TransactionTemplate(transactionManager);
+        var start = new CountDownLatch(1);
+        ExecutorService nodes = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<List<UUID>>> claims = new ArrayList<>();
+            for (String owner : List.of("node-a", "node-b")) {
+                claims.add(nodes.submit(() -> {
+                    start.await();
+                    List<UUID> mine = new ArrayList<>();
+                    while (true) {
+                        List<UUID> round = tx.execute(status -> claimRound(owner, 4));
+                        if (round.isEmpty() && runRepo.findClaimableHeads(Instant.now(), 1, 1).isEmpty()) return mine;
+                        mine.addAll(round);
+                    }
+                }));
+            }
+            start.countDown();
+
+            List<UUID> a = claims.get(0).get(30, TimeUnit.SECONDS);
+            List<UUID> b = claims.get(1).get(30, TimeUnit.SECONDS);
+            Set<UUID> all = new HashSet<>(a);
+            all.addAll(b);
+            assertEquals(60, a.size() + b.size(), "every run claimed once");
+            assertEquals(60, all.size(), "no run claimed by both nodes");
+
+            for (RunEntity run : runRepo.findAll()) {
+                assertEquals(RunStatus.PROCESSING, run.getStatus());
+                assertEquals(1, run.getAttempts());
+                assertEquals(a.contains(run.getRunId()) ? "node-a" : "node-b", run.getLeaseOwner());
+            }
+        } finally {
+            nodes.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExpiredLeaseIsReclaimedAndTheOldOwnerLosesIt() {
+        var run = new RunEntity();
+        run.setTenant("acme");
+        runRepo.save(run);
+        UUID id = run.getRunId();
+
+        Instant t0 = Instant.now();
+        assertEquals(1, runRepo.claim(id, "node-a", t0, t0.plus(LEASE)));
+        assertEquals(0, runRepo.claim(id, "node-b", t0.plusSeconds(1), t0.plusSeconds(1).plus(LEASE)));
+
+        // held while the lease is live, claimable again once it lapses
+        Instant during = t0.plusSeconds(30);
+        assertTrue(runRepo.findClaimableHeads(during, 10, 10).isEmpty());
+        Instant after = t0.plus(LEASE).plusSeconds(1);
+        List<Object[]> heads = runRepo.findClaimableHeads(after, 10, 10);
+        assertEquals(1, heads.size());
+        assertEquals(id.toString(), heads.get(0)[0]);
+        assertEquals(List.of(id.toString()),
+                new TransactionTemplate(transactionManager).execute(s -> runRepo.lockClaimable(after, List.of(id))));
+
+        assertEquals(1, runRepo.claim(id, "node-b", after, after.plus(LEASE)));
+        // the node that lost the lease can neither renew it nor record an outcome
+        assertEquals(0, runRepo.renewLease(id, "node-a", after, after.plus(LEASE)));
+        assertEquals(0, runRepo.finish(id, "node-a", RunStatus.COMPLETED, after, null));
+
+        RunEntity reclaimed = runRepo.findById(id).orElseThrow();
+        assertEquals("node-b", reclaimed.getLeaseOwner());
+        assertEquals(2, reclaimed.getAttempts());
+
+        // a second lapse with the attempts used up fails the run instead of handing it out again
+        Instant later = after.plus(LEASE).plusSeconds(1);
+        assertEquals(1, runRepo.failAbandoned(later, 2));
+        assertEquals(RunStatus.FAILED, runRepo.findById(id).orElseThrow().getStatus());
+        assertTrue(runRepo.findClaimableHeads(later, 10, 10).isEmpty());
+    }
+
+    /** One dispatcher pass as {@code RunQueueService} does it: heads, row locks, then compare-and-set. */
+    private List<UUID> claimRound(String owner, int slots) {
+        Instant now = Instant.now();
+        List<UUID> heads = runRepo.findClaimableHeads(now, slots, slots * 3).stream()
+                .map(row -> UUID.fromString((String) row[0])).limit(slots).toList();
+        if (heads.isEmpty()) return List.of();
+        List<UUID> claimed = new ArrayList<>();
+        for (String locked : runRepo.lockClaimable(now, heads)) {
+            UUID id = UUID.fromString(locked);
+            if (runRepo.claim(id, owner, now, now.plus(LEASE)) == 1) claimed.add(id);
+        }
+        return claimed;
+    }
+}
@@ -0,0 +1,70 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.RunStatus;
+import com.task.hwai.repo.RunRepo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class AdmissionServiceTest {
+
+    @Mock
+    private RunRepo runRepo;
+
+    @Test
+    public void testTryAcquire_RefusesOverLimitAndReleasesOnClose() {
+        AdmissionService admission = new AdmissionService(runRepo, 1, 4, 100, 0, 300);
+        var both = EnumSet.of(AdmissionService.Work.OCR, AdmissionService.Work.LLM);
+
+        var first = admission.tryAcquire(both);
+        assertNotNull(first);
+        assertNull(admission.tryAcquire(both));
+        // the refused attempt must not leak its LLM slot
+        assertEquals(1, admission.stats().get("llmInFlight"));
+
+        first.close();
+        first.close();
+        assertEquals(0, admission.stats().get("ocrInFlight"));
+        assertNotNull(admission.tryAcquire(both));
+    }
+
+    @Test
+    public void testRetryAfter_FollowsDrainRate() {
+        AdmissionService admission = new AdmissionService(runRepo, 8, 8, 10, 0, 300);
+        when(runRepo.countByStatus(RunStatus.QUEUED)).thenReturn(30L);
+
+        // nothing has drained yet: clients are sent away for the maximum
+        assertEquals(300, admission.admitRun().retryAfterSeconds());
+
+        for (int second = 0; second < 30; second++) {
+            for (int i = 0; i < 4; i++) admission.acquire(EnumSet.of(AdmissionService.Work.OCR)).close();
+            admission.sampleDrainRate();
+        }
+        // ~4 runs/s drain the 21 runs over the limit in about 6 s
+        assertEquals(6, admission.admitRun().retryAfterSeconds());
+    }
+
+    @Test
+    public void testQueuedWorkHasItsOwnBudget() {
+        AdmissionService admission = new AdmissionService(runRepo, 1, 1, 100, 0, 300);
+        var both = EnumSet.of(AdmissionService.Work.OCR, AdmissionService.Work.LLM);
+
+        var queued = admission.acquire(EnumSet.of(AdmissionService.Work.OCR));
+        admission.acquire(EnumSet.of(AdmissionService.Work.LLM));
+        admission.acquire(EnumSet.of(AdmissionService.Work.LLM));
+
+        assertNotNull(admission.tryAcquire(both));
+        assertEquals(1, admission.stats().get("ocrInFlight"));
+        assertEquals(1, admission.stats().get("queuedOcrInFlight"));
+        assertEquals(2, admission.stats().get("queuedLlmInFlight"));
+        queued.close();
+        assertEquals(0, admission.stats().get("queuedOcrInFlight"));
+    }
+}
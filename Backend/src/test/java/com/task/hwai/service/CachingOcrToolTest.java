@@ -0,0 +1,122 @@
+package com.task.hwai.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingOcrToolTest {
+
+    @TempDir
+    Path tmp;
+
+    @Mock
+    private RoutingOcrTool routing;
+
+    private CachingOcrTool cache() {
+        return new CachingOcrTool(routing, true, tmp.resolve("ocr-cache").toString(), 10, 1 << 20);
+    }
+
+    private Path file(String name, String content) throws Exception {
+        return Files.writeString(tmp.resolve(name), content);
+    }
+
+    private static List<OcrTool.PageResult> pages(String text) {
+        return List.of(new OcrTool.PageResult(1, List.of(new OcrTool.Token(text, 0.75f)), List.of()));
+    }
+
+    @Test
+    public void testExtract_SameContentIsOcrdOnceAndSurvivesRestart() throws Exception {
+        when(routing.versionFor(any())).thenReturn("remote-1");
+        Path a = file("a.png", "scan");
+        Path copy = file("copy-of-a.png", "scan");
+        when(routing.extractAsync(a)).thenReturn(CompletableFuture.completedFuture(pages("Name: Ada")));
+
+        CachingOcrTool cache = cache();
+        cache.extract(a);
+        assertEquals("Name: Ada", cache.extract(copy).get(0).getTokens().get(0).getText());
+        assertEquals(1L, cache.stats().get("memoryHits"));
+
+        var restarted = cache().extract(copy);
+        assertEquals("Name: Ada", restarted.get(0).getTokens().get(0).getText());
+        assertEquals(0.75f, restarted.get(0).getTokens().get(0).getConfidence());
+        verify(routing, times(1)).extractAsync(any());
+    }
+
+    @Test
+    public void testExtract_EngineVersionIsPartOfKey() throws Exception {
+        Path a = file("a.png", "scan");
+        when(routing.extractAsync(a)).thenReturn(CompletableFuture.completedFuture(pages("v1")),
+                CompletableFuture.completedFuture(pages("v2")));
+        CachingOcrTool cache = cache();
+
+        when(routing.versionFor(any())).thenReturn("tesseract-5.3.0-eng-psm3");
+        cache.extract(a);
+        when(routing.versionFor(any())).thenReturn("tesseract-5.4.0-eng-psm3");
+
+        assertEquals("v2", cache.extract(a).get(0).getTokens().get(0).getText());
+    }
+
+    @Test
+    public void testExtract_ConcurrentMissesShareOneExtraction() throws Exception {
+        when(routing.versionFor(any())).thenReturn("remote-1");
+        Path a = file("a.png", "scan");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(routing.extractAsync(a)).thenAnswer(inv -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return CompletableFuture.completedFuture(pages("shared"));
+        });
+        CachingOcrTool cache = cache();
+
+        var first = CompletableFuture.supplyAsync(() -> call(cache, a));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        var second = CompletableFuture.supplyAsync(() -> call(cache, a));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+        verify(routing, times(1)).extractAsync(any());
+    }
+
+    @Test
+    public void testExtractAsync_MissDoesNotBlockAndIsShared() throws Exception {
+        when(routing.versionFor(any())).thenReturn("remote-1");
+        Path a = file("a.png", "scan");
+        CompletableFuture<List<OcrTool.PageResult>> remote = new CompletableFuture<>();
+        when(routing.extractAsync(a)).thenReturn(remote);
+        CachingOcrTool cache = cache();
+
+        var first = cache.extractAsync(a);
+        var second = cache.extractAsync(a);
+        assertFalse(first.isDone());
+        second.cancel(true);    // one caller giving up leaves the others waiting
+        remote.complete(pages("async"));
+
+        assertEquals("async", first.get(5, TimeUnit.SECONDS).get(0).getTokens().get(0).getText());
+        assertTrue(cache.extractAsync(a).isDone());
+        verify(routing, times(1)).extractAsync(any());
+    }
+
+    private static List<OcrTool.PageResult> call(CachingOcrTool cache, Path path) {
+        try {
+            return cache.extract(path);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.ExtractionResult;
+import com.task.hwai.repo.LlmCacheRepo;
+import com.task.hwai.repo.RunRepo;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.Tracer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ExtractionPipelineTest {
+
+    @Mock
+    private ChatModel chatModel;
+
+    @Mock
+    private OcrTool ocr;
+
+    @Mock
+    private TemplateExtractor templates;
+
+    @Mock
+    private LlmCacheRepo llmCacheRepo;
+
+    @Mock
+    private RunRepo runRepo;
+
+    @Mock
+    private Tracer tracer;
+
+    @Mock
+    private SpanBuilder spanBuilder;
+
+    @Mock
+    private Span span;
+
+    private AdmissionService admission;
+
+    private ExtractionPipeline pipeline;
+
+    private static RunContext ctx() {
+        return new RunContext(UUID.randomUUID(), Duration.ofMinutes(1));
+    }
+
+    @BeforeEach
+    public void setUp() {
+        lenient().when(tracer.spanBuilder(anyString())).thenReturn(spanBuilder);
+        lenient().when(spanBuilder.setAttribute(anyString(), anyString())).thenReturn(spanBuilder);
+        lenient().when(spanBuilder.startSpan()).thenReturn(span);
+        admission = new AdmissionService(runRepo, 1, 1, 100, 0, 300);
+        pipeline = new ExtractionPipeline(new LangChainExtractionService(chatModel, ocr, tracer, new ConfidenceGate(true, 0.9f), templates,
+                new LlmResponseCache(llmCacheRepo, true, 100, "1", 30), new PromptPayloadEncoder("compact", 0.6f), 4, 4000), admission, 1, 1, 1, 1, 8, 4);
+    }
+
+    @Test
+    public void testNextDocumentIsOcrdWhileLlmIsBusy() throws Exception {
+        CountDownLatch secondOcrDone = new CountDownLatch(2);
+        CountDownLatch releaseLlm = new CountDownLatch(1);
+        CountDownLatch inLlm = new CountDownLatch(1);
+        when(ocr.extract(any())).thenAnswer(inv -> {
+            secondOcrDone.countDown();
+            return List.of(new OcrTool.PageResult(1, List.of(), null));
+        });
+        when(chatModel.chat(anyList())).thenAnswer(inv -> {
+            inLlm.countDown();
+            releaseLlm.await(5, TimeUnit.SECONDS);
+            return ChatResponse.builder().aiMessage(AiMessage.from("{\"document_type\":\"invoice\"}")).build();
+        });
+
+        CompletableFuture<ExtractionResult> first = pipeline.submit("r1", ctx(),
+                () -> new ExtractionPipeline.Document("f1", Path.of("a.png")), s -> {}, r -> r);
+        CompletableFuture<ExtractionResult> second = pipeline.submit("r2", ctx(),
+                () -> new ExtractionPipeline.Document("f2", Path.of("b.png")), s -> {}, r -> r);
+
+        // with one LLM thread stuck on document 1, document 2 still gets through OCR
+        assertTrue(secondOcrDone.await(5, TimeUnit.SECONDS));
+        assertFalse(first.isDone());
+        // the queued run's LLM call is counted apart from the interactive budget (limit 1), which stays free
+        assertTrue(inLlm.await(5, TimeUnit.SECONDS));
+        assertEquals(1, admission.stats().get("queuedLlmInFlight"));
+        var interactive = admission.tryAcquire(java.util.EnumSet.of(AdmissionService.Work.OCR, AdmissionService.Work.LLM));
+        assertNotNull(interactive);
+        interactive.close();
+
+        releaseLlm.countDown();
+        assertEquals("invoice", first.get(5, TimeUnit.SECONDS).documentType());
+        assertEquals("r2", second.get(5, TimeUnit.SECONDS).runId());
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testStageFailureFailsTheFuture() throws Exception {
+        when(ocr.extract(any())).thenThrow(new IllegalStateException("OCR down"));
+
+        var future = pipeline.submit("r1", ctx(), () -> new ExtractionPipeline.Document("f1", Path.of("a.png")),
+                s -> {}, r -> r);
+
+        var error = assertThrows(Exception.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertEquals("OCR down", error.getCause().getMessage());
+        verifyNoInteractions(chatModel);
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testCancelAbortsInFlightLlmCallAndSkipsLaterStages() throws Exception {
+        CountDownLatch inLlm = new CountDownLatch(1);
+        when(ocr.extract(any())).thenReturn(List.of(new OcrTool.PageResult(1, List.of(), null)));
+        when(chatModel.chat(anyList())).thenAnswer(inv -> {
+            inLlm.countDown();
+            Thread.sleep(10_000);    // interrupted by the cancel
+            return null;
+        });
+        RunContext ctx = ctx();
+        List<String> persisted = new java.util.concurrent.CopyOnWriteArrayList<>();
+
+        var future = pipeline.submit("r1", ctx, () -> new ExtractionPipeline.Document("f1", Path.of("a.png")),
+                s -> {}, r -> persisted.add(r.runId()));
+        assertTrue(inLlm.await(5, TimeUnit.SECONDS));
+        ctx.cancel("Cancelled by request");
+
+        var error = assertThrows(Exception.class, () -> future.get(2, TimeUnit.SECONDS));
+        assertInstanceOf(RunContext.AbortedException.class, error.getCause());
+        assertTrue(persisted.isEmpty());
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testDeadlineCancelsContext() throws Exception {
+        RunContext ctx = new RunContext(UUID.randomUUID(), Duration.ofMillis(50));
+        CountDownLatch cancelled = new CountDownLatch(1);
+        ctx.onCancel(cancelled::countDown);
+
+        assertTrue(cancelled.await(2, TimeUnit.SECONDS));
+        assertTrue(ctx.abortReason().startsWith("Deadline"));
+        assertThrows(RunContext.AbortedException.class, ctx::checkActive);
+    }
+
+    @Test
+    public void testChunksOfOneDocumentShareTheLlmStage() throws Exception {
+        var chunked = new ExtractionPipeline(new LangChainExtractionService(chatModel, ocr, tracer, new ConfidenceGate(true, 0.9f),
+                templates, new LlmResponseCache(llmCacheRepo, true, 100, "1", 30), new PromptPayloadEncoder("compact", 0.6f), 1, 4000),
+                admission, 1, 1, 2, 1, 8, 2);
+        when(ocr.extract(any())).thenReturn(List.of(
+                new OcrTool.PageResult(1, List.of(new OcrTool.Token("Invoice 1", 0.5f)), List.of()),
+                new OcrTool.PageResult(2, List.of(new OcrTool.Token("Invoice 2", 0.5f)), List.of())));
+        CountDownLatch bothInFlight = new CountDownLatch(2);
+        when(chatModel.chat(anyList())).thenAnswer(inv -> {
+            bothInFlight.countDown();
+            // only returns once the other chunk's call is out as well
+            assertTrue(bothInFlight.await(5, TimeUnit.SECONDS));
+            int page = ((dev.langchain4j.data.message.UserMessage) inv.<List<?>>getArgument(0).get(1)).singleText().contains("## page 2") ? 2 : 1;
+            return ChatResponse.builder().aiMessage(AiMessage.from("{\"document_type\":\"invoice\",\"pages\":[{\"page\":"
+                    + page + ",\"fields\":{},\"tables\":[]}]}")).build();
+        });
+
+        ExtractionResult result = chunked.submit("r1", ctx(), () -> new ExtractionPipeline.Document("f1", Path.of("a.png")),
+                s -> {}, r -> r).get(10, TimeUnit.SECONDS);
+
+        assertEquals(List.of(1, 2), result.pages().stream().map(ExtractionResult.Page::page).toList());
+        verify(chatModel, times(2)).chat(anyList());
+        chunked.shutdown();
+    }
+}
@@ -0,0 +1,79 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.RunPriority;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FairRunSchedulerTest {
+
+    private static final Instant T0 = Instant.parse("2025-01-01T00:00:00Z");
+
+    @Test
+    public void testSelect_SmallTenantIsNotStuckBehindBulkTenant() {
+        FairRunScheduler scheduler = new FairRunScheduler(4, 0, 4, "");
+        List<FairRunScheduler.Candidate> candidates = new ArrayList<>();
+        for (int i = 0; i < 4; i++) candidates.add(run("bulk", RunPriority.BATCH, i));
+        candidates.add(run("small", RunPriority.BATCH, 100));
+
+        List<FairRunScheduler.Candidate> picks = scheduler.select(candidates, 2);
+
+        assertEquals(List.of("bulk", "small"), picks.stream().map(FairRunScheduler.Candidate::tenant).toList());
+    }
+
+    @Test
+    public void testSelect_InteractiveFirstAndBatchCapped() {
+        FairRunScheduler scheduler = new FairRunScheduler(4, 0, 1, "");
+        List<FairRunScheduler.Candidate> candidates = List.of(
+                run("a", RunPriority.BATCH, 0),
+                run("a", RunPriority.BATCH, 1),
+                run("b", RunPriority.INTERACTIVE, 5));
+
+        List<FairRunScheduler.Candidate> picks = scheduler.select(candidates, 4);
+
+        assertEquals(2, picks.size());
+        assertEquals(RunPriority.INTERACTIVE, picks.get(0).priority());
+        assertEquals(RunPriority.BATCH, picks.get(1).priority());
+    }
+
+    @Test
+    public void testSelect_WeightsShareSlotsProportionally() {
+        FairRunScheduler scheduler = new FairRunScheduler(8, 0, 8, "heavy=3");
+        List<FairRunScheduler.Candidate> candidates = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            candidates.add(run("heavy", RunPriority.BATCH, i));
+            candidates.add(run("light", RunPriority.BATCH, i));
+        }
+
+        List<FairRunScheduler.Candidate> picks = scheduler.select(candidates, 8);
+
+        assertEquals(6, picks.stream().filter(c -> c.tenant().equals("heavy")).count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStats_RecordsQueueWait() {
+        FairRunScheduler scheduler = new FairRunScheduler(2, 0, 0, "");
+        var run = run("a", RunPriority.INTERACTIVE, 0);
+
+        scheduler.started(run, T0.plusMillis(1500));
+
+        var interactive = (Map<String, Object>) scheduler.stats().get("interactive");
+        assertEquals(1, interactive.get("running"));
+        assertEquals(1500L, interactive.get("maxWaitMs"));
+        assertEquals(1500L, interactive.get("p95WaitMs"));
+
+        scheduler.finished(RunPriority.INTERACTIVE);
+        assertEquals(0, ((Map<String, Object>) scheduler.stats().get("interactive")).get("running"));
+    }
+
+    private static FairRunScheduler.Candidate run(String tenant, RunPriority priority, int second) {
+        return new FairRunScheduler.Candidate(UUID.randomUUID(), tenant, priority, T0.plusSeconds(second));
+    }
+}
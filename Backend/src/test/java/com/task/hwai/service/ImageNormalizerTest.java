@@ -0,0 +1,88 @@
+package com.task.hwai.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageNormalizerTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    public void testNormalize_PhotoBecomesSmallerGrayscalePngOnce() throws Exception {
+        ImageNormalizer normalizer = new ImageNormalizer(true, 100, tmp.toString());    // long edge <= 1170 px
+        BufferedImage photo = new BufferedImage(3000, 2000, BufferedImage.TYPE_INT_RGB);
+        var g = photo.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 3000, 2000);
+        g.setColor(Color.BLUE);
+        g.fillRect(100, 100, 800, 200);
+        g.dispose();
+        Path upload = tmp.resolve("photo.jpg");
+        ImageIO.write(photo, "jpg", upload.toFile());
+
+        Path normalized = normalizer.normalize(upload);
+
+        assertNotEquals(upload, normalized);
+        assertTrue(normalized.getFileName().toString().endsWith(".png"));
+        BufferedImage out = ImageIO.read(normalized.toFile());
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, out.getType());
+        assertEquals(1170, out.getWidth());
+        assertEquals(780, out.getHeight());
+
+        long written = Files.getLastModifiedTime(normalized).toMillis();
+        Files.setLastModifiedTime(normalized, java.nio.file.attribute.FileTime.fromMillis(written - 60_000));
+        assertEquals(normalized, normalizer.normalize(upload));
+    }
+
+    @Test
+    public void testNormalize_PassesThroughWhatItCannotImprove() throws Exception {
+        ImageNormalizer normalizer = new ImageNormalizer(true, 300, tmp.toString());
+        BufferedImage gray = new BufferedImage(200, 100, BufferedImage.TYPE_BYTE_GRAY);
+        Path png = tmp.resolve("scan.png");
+        ImageIO.write(gray, "png", png.toFile());
+        Path pdf = Files.writeString(tmp.resolve("form.pdf"), "%PDF-1.4");
+        Path junk = Files.writeString(tmp.resolve("junk.png"), "not an image");
+
+        assertEquals(png, normalizer.normalize(png));
+        assertEquals(pdf, normalizer.normalize(pdf));
+        assertEquals(junk, normalizer.normalize(junk));
+    }
+
+    @Test
+    public void testOrient_RotatesPerExifOrientation() {
+        BufferedImage src = new BufferedImage(4, 2, BufferedImage.TYPE_BYTE_GRAY);
+        src.getRaster().setSample(0, 0, 0, 255);    // white top-left pixel
+
+        BufferedImage cw = ImageNormalizer.orient(src, 6);      // stored rotated; display turned 90 degrees clockwise
+        assertEquals(2, cw.getWidth());
+        assertEquals(4, cw.getHeight());
+        assertEquals(255, cw.getRaster().getSample(1, 0, 0));
+
+        BufferedImage ccw = ImageNormalizer.orient(src, 8);
+        assertEquals(255, ccw.getRaster().getSample(0, 3, 0));
+
+        BufferedImage flipped = ImageNormalizer.orient(src, 3);
+        assertEquals(255, flipped.getRaster().getSample(3, 1, 0));
+    }
+
+    @Test
+    public void testOrientationFromExif_ReadsBothByteOrders() {
+        byte[] motorola = {'E', 'x', 'i', 'f', 0, 0, 'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0};
+        byte[] intel = {'E', 'x', 'i', 'f', 0, 0, 'I', 'I', 42, 0, 8, 0, 0, 0,
+                1, 0, 0x12, 0x01, 3, 0, 1, 0, 0, 0, 8, 0, 0, 0};
+
+        assertEquals(6, ImageNormalizer.orientationFromExif(motorola));
+        assertEquals(8, ImageNormalizer.orientationFromExif(intel));
+        assertEquals(1, ImageNormalizer.orientationFromExif(new byte[]{'J', 'F', 'I', 'F'}));
+    }
+}
@@ -1,9 +1,14 @@
 package com.task.hwai.service;
 
 import com.task.hwai.model.ExtractionResult;
+import com.task.hwai.repo.LlmCacheRepo;
 import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.SpanBuilder;
 import io.opentelemetry.api.trace.Tracer;
@@ -16,6 +21,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -30,6 +36,12 @@ public class LangChainExtractionServiceTest {
     @Mock
     private OcrTool ocr;
 
+    @Mock
+    private TemplateExtractor templates;
+
+    @Mock
+    private LlmCacheRepo llmCacheRepo;
+
     @Mock
     private Tracer tracer;
 
@@ -48,7 +60,24 @@ public class LangChainExtractionServiceTest {
         lenient().when(spanBuilder.setAttribute(anyString(), anyString())).thenReturn(spanBuilder);
         lenient().when(spanBuilder.startSpan()).thenReturn(span);
         
-        service = new LangChainExtractionService(chatModel, ocr, tracer);
+        service = service(4);
+    }
+
+    private LangChainExtractionService service(int maxPages) {
+        return new LangChainExtractionService(chatModel, ocr, tracer, new ConfidenceGate(true, 0.9f), templates,
+                new LlmResponseCache(llmCacheRepo, true, 100, "1", 30), new PromptPayloadEncoder("compact", 0.6f),
+                maxPages, 4000);
+    }
+
+    private static OcrTool.PageResult messyPage(int page) {
+        return new OcrTool.PageResult(page, List.of(new OcrTool.Token("Invoice " + page, 0.5f)), List.of());
+    }
+
+    // the pages of the request, as "## page N" headers of the compact payload
+    private static List<Integer> pagesAsked(List<ChatMessage> messages) {
+        String payload = ((UserMessage) messages.get(1)).singleText();
+        return java.util.regex.Pattern.compile("## page (\\d+)").matcher(payload).results()
+                .map(m -> Integer.parseInt(m.group(1))).toList();
     }
 
     @Test
@@ -106,4 +135,135 @@ public class LangChainExtractionServiceTest {
         assertEquals("generic_form", result.documentType());
         assertTrue(result.warnings().contains("LLM returned invalid JSON"));
     }
+
+    @Test
+    public void testExtractFromImage_ConfidentKeyValuePagesSkipLlm() throws Exception {
+        var clean = new OcrTool.PageResult(1,
+                List.of(new OcrTool.Token("name", "Ada", 0.98f), new OcrTool.Token("date", "2024-01-02", 0.95f)),
+                List.of(Map.<String, Object>of("name", "Ada", "date", "2024-01-02")));
+        when(ocr.extract(any())).thenReturn(List.of(clean));
+
+        ExtractionResult result = service.extractFromImage("file-123", "run-456", Path.of("test.png"));
+
+        assertEquals(1, result.pages().size());
+        assertEquals("Ada", result.pages().get(0).fields().get("name"));
+        verifyNoInteractions(chatModel);
+    }
+
+    @Test
+    public void testExtractFromImage_OnlyUncertainPagesGoToLlm() throws Exception {
+        var clean = new OcrTool.PageResult(1, List.of(new OcrTool.Token("name", "Ada", 0.98f)),
+                List.of(Map.<String, Object>of("name", "Ada")));
+        var messy = new OcrTool.PageResult(2, List.of(new OcrTool.Token("total", "1?0", 0.41f)),
+                List.of(Map.<String, Object>of("total", "1?0")));
+        when(ocr.extract(any())).thenReturn(List.of(clean, messy));
+        when(chatModel.chat(anyList())).thenReturn(ChatResponse.builder().aiMessage(AiMessage.from("""
+                {"document_type": "invoice", "pages": [{"page": 2, "fields": {"total": "150"}, "tables": []}], "warnings": []}
+                """)).build());
+
+        ExtractionResult result = service.extractFromImage("file-123", "run-456", Path.of("test.png"));
+
+        assertEquals(List.of(1, 2), result.pages().stream().map(ExtractionResult.Page::page).toList());
+        assertEquals("150", result.pages().get(1).fields().get("total"));
+        verify(chatModel).chat(argThat((List<ChatMessage> messages) ->
+                messages.get(1) instanceof UserMessage m && !m.singleText().contains("Ada")));
+    }
+
+    @Test
+    public void testExtractFromImage_FormTemplateSkipsFullOcrAndLlm() throws Exception {
+        when(templates.extract(any())).thenReturn(new TemplateExtractor.Result("intake",
+                new ExtractionResult.Page(1, Map.of("name", "Ada"), List.of())));
+
+        ExtractionResult result = service.extractFromImage("file-123", "run-456", Path.of("test.png"));
+
+        assertEquals("intake", result.documentType());
+        assertEquals("Ada", result.pages().get(0).fields().get("name"));
+        verifyNoInteractions(ocr, chatModel);
+    }
+
+    @Test
+    public void testExtractFromImage_IdenticalOcrReusesCachedAnswer() throws Exception {
+        when(ocr.extract(any())).thenReturn(List.of(new OcrTool.PageResult(1,
+                List.of(new OcrTool.Token("Invoice 42", 0.5f)), List.of())));
+        when(chatModel.chat(anyList())).thenReturn(ChatResponse.builder().aiMessage(AiMessage.from("""
+                {"document_type": "invoice", "pages": [{"page": 1, "fields": {"number": "42"}, "tables": []}], "warnings": []}
+                """)).build());
+
+        ExtractionResult first = service.extractFromImage("file-1", "run-1", Path.of("a.png"));
+        ExtractionResult second = service.extractFromImage("file-2", "run-2", Path.of("b.png"));
+
+        verify(chatModel, times(1)).chat(anyList());
+        verify(llmCacheRepo).save(any());
+        assertEquals(first.pages(), second.pages());
+        assertEquals("run-2", second.runId());
+        assertEquals("file-2", second.fileId());
+    }
+
+    @Test
+    public void testExtractFromImage_LongDocumentIsStructuredInChunksAndMerged() throws Exception {
+        when(ocr.extract(any())).thenReturn(List.of(messyPage(1), messyPage(2), messyPage(3)));
+        when(chatModel.chat(anyList())).thenAnswer(inv -> {
+            int page = pagesAsked(inv.getArgument(0)).get(0);
+            String type = page == 2 ? "receipt" : "invoice";
+            String warnings = page == 2 ? "[\"total unreadable\"]" : "[]";
+            return ChatResponse.builder().aiMessage(AiMessage.from("{\"document_type\": \"" + type
+                    + "\", \"pages\": [{\"page\": " + page + ", \"fields\": {\"number\": \"" + page
+                    + "\"}, \"tables\": []}], \"warnings\": " + warnings + "}")).build();
+        });
+
+        ExtractionResult result = service(1).extractFromImage("file-123", "run-456", Path.of("test.png"));
+
+        verify(chatModel, times(3)).chat(anyList());
+        assertEquals(List.of(1, 2, 3), result.pages().stream().map(ExtractionResult.Page::page).toList());
+        assertEquals("3", result.pages().get(2).fields().get("number"));
+        assertEquals("invoice", result.documentType());
+        assertEquals(List.of("Page 2: total unreadable"), result.warnings());
+    }
+
+    @Test
+    public void testExtractFromImage_CutOffAnswerIsAskedAgainInHalves() throws Exception {
+        when(ocr.extract(any())).thenReturn(List.of(messyPage(1), messyPage(2)));
+        when(chatModel.chat(anyList())).thenAnswer(inv -> {
+            List<Integer> asked = pagesAsked(inv.getArgument(0));
+            if (asked.size() > 1) {
+                return ChatResponse.builder().aiMessage(AiMessage.from("{\"document_type\": \"invoice\", \"pages\": [{\"page\": 1"))
+                        .finishReason(FinishReason.LENGTH).build();
+            }
+            // numbered from 1 within the chunk; put back in place by position
+            return ChatResponse.builder().aiMessage(AiMessage.from("{\"document_type\": \"invoice\", \"pages\": [{\"page\": 1, "
+                    + "\"fields\": {\"number\": \"" + asked.get(0) + "\"}, \"tables\": []}], \"warnings\": []}")).build();
+        });
+
+        ExtractionResult result = service(2).extractFromImage("file-123", "run-456", Path.of("test.png"));
+
+        verify(chatModel, times(3)).chat(anyList());
+        assertEquals(List.of(1, 2), result.pages().stream().map(ExtractionResult.Page::page).toList());
+        assertEquals("2", result.pages().get(1).fields().get("number"));
+        assertTrue(result.warnings().isEmpty());
+        verify(llmCacheRepo, times(2)).save(any());    // the cut-off answer is not kept
+    }
+
+    @Test
+    public void testExtractFromImage_MisnumberedPagesAreKeptAndReported() throws Exception {
+        when(ocr.extract(any())).thenReturn(List.of(messyPage(1), messyPage(2), messyPage(3), messyPage(4)));
+        when(chatModel.chat(anyList())).thenAnswer(inv -> {
+            List<ChatMessage> messages = inv.getArgument(0);
+            assertTrue(((SystemMessage) messages.get(0)).text().contains("never merge, split or renumber pages"));
+            List<Integer> asked = pagesAsked(messages);
+            if (asked.get(0) == 1) {
+                return ChatResponse.builder().aiMessage(AiMessage.from("{\"document_type\": \"invoice\", \"pages\": ["
+                        + "{\"page\": 1, \"fields\": {\"number\": \"1\"}}, {\"page\": 2, \"fields\": {\"number\": \"2\"}}]}")).build();
+            }
+            // pages 3 and 4 merged into one, counted from 1
+            return ChatResponse.builder().aiMessage(AiMessage.from("{\"document_type\": \"invoice\", \"pages\": ["
+                    + "{\"page\": 1, \"fields\": {\"number\": \"3+4\"}}]}")).build();
+        });
+
+        ExtractionResult result = service(2).extractFromImage("file-123", "run-456", Path.of("test.png"));
+
+        assertEquals(List.of(1, 2, 3), result.pages().stream().map(ExtractionResult.Page::page).toList());
+        assertEquals("1", result.pages().get(0).fields().get("number"));
+        assertEquals("3+4", result.pages().get(2).fields().get("number"));
+        assertEquals(List.of("Pages 3-4: LLM numbered page 3 as page 1"), result.warnings());
+    }
 }
@@ -0,0 +1,77 @@
+package com.task.hwai.service;
+
+import com.task.hwai.entity.LlmCacheEntity;
+import com.task.hwai.repo.LlmCacheRepo;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class LlmResponseCacheTest {
+
+    private final LlmCacheRepo repo = mock(LlmCacheRepo.class);
+
+    @Test
+    public void testKey_IgnoresWhitespaceButNotModelKindOrPromptVersion() {
+        LlmResponseCache cache = new LlmResponseCache(repo, true, 10, "1", 30);
+        LlmResponseCache.Key key = cache.key("extraction", "gpt-4o", "system", "{\"text\": \"Jane  Doe\"}\n");
+
+        assertEquals(key, cache.key("extraction", "gpt-4o", " system", "{\"text\":\n\"Jane Doe\"}"));
+        assertNotEquals(key, cache.key("agent", "gpt-4o", "system", "{\"text\": \"Jane Doe\"}"));
+        assertNotEquals(key, cache.key("extraction", "gpt-4o-mini", "system", "{\"text\": \"Jane Doe\"}"));
+        assertNotEquals(key.hash(), new LlmResponseCache(repo, true, 10, "2", 30)
+                .key("extraction", "gpt-4o", "system", "{\"text\": \"Jane Doe\"}").hash());
+    }
+
+    @Test
+    public void testGet_MemoryThenDatabaseThenMiss() {
+        LlmResponseCache cache = new LlmResponseCache(repo, true, 10, "1", 30);
+        LlmResponseCache.Key stored = cache.key("extraction", "gpt-4o", "s", "a");
+        LlmResponseCache.Key persisted = cache.key("extraction", "gpt-4o", "s", "b");
+        LlmCacheEntity row = new LlmCacheEntity();
+        row.setResponse("{\"from\":\"db\"}");
+        when(repo.findById(persisted.hash())).thenReturn(Optional.of(row));
+
+        cache.put(stored, "{\"from\":\"memory\"}");
+
+        assertEquals("{\"from\":\"memory\"}", cache.get(stored));
+        assertEquals("{\"from\":\"db\"}", cache.get(persisted));
+        assertEquals("{\"from\":\"db\"}", cache.get(persisted));    // now from memory
+        assertNull(cache.get(cache.key("extraction", "gpt-4o", "s", "c")));
+        verify(repo, times(1)).findById(persisted.hash());
+        verify(repo).touch(eq(persisted.hash()), any());
+        assertEquals(2L, cache.stats().get("memoryHits"));
+        assertEquals(1L, cache.stats().get("dbHits"));
+        assertEquals(1L, cache.stats().get("misses"));
+    }
+
+    @Test
+    public void testInvalidate_DropsMatchingEntriesFromBothTiers() {
+        LlmResponseCache cache = new LlmResponseCache(repo, true, 10, "1", 30);
+        LlmResponseCache.Key extraction = cache.key("extraction", "gpt-4o", "s", "a");
+        LlmResponseCache.Key agent = cache.key("agent", "gpt-4o", "s", "a");
+        cache.put(extraction, "{}");
+        cache.put(agent, "{}");
+        when(repo.deleteMatching("extraction", null)).thenReturn(1);
+        when(repo.findById(any())).thenReturn(Optional.empty());
+
+        assertEquals(1, cache.invalidate("extraction", null));
+
+        assertNull(cache.get(extraction));
+        assertEquals("{}", cache.get(agent));
+    }
+
+    @Test
+    public void testDisabled_NeverStoresOrHits() {
+        LlmResponseCache cache = new LlmResponseCache(repo, false, 10, "1", 30);
+        LlmResponseCache.Key key = cache.key("extraction", "gpt-4o", "s", "a");
+        cache.put(key, "{}");
+
+        assertNull(cache.get(key));
+        verifyNoInteractions(repo);
+    }
+}
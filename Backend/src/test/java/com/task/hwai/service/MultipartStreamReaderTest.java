@@ -0,0 +1,98 @@
+package com.task.hwai.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultipartStreamReaderTest {
+
+    private static final String BOUNDARY = "----hwaiBoundary7MA4YWxk";
+
+    @Test
+    public void testNextPart_StreamsPartsLargerThanTheBuffer() throws Exception {
+        byte[] scan = new byte[200_000];
+        new Random(42).nextBytes(scan);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"note\"\r\n\r\n"
+                + "hello\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"scan.png\"\r\n"
+                + "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        body.write(scan);
+        body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        var reader = new MultipartStreamReader(new ByteArrayInputStream(body.toByteArray()),
+                MultipartStreamReader.boundaryOf("multipart/form-data; boundary=" + BOUNDARY));
+
+        var note = reader.nextPart();
+        assertEquals("note", note.name());
+        assertNull(note.filename());
+
+        var file = reader.nextPart();
+        assertEquals("file", file.name());
+        assertEquals("scan.png", file.filename());
+        assertEquals("image/png", file.contentType());
+        assertArrayEquals(scan, file.body().readAllBytes());
+
+        assertNull(reader.nextPart());
+    }
+
+    @Test
+    public void testNextPart_SmallReadsOfATrickledBody() throws Exception {
+        Random random = new Random(7);
+        byte[][] parts = new byte[5][];
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new byte[30_000 + random.nextInt(100_000)];
+            random.nextBytes(parts[i]);
+            // near misses of the delimiter right before the real one
+            byte[] nearMiss = ("\r\n--" + BOUNDARY.substring(0, BOUNDARY.length() - 1)).getBytes(StandardCharsets.ISO_8859_1);
+            System.arraycopy(nearMiss, 0, parts[i], parts[i].length - nearMiss.length, nearMiss.length);
+            body.write(("--" + BOUNDARY + "\r\n"
+                    + "Content-Disposition: form-data; name=\"f" + i + "\"; filename=\"s" + i + ".png\"\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            body.write(parts[i]);
+            body.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        // the network hands out a few bytes at a time
+        var trickle = new FilterInputStream(new ByteArrayInputStream(body.toByteArray())) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1 + random.nextInt(3000)));
+            }
+        };
+        var reader = new MultipartStreamReader(trickle, BOUNDARY);
+
+        for (byte[] expected : parts) {
+            var part = reader.nextPart();
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            byte[] small = new byte[7];
+            for (int n; (n = part.body().read(small, 0, small.length)) != -1; ) read.write(small, 0, n);
+            assertArrayEquals(expected, read.toByteArray());
+        }
+        assertNull(reader.nextPart());
+    }
+
+    @Test
+    public void testNextPart_FailsOnTruncatedBody() throws Exception {
+        String body = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"a.jpg\"\r\n\r\n"
+                + "partial bytes";
+        var reader = new MultipartStreamReader(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)), BOUNDARY);
+
+        var part = reader.nextPart();
+        assertThrows(java.io.IOException.class, () -> part.body().readAllBytes());
+    }
+}
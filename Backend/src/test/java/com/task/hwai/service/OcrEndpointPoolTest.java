@@ -0,0 +1,60 @@
+package com.task.hwai.service;
+
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OcrEndpointPoolTest {
+
+    private static OcrEndpointPool pool(String urls) {
+        return new OcrEndpointPool(new OkHttpClient(), urls, 2, 500, true, 100);
+    }
+
+    @Test
+    public void testPick_FewestOutstandingHealthyEndpoint() {
+        OcrEndpointPool pool = pool("http://a:8000/upload, http://b:8000/upload,http://c:8000/upload");
+        var a = pool.endpoints().get(0);
+        var b = pool.endpoints().get(1);
+        var c = pool.endpoints().get(2);
+        pool.begin(a);
+        pool.begin(a);
+        pool.begin(b);
+
+        assertSame(c, pool.pick(null));
+        pool.failed(c, "refused");
+        assertSame(c, pool.pick(null), "one failure is not enough to eject");
+        pool.failed(c, "refused");
+        assertFalse(c.healthy());
+        assertSame(b, pool.pick(null));
+        assertSame(a, pool.pick(b));
+    }
+
+    @Test
+    public void testPick_AllEjected() {
+        OcrEndpointPool pool = pool("http://a:8000/upload,http://b:8000/upload");
+        for (var e : pool.endpoints()) {
+            pool.failed(e, "down");
+            pool.failed(e, "down");
+        }
+        assertNotNull(pool.pick(null), "a first attempt still goes somewhere");
+        assertNull(pool.pick(pool.endpoints().get(0)), "but there is nowhere to hedge to");
+    }
+
+    @Test
+    public void testHedgeDelay_P95WithFloor() {
+        OcrEndpointPool pool = pool("http://a:8000/upload,http://b:8000/upload");
+        var a = pool.endpoints().get(0);
+        assertTrue(pool.hedging());
+        assertEquals(-1, pool.hedgeDelayMs(), "no delay before enough calls are known");
+
+        for (int i = 1; i <= 100; i++) pool.succeeded(a, i * 10L);
+        assertEquals(950, pool.hedgeDelayMs());
+
+        OcrEndpointPool fast = pool("http://a:8000/upload,http://b:8000/upload");
+        for (int i = 0; i < 50; i++) fast.succeeded(fast.endpoints().get(0), 5);
+        assertEquals(100, fast.hedgeDelayMs(), "never below minDelayMs");
+
+        assertFalse(pool("http://a:8000/upload").hedging(), "a single endpoint can't hedge");
+    }
+}
@@ -0,0 +1,86 @@
+package com.task.hwai.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares decoding a large multi-page OCR response the old way (body to String,
+ * readTree, convertValue) with {@link OcrResponseParser}: time and bytes allocated
+ * per decode. Not a test (surefire skips it); run {@code main} after
+ * {@code mvn test-compile} with target/test-classes, target/classes and the test
+ * classpath. Optional argument: page count (default 200).
+ */
+public class OcrResponseParserBenchmark {
+
+    private static final ObjectMapper OM = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        byte[] body = response(pages);
+        System.out.printf("response: %d pages, %.1f MB%n", pages, body.length / 1e6);
+
+        for (int round = 0; round < 3; round++) {    // first rounds warm up the JIT
+            measure("tree     ", () -> legacy(body));
+            measure("streaming", () -> OcrResponseParser.parse(new ByteArrayInputStream(body)));
+        }
+    }
+
+    private interface Decode {
+        List<OcrTool.PageResult> run() throws Exception;
+    }
+
+    private static void measure(String name, Decode decode) throws Exception {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().threadId();
+        int iterations = 20;
+        long bytes0 = threads.getThreadAllocatedBytes(id);
+        long t0 = System.nanoTime();
+        int tokens = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (OcrTool.PageResult page : decode.run()) tokens += page.getTokens().size();
+        }
+        long nanos = System.nanoTime() - t0;
+        long bytes = threads.getThreadAllocatedBytes(id) - bytes0;
+        System.out.printf("%s  %7.2f ms/op  %8.2f MB allocated/op  (%d tokens)%n",
+                name, nanos / 1e6 / iterations, bytes / 1e6 / iterations, tokens / iterations);
+    }
+
+    private static byte[] response(int pages) throws Exception {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (int p = 0; p < pages; p++) {
+            Map<String, Object> fields = new java.util.LinkedHashMap<>();
+            for (int f = 0; f < 40; f++) fields.put("field_" + f, "value " + p + "/" + f + " handwritten entry");
+            List<String> lines = new ArrayList<>();
+            for (int l = 0; l < 60; l++) lines.add("line " + l + " of page " + p + " with some recognised words");
+            out.add(Map.of("fields", fields, "text", String.join("\n", lines), "lines", lines));
+        }
+        return OM.writeValueAsBytes(Map.of("extracted_data", Map.of("pages", out)));
+    }
+
+    // SimpleOcrTool's decoding before the streaming parser.
+    @SuppressWarnings("unchecked")
+    private static List<OcrTool.PageResult> legacy(byte[] bytes) throws Exception {
+        String body = new String(bytes, StandardCharsets.UTF_8);
+        JsonNode extracted = OM.readTree(body).get("extracted_data");
+        List<OcrTool.PageResult> pages = new ArrayList<>();
+        int idx = 1;
+        for (JsonNode pageNode : extracted.get("pages")) {
+            List<OcrTool.Token> tokens = new ArrayList<>();
+            List<Map<String, Object>> rawBlocks = new ArrayList<>();
+            Map<String, Object> fieldsMap = OM.convertValue(pageNode.get("fields"), Map.class);
+            rawBlocks.add(fieldsMap);
+            for (Object v : fieldsMap.values()) if (v != null) tokens.add(new OcrTool.Token(v.toString(), 0.0f));
+            tokens.add(new OcrTool.Token(pageNode.get("text").asText(""), 0.0f));
+            for (JsonNode ln : pageNode.get("lines")) tokens.add(new OcrTool.Token(ln.asText(""), 0.0f));
+            pages.add(new OcrTool.PageResult(idx++, tokens, rawBlocks));
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,86 @@
+package com.task.hwai.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OcrResponseParserTest {
+
+    private static List<OcrTool.PageResult> parse(String json) throws Exception {
+        return OcrResponseParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<String> texts(OcrTool.PageResult page) {
+        return page.getTokens().stream().map(OcrTool.Token::getText).toList();
+    }
+
+    @Test
+    public void testParse_PagesKeepTokenOrderFieldsTextLines() throws Exception {
+        var pages = parse("""
+                {"status": "ok", "extracted_data": {"pages": [
+                  {"lines": ["l1", "l2"], "text": "full", "fields": {"name": "Ada", "age": 36, "tags": {"a": 1}}},
+                  {"text": null},
+                  "junk"
+                ]}}""");
+
+        assertEquals(3, pages.size());
+        assertEquals(List.of("Ada", "36", "{a=1}", "full", "l1", "l2"), texts(pages.get(0)));
+        assertEquals(Map.of("name", "Ada", "age", 36, "tags", Map.of("a", 1)), pages.get(0).getRawBlocks().get(0));
+        assertEquals(List.of(""), texts(pages.get(1)));
+        assertEquals(3, pages.get(2).getPage());
+        assertTrue(pages.get(2).getTokens().isEmpty());
+    }
+
+    @Test
+    public void testParse_PayloadKeyPreferenceIsIndependentOfKeyOrder() throws Exception {
+        var pages = parse("{\"text\": \"fallback\", \"ocr-extract\": \"second\", \"extracted_data\": \"first\"}");
+
+        assertEquals(List.of("first"), texts(pages.get(0)));
+        assertEquals(List.of(Map.of("text", "first")), pages.get(0).getRawBlocks());
+    }
+
+    @Test
+    public void testParse_ParagraphsAndPlainObjects() throws Exception {
+        var paragraphs = parse("{\"paragraphs\": [\"Dear Sir\", 42, {\"x\": 1}]}").get(0);
+        assertEquals(List.of("Dear Sir", "42", ""), texts(paragraphs));
+        assertEquals(List.of("Dear Sir", 42, Map.of("x", 1)), paragraphs.getRawBlocks().get(0).get("paragraphs"));
+
+        var fields = parse("{\"name\": \"Ada\", \"score\": 0.5, \"ok\": true, \"none\": null}").get(0);
+        assertEquals(List.of("name: Ada", "score: 0.5", "ok: true", "none: "), texts(fields));
+        assertEquals(4, fields.getRawBlocks().get(0).size());
+    }
+
+    @Test
+    public void testParse_ConfidencesAndFieldKeys() throws Exception {
+        var page = parse("""
+                {"confidence": 0.9, "extracted_data": {"pages": [
+                  {"fields": {"name": {"value": "Ada", "confidence": 0.97}, "city": "Paris"}, "text": "note"},
+                  {"confidence": 0.5, "fields": {"total": "12"}}
+                ]}}
+                """);
+        var first = page.get(0).getTokens();
+        assertEquals("name", first.get(0).getKey());
+        assertEquals("Ada", first.get(0).getText());
+        assertEquals(0.97f, first.get(0).getConfidence());
+        assertEquals(0.9f, first.get(1).getConfidence(), "document confidence for fields without their own");
+        assertNull(first.get(2).getKey());
+        assertEquals("Ada", page.get(0).getRawBlocks().get(0).get("name"));
+        assertEquals(0.5f, page.get(1).getTokens().get(0).getConfidence());
+
+        var plain = parse("{\"name\": \"Ada\", \"confidence\": 3}").get(0);
+        assertEquals(List.of("name: Ada", "confidence: 3"), texts(plain));
+        assertEquals(0.0f, plain.getTokens().get(0).getConfidence(), "a form's own field, not a confidence");
+    }
+
+    @Test
+    public void testParse_NonObjectPayloads() throws Exception {
+        assertEquals(List.of("hello"), texts(parse("\"hello\"").get(0)));
+        assertEquals(List.of(""), texts(parse("{\"extracted_data\": [1, 2]}").get(0)));
+        assertEquals(List.of(""), texts(parse("").get(0)));
+    }
+}
@@ -0,0 +1,146 @@
+package com.task.hwai.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the columnar {@link OcrTool.PageResult} with the previous layout (a list of
+ * Token objects, each holding its own String) on a dense document: heap retained by
+ * one document, time and bytes allocated to build it, a pass over every token, and
+ * serialisation to JSON. Not a test (surefire skips it); run {@code main} after
+ * {@code mvn test-compile} with target/test-classes, target/classes and the test
+ * classpath. Optional arguments: pages (default 50), words per page (default 4000).
+ */
+public class PageResultBenchmark {
+
+    private static final ObjectMapper OM = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int words = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        String[] vocabulary = new String[5000];
+        for (int i = 0; i < vocabulary.length; i++) vocabulary[i] = "w" + Integer.toString(i * 7919, 36);
+        System.out.printf("document: %d pages x %d words%n", pages, words);
+
+        System.out.printf("retained   objects   %8.2f MB%n", retained(() -> legacy(pages, words, vocabulary)) / 1e6);
+        System.out.printf("retained   columnar  %8.2f MB%n", retained(() -> columnar(pages, words, vocabulary)) / 1e6);
+
+        for (int round = 0; round < 3; round++) {    // first rounds warm up the JIT
+            measure("build      objects ", () -> legacy(pages, words, vocabulary));
+            measure("build      columnar", () -> columnar(pages, words, vocabulary));
+        }
+        List<LegacyPage> legacyDoc = legacy(pages, words, vocabulary);
+        List<OcrTool.PageResult> columnarDoc = columnar(pages, words, vocabulary);
+        for (int round = 0; round < 3; round++) {
+            measure("scan       objects ", () -> {
+                long chars = 0;
+                for (LegacyPage p : legacyDoc) for (LegacyToken t : p.tokens) chars += t.text.length() + (t.confidence > 0.5f ? 1 : 0);
+                return chars;
+            });
+            measure("scan       columnar", () -> {
+                long chars = 0;
+                for (OcrTool.PageResult p : columnarDoc) {
+                    for (int i = 0; i < p.tokenCount(); i++) chars += p.text(i).length() + (p.confidence(i) > 0.5f ? 1 : 0);
+                }
+                return chars;
+            });
+            measure("json       objects ", () -> OM.writeValueAsBytes(legacyDoc).length);
+            measure("json       columnar", () -> OM.writeValueAsBytes(columnarDoc).length);
+        }
+    }
+
+    private interface Work {
+        Object run() throws Exception;
+    }
+
+    private static void measure(String name, Work work) throws Exception {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().threadId();
+        int iterations = 10;
+        long bytes0 = threads.getThreadAllocatedBytes(id);
+        long t0 = System.nanoTime();
+        Object sink = null;
+        for (int i = 0; i < iterations; i++) sink = work.run();
+        long nanos = System.nanoTime() - t0;
+        long bytes = threads.getThreadAllocatedBytes(id) - bytes0;
+        System.out.printf("%s  %7.2f ms/op  %8.2f MB allocated/op  (%s)%n",
+                name, nanos / 1e6 / iterations, bytes / 1e6 / iterations, sink instanceof List<?> l ? l.size() + " pages" : sink);
+    }
+
+    // Heap still in use while the document is referenced, after full collections.
+    private static long retained(Work build) throws Exception {
+        long before = usedAfterGc();
+        Object doc = build.run();
+        long after = usedAfterGc();
+        if (doc.hashCode() == 42) System.out.print("");    // keep doc reachable until measured
+        return after - before;
+    }
+
+    private static long usedAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return heap.getUsed();
+    }
+
+    // Mimics a dense Tesseract page: every word a token with its own confidence.
+    private static List<OcrTool.PageResult> columnar(int pages, int words, String[] vocabulary) {
+        List<OcrTool.PageResult> doc = new ArrayList<>(pages);
+        for (int p = 0; p < pages; p++) {
+            OcrTool.PageResult.Builder b = OcrTool.PageResult.builder();
+            for (int w = 0; w < words; w++) {
+                b.add(null, new String(vocabulary[(p * 31 + w) % vocabulary.length]), (w % 100) / 100f);
+            }
+            doc.add(b.build(p + 1, List.of()));
+        }
+        return doc;
+    }
+
+    private static List<LegacyPage> legacy(int pages, int words, String[] vocabulary) {
+        List<LegacyPage> doc = new ArrayList<>(pages);
+        for (int p = 0; p < pages; p++) {
+            List<LegacyToken> tokens = new ArrayList<>();
+            for (int w = 0; w < words; w++) {
+                tokens.add(new LegacyToken(new String(vocabulary[(p * 31 + w) % vocabulary.length]), (w % 100) / 100f));
+            }
+            doc.add(new LegacyPage(p + 1, tokens, List.of()));
+        }
+        return doc;
+    }
+
+    // OcrTool.PageResult and Token as they were before the columnar layout.
+    public static class LegacyPage {
+        private final int page;
+        private final List<LegacyToken> tokens;
+        private final List<Map<String, Object>> rawBlocks;
+
+        LegacyPage(int page, List<LegacyToken> tokens, List<Map<String, Object>> rawBlocks) {
+            this.page = page;
+            this.tokens = tokens;
+            this.rawBlocks = rawBlocks;
+        }
+
+        public int getPage() { return page; }
+        public List<LegacyToken> getTokens() { return tokens; }
+        public List<Map<String, Object>> getRawBlocks() { return rawBlocks; }
+    }
+
+    public static class LegacyToken {
+        private final String text;
+        private final float confidence;
+
+        LegacyToken(String text, float confidence) {
+            this.text = text;
+            this.confidence = confidence;
+        }
+
+        public String getText() { return text; }
+        public float getConfidence() { return confidence; }
+    }
+}
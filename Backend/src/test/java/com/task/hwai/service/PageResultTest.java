@@ -0,0 +1,72 @@
+package com.task.hwai.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageResultTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    @Test
+    public void testColumns_RoundTripManyTokens() {
+        OcrTool.PageResult.Builder b = OcrTool.PageResult.builder();
+        for (int i = 0; i < 1000; i++) {
+            b.add(i % 3 == 0 ? "field_" + i : null, "word" + i, i / 1000f);
+            if (i % 2 == 0) b.box(i, i + 1, 10, 12);
+        }
+        OcrTool.PageResult page = b.add(null, null, 0.5f).build(7, List.of());
+
+        assertEquals(7, page.getPage());
+        assertEquals(1001, page.tokenCount());
+        assertEquals("word999", page.text(999));
+        assertEquals("field_999", page.key(999));
+        assertNull(page.key(998));
+        assertEquals(0.5f, page.confidence(1000));
+        assertEquals("", page.text(1000));
+        assertArrayEquals(new int[]{998, 999, 10, 12}, page.box(998));
+        assertNull(page.box(999));
+        assertEquals("word42", page.getTokens().get(42).getText());
+    }
+
+    @Test
+    public void testJson_SameAsTokenObjects() throws Exception {
+        List<OcrTool.Token> tokens = List.of(
+                new OcrTool.Token("name", "Ada", 0.9f),
+                new OcrTool.Token("Dear Sir", 0.0f),
+                new OcrTool.Token(null, "word", 0.75f, new int[]{1, 2, 3, 4}));
+        List<Map<String, Object>> raw = List.of(Map.of("name", "Ada"));
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("page", 1);
+        List<Map<String, Object>> tokenJson = new ArrayList<>();
+        tokenJson.add(Map.of("key", "name", "text", "Ada", "confidence", 0.9f));
+        tokenJson.add(Map.of("text", "Dear Sir", "confidence", 0.0f));
+        tokenJson.add(Map.of("text", "word", "confidence", 0.75f, "box", List.of(1, 2, 3, 4)));
+        expected.put("tokens", tokenJson);
+        expected.put("rawBlocks", raw);
+
+        String json = om.writeValueAsString(new OcrTool.PageResult(1, tokens, raw));
+        assertEquals(om.readTree(om.writeValueAsString(expected)), om.readTree(json));
+    }
+
+    @Test
+    public void testDefaultConfidence_OnlyFillsUnknown() {
+        OcrTool.PageResult page = OcrTool.PageResult.builder()
+                .add("a", "1", Float.NaN)
+                .add("b", "2", 0.3f)
+                .build(1, List.of());
+
+        OcrTool.PageResult resolved = page.withDefaultConfidence(0.8f);
+        assertEquals(0.8f, resolved.confidence(0));
+        assertEquals(0.3f, resolved.confidence(1));
+        assertTrue(Float.isNaN(page.confidence(0)), "the original is unchanged");
+        assertSame(resolved, resolved.withDefaultConfidence(0.1f));
+    }
+}
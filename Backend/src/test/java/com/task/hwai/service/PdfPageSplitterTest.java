@@ -0,0 +1,77 @@
+package com.task.hwai.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PdfPageSplitterTest {
+
+    @TempDir
+    Path tmp;
+
+    private final PdfPageSplitter splitter = new PdfPageSplitter(true, 36, 3, 3);
+
+    @AfterEach
+    public void tearDown() {
+        splitter.shutdown();
+    }
+
+    @Test
+    public void testOcrPages_RunsPagesConcurrentlyAndKeepsOrder() throws Exception {
+        Path pdf = pdf(5);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        AtomicInteger calls = new AtomicInteger();
+
+        // Earlier pages are slower, so pages finish out of order.
+        List<OcrTool.PageResult> pages = splitter.ocrPages(pdf, page -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                int n = Integer.parseInt(page.getFileName().toString().replaceAll("\\D", ""));
+                Thread.sleep(150L - 25L * n);
+                assertTrue(Files.exists(page));
+                calls.incrementAndGet();
+                return List.of(new OcrTool.PageResult(1, List.of(new OcrTool.Token("page " + n, 0.9f)), List.of()));
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+
+        assertEquals(5, calls.get());
+        assertEquals(List.of(1, 2, 3, 4, 5), pages.stream().map(OcrTool.PageResult::getPage).toList());
+        assertEquals(List.of("page 1", "page 2", "page 3", "page 4", "page 5"),
+                pages.stream().map(p -> p.getTokens().get(0).getText()).toList());
+        assertTrue(peak.get() > 1, "pages should be OCR'd concurrently");
+        assertTrue(peak.get() <= 3, "fan-out is bounded by maxPagesInFlight");
+    }
+
+    @Test
+    public void testOcrPages_FailedPageFailsDocument() throws Exception {
+        Path pdf = pdf(4);
+
+        Exception error = assertThrows(IllegalStateException.class, () -> splitter.ocrPages(pdf, page -> {
+            if (page.getFileName().toString().equals("page-0002.png")) throw new IllegalStateException("page 2 unreadable");
+            return List.of(new OcrTool.PageResult(1, List.of(), List.of()));
+        }));
+        assertEquals("page 2 unreadable", error.getMessage());
+    }
+
+    private Path pdf(int pages) throws Exception {
+        Path pdf = tmp.resolve("form.pdf");
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pages; i++) doc.addPage(new PDPage(PDRectangle.A6));
+            doc.save(pdf.toFile());
+        }
+        return pdf;
+    }
+}
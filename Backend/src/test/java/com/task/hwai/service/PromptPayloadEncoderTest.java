@@ -0,0 +1,82 @@
+package com.task.hwai.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PromptPayloadEncoderTest {
+
+    private final PromptPayloadEncoder encoder = new PromptPayloadEncoder("compact", 0.6f);
+
+    @Test
+    public void testCompact_FieldsOnceWithoutDefaultConfidences() throws Exception {
+        // as the parser reads a "pages" response: every field both as a keyed token and in rawBlocks
+        var page = new OcrTool.PageResult(1, List.of(
+                new OcrTool.Token("name", "Ada Lovelace", 0f),
+                new OcrTool.Token("total", "1?0", 0.41f),
+                new OcrTool.Token("note", "call back", 0f)),
+                List.of(Map.<String, Object>of("name", "Ada Lovelace", "total", "1?0"),
+                        Map.<String, Object>of("items", List.of(Map.of("qty", 2)), "empty", "")));
+
+        String text = encoder.compact(List.of(page));
+
+        assertTrue(text.startsWith("## page 1\n"));
+        assertEquals(1, text.split("Ada Lovelace", -1).length - 1);
+        assertTrue(text.contains("total: 1?0 (?41%)\n"));
+        assertTrue(text.contains("items: [{\"qty\":2}]\n"));
+        assertTrue(text.contains("note: call back\n"));
+        assertFalse(text.contains("empty"));
+        assertFalse(text.contains("confidence"));
+    }
+
+    @Test
+    public void testCompact_ParsedResponsesSendEachValueOnce() throws Exception {
+        String fields = encoder.compact(parse("{\"extracted_data\":{\"name\":\"Ada\",\"address\":{\"city\":\"X\"}}}"));
+        assertEquals("## page 1\nname: Ada\naddress: {\"city\":\"X\"}\n", fields);
+
+        String paragraphs = encoder.compact(parse("{\"paragraphs\":[\"Hello world\",\"Second line\"]}"));
+        assertEquals("## page 1\nHello world Second line\n", paragraphs);
+
+        String plain = encoder.compact(parse("{\"text\":\"Invoice 42\"}"));
+        assertEquals("## page 1\nInvoice 42\n", plain);
+    }
+
+    private static List<OcrTool.PageResult> parse(String json) throws Exception {
+        return OcrResponseParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testCompact_FreeTextKeepsLinesFromWordBoxes() throws Exception {
+        var page = OcrTool.PageResult.builder();
+        page.add(null, "Invoice", 0.95f).box(10, 10, 80, 20);
+        page.add(null, "42", 0.95f).box(100, 12, 20, 20);
+        page.add(null, "Total", 0.3f).box(10, 40, 50, 20);
+        var second = new OcrTool.PageResult(2, List.of(new OcrTool.Token("no boxes here", 0f)), List.of());
+
+        String text = encoder.compact(List.of(page.build(1, List.of()), second));
+
+        assertEquals("## page 1\nInvoice 42\nTotal (?30%)\n\n## page 2\nno boxes here\n", text);
+    }
+
+    @Test
+    public void testEncode_ReportsTokensOfBothForms() throws Exception {
+        var page = new OcrTool.PageResult(1, List.of(
+                new OcrTool.Token("name", "Ada Lovelace", 0f),
+                new OcrTool.Token("date", "2024-01-02", 0f)),
+                List.of(Map.<String, Object>of("name", "Ada Lovelace", "date", "2024-01-02")));
+
+        PromptPayloadEncoder.Payload compact = encoder.encode(List.of(page), "gpt-4o");
+        PromptPayloadEncoder.Payload json = new PromptPayloadEncoder("json", 0.6f).encode(List.of(page), "gpt-4o");
+
+        assertTrue(compact.tokens() < compact.jsonTokens() / 2, compact.tokens() + " vs " + compact.jsonTokens());
+        assertEquals(json.jsonTokens(), compact.jsonTokens());
+        assertEquals(json.tokens(), json.jsonTokens());
+        assertTrue(json.text().startsWith("{\"pages\":"));
+        assertEquals(1L, encoder.stats().get("payloads"));
+    }
+}
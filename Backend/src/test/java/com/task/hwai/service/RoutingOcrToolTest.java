@@ -0,0 +1,84 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.OcrEngine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RoutingOcrToolTest {
+
+    private static final Path FORM = Path.of("form.png");
+    private static final List<OcrTool.PageResult> PAGES =
+            List.of(new OcrTool.PageResult(1, List.of(new OcrTool.Token("Name", 0.9f)), List.of()));
+
+    @Mock
+    private SimpleOcrTool remote;
+
+    @Mock
+    private TesseractOcrTool tesseract;
+
+    @Mock
+    private PdfPageSplitter pdfPages;
+
+    private final ImageNormalizer passThrough = new ImageNormalizer(false, 300, "./storage");
+
+    @Test
+    public void testExtract_UsesEngineRequestedByRun() throws Exception {
+        RoutingOcrTool tool = new RoutingOcrTool(remote, tesseract, pdfPages, passThrough, "remote", "");
+        when(tesseract.extract(FORM)).thenReturn(PAGES);
+
+        RunContext ctx = new RunContext(UUID.randomUUID(), Duration.ofMinutes(1));
+        ctx.setOcrEngine(OcrEngine.TESSERACT);
+        try (var bound = ctx.bind()) {
+            assertSame(PAGES, tool.extract(FORM));
+        } finally {
+            ctx.close();
+        }
+        verifyNoInteractions(remote);
+    }
+
+    @Test
+    public void testExtract_FallsBackWhenDefaultEngineFails() throws Exception {
+        RoutingOcrTool tool = new RoutingOcrTool(remote, tesseract, pdfPages, passThrough, "remote", "tesseract");
+        when(remote.extract(FORM)).thenThrow(new RuntimeException("Python OCR server returned: 503"));
+        when(tesseract.extract(FORM)).thenReturn(PAGES);
+
+        assertSame(PAGES, tool.extract(FORM));
+    }
+
+    @Test
+    public void testExtract_NoFallbackForAbortedRun() throws Exception {
+        RoutingOcrTool tool = new RoutingOcrTool(remote, tesseract, pdfPages, passThrough, "remote", "tesseract");
+        when(remote.extract(any())).thenThrow(new RunContext.AbortedException("Cancelled by request"));
+
+        assertThrows(RunContext.AbortedException.class, () -> tool.extract(FORM));
+        verifyNoInteractions(tesseract);
+    }
+
+    @Test
+    public void testExtractAsync_FallsBackWhenRemoteCallFails() throws Exception {
+        RoutingOcrTool tool = new RoutingOcrTool(remote, tesseract, pdfPages, passThrough, "remote", "tesseract");
+        CompletableFuture<List<OcrTool.PageResult>> call = new CompletableFuture<>();
+        when(remote.extractAsync(FORM)).thenReturn(call);
+        when(tesseract.extractAsync(FORM)).thenReturn(CompletableFuture.completedFuture(PAGES));
+
+        var pages = tool.extractAsync(FORM);
+        assertFalse(pages.isDone(), "returns while the remote call is in flight");
+        call.completeExceptionally(new RuntimeException("Python OCR server returned: 503"));
+
+        assertSame(PAGES, pages.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,104 @@
+package com.task.hwai.service;
+
+import com.task.hwai.entity.RunEntity;
+import com.task.hwai.model.RunEvent;
+import com.task.hwai.model.RunStatus;
+import com.task.hwai.repo.RunRepo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class RunEventBusTest {
+
+    @Mock
+    private RunRepo runRepo;
+
+    @Mock
+    private ExtractionService extractionService;
+
+    @Test
+    public void testSubscribe_UnknownRun() {
+        RunEventBus bus = new RunEventBus(runRepo, extractionService, 60_000, 1);
+        assertNull(bus.subscribe(UUID.randomUUID()));
+    }
+
+    @Test
+    public void testTerminalEventClosesSubscriptions() throws Exception {
+        RunEventBus bus = new RunEventBus(runRepo, extractionService, 60_000, 1);
+        RunEntity run = new RunEntity();
+        run.setStatus(RunStatus.QUEUED);
+        when(runRepo.existsById(run.getRunId())).thenReturn(true);
+        when(runRepo.findById(run.getRunId())).thenReturn(Optional.of(run));
+
+        assertNotNull(bus.subscribe(run.getRunId()));
+        assertNotNull(bus.subscribe(run.getRunId()));
+        assertEquals(2, bus.subscriberCount());
+
+        bus.publish(RunEvent.stage(run.getRunId(), "ocr_done"));
+        bus.publish(new RunEvent(run.getRunId(), "failed", RunStatus.FAILED, Instant.now(), null, "boom"));
+
+        awaitNoSubscribers(bus);
+        assertEquals(0, bus.subscriberCount());
+        bus.shutdown();
+    }
+
+    @Test
+    public void testSweepPicksUpTransitionsFromOtherNodes() throws Exception {
+        RunEventBus bus = new RunEventBus(runRepo, extractionService, 60_000, 2);
+        RunEntity run = new RunEntity();
+        run.setStatus(RunStatus.PROCESSING);
+        when(runRepo.existsById(run.getRunId())).thenReturn(true);
+        when(runRepo.findById(run.getRunId())).thenReturn(Optional.of(run));
+        bus.subscribe(run.getRunId());
+
+        RunEntity finished = new RunEntity();
+        finished.setRunId(run.getRunId());
+        finished.setStatus(RunStatus.FAILED);
+        finished.setError("worker lost");
+        when(runRepo.findAllById(any())).thenReturn(List.of(finished));
+        bus.sweep();
+
+        awaitNoSubscribers(bus);
+        assertEquals(0, bus.subscriberCount());
+        bus.shutdown();
+    }
+
+    @Test
+    public void testSweepDoesNotRepeatTheSnapshotSentOnSubscribe() {
+        List<RunEvent> published = new CopyOnWriteArrayList<>();
+        RunEventBus bus = new RunEventBus(runRepo, extractionService, 60_000, 1) {
+            @Override
+            public void publish(RunEvent event) {
+                published.add(event);
+                super.publish(event);
+            }
+        };
+        RunEntity run = new RunEntity();
+        run.setStatus(RunStatus.PROCESSING);
+        when(runRepo.existsById(run.getRunId())).thenReturn(true);
+        when(runRepo.findById(run.getRunId())).thenReturn(Optional.of(run));
+        when(runRepo.findAllById(any())).thenReturn(List.of(run));
+        bus.subscribe(run.getRunId());
+
+        bus.sweep();
+
+        assertTrue(published.isEmpty(), "re-sent " + published);
+        bus.shutdown();
+    }
+
+    private static void awaitNoSubscribers(RunEventBus bus) throws InterruptedException {
+        for (int i = 0; i < 100 && bus.subscriberCount() > 0; i++) Thread.sleep(20);
+    }
+}
@@ -0,0 +1,61 @@
+package com.task.hwai.service;
+
+import com.task.hwai.repo.FileRepo;
+import com.task.hwai.repo.RunRepo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RunProcessorTest {
+
+    @Mock
+    private RunRepo runRepo;
+
+    @Mock
+    private FileRepo fileRepo;
+
+    @Mock
+    private ExtractionService extractionService;
+
+    @Mock
+    private ExtractionPipeline pipeline;
+
+    @Mock
+    private StorageService storage;
+
+    @Mock
+    private TransactionTemplate tx;
+
+    @Mock
+    private RunEventBus events;
+
+    @Test
+    public void testCancelledRunKeepsItsSlotUntilThePipelineUnwinds() {
+        CompletableFuture<Object> stage = new CompletableFuture<>();
+        when(pipeline.submit(anyString(), any(), any(), any(), any())).thenReturn(stage);
+        RunProcessor processor = new RunProcessor(runRepo, fileRepo, extractionService, pipeline, storage, tx, events);
+        UUID runId = UUID.randomUUID();
+        RunContext ctx = new RunContext(runId, Duration.ofMinutes(1));
+
+        CompletableFuture<Void> done = processor.process(runId, "node-1", ctx);
+        ctx.cancel("Cancelled by request");
+
+        // the OCR or LLM call is still unwinding: the worker slot is not free yet
+        assertFalse(done.isDone());
+
+        stage.completeExceptionally(new RunContext.AbortedException("Cancelled by request"));
+        assertTrue(done.isDone());
+        verify(runRepo).finish(eq(runId), eq("node-1"), any(), any(), eq("Cancelled by request"));
+    }
+}
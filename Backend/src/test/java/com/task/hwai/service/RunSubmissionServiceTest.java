@@ -0,0 +1,43 @@
+package com.task.hwai.service;
+
+import com.task.hwai.repo.FileRepo;
+import com.task.hwai.repo.RunRepo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RunSubmissionServiceTest {
+
+    @Mock
+    private FileRepo fileRepo;
+
+    @Mock
+    private RunRepo runRepo;
+
+    @Mock
+    private RunQueueService runQueue;
+
+    @Test
+    public void testTenantOf_HeaderOnlyFromTrustedKeys() throws Exception {
+        String gatewayDigest = HexFormat.of().formatHex(
+                MessageDigest.getInstance("SHA-256").digest("gateway-key".getBytes(StandardCharsets.UTF_8)));
+        var submissions = new RunSubmissionService(fileRepo, runRepo, runQueue, gatewayDigest.toUpperCase());
+
+        // an ordinary key stays in its own share whatever it claims to be
+        String own = submissions.tenantOf(null, "client-key");
+        assertTrue(own.startsWith("key-"));
+        assertEquals(own, submissions.tenantOf("acme", "client-key"));
+        assertEquals("anonymous", submissions.tenantOf("acme", null));
+
+        assertEquals("acme", submissions.tenantOf(" acme ", "gateway-key"));
+        assertEquals("key-" + gatewayDigest.substring(0, 12), submissions.tenantOf(null, "gateway-key"));
+    }
+}
@@ -0,0 +1,103 @@
+package com.task.hwai.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class S3BlobStoreTest {
+
+    private static final long PART = 5L * 1024 * 1024;
+    private static final Duration PIN = Duration.ofMinutes(10);
+
+    @Mock
+    private S3Client s3;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testPutAndFetch_LargeObjectUsesMultipartAndRangedGets() throws Exception {
+        byte[] scan = new byte[(int) (2 * PART + 12345)];
+        new Random(7).nextBytes(scan);
+        Path staged = tempDir.resolve("upload.part");
+        Files.write(staged, scan);
+
+        Map<Integer, byte[]> uploadedParts = new ConcurrentSkipListMap<>();
+        when(s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("u1").build());
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(inv -> {
+            UploadPartRequest req = inv.getArgument(0);
+            RequestBody body = inv.getArgument(1);
+            uploadedParts.put(req.partNumber(), body.contentStreamProvider().newStream().readAllBytes());
+            return UploadPartResponse.builder().eTag("etag-" + req.partNumber()).build();
+        });
+
+        S3BlobStore writer = new S3BlobStore(s3, "scans", tempDir.resolve("cache-a"), PART, 3, Long.MAX_VALUE, PIN);
+        String uri = writer.put("ab/abc.png", staged);
+
+        assertEquals("s3://scans/ab/abc.png", uri);
+        assertEquals(3, uploadedParts.size());
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        uploadedParts.values().forEach(joined::writeBytes);
+        assertArrayEquals(scan, joined.toByteArray());
+        verify(s3).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+
+        // A second node with a cold cache fetches the object back in ranges.
+        when(s3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().contentLength((long) scan.length).build());
+        when(s3.getObject(any(GetObjectRequest.class))).thenAnswer(inv -> {
+            String[] range = inv.<GetObjectRequest>getArgument(0).range().substring("bytes=".length()).split("-");
+            byte[] slice = Arrays.copyOfRange(scan, Integer.parseInt(range[0]), Integer.parseInt(range[1]) + 1);
+            return new ResponseInputStream<>(GetObjectResponse.builder().build(),
+                    AbortableInputStream.create(new ByteArrayInputStream(slice)));
+        });
+
+        S3BlobStore reader = new S3BlobStore(s3, "scans", tempDir.resolve("cache-b"), PART, 3, Long.MAX_VALUE, PIN);
+        Path local = reader.localPath(uri);
+
+        assertArrayEquals(scan, Files.readAllBytes(local));
+        verify(s3, times(3)).getObject(any(GetObjectRequest.class));
+
+        reader.localPath(uri);
+        verify(s3, times(3)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void testEvictionSkipsFilesHandedOutForReading() throws Exception {
+        when(s3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().contentLength(16L).build());
+        when(s3.getObject(any(GetObjectRequest.class))).thenAnswer(inv -> new ResponseInputStream<>(
+                GetObjectResponse.builder().build(), AbortableInputStream.create(new ByteArrayInputStream(new byte[16]))));
+        S3BlobStore store = new S3BlobStore(s3, "scans", tempDir.resolve("cache"), PART, 1, 20, PIN);
+
+        Path reading = store.localPath("s3://scans/aa/first.png");
+        // a later upload pushes the cache over its 20 bytes while the first file is still being OCR'd
+        store.put("bb/second.png", Files.write(tempDir.resolve("second.part"), new byte[16]));
+
+        assertTrue(Files.exists(reading));
+        assertFalse(Files.exists(tempDir.resolve("cache").resolve("bb/second.png")));
+        store.shutdown();
+    }
+}
@@ -0,0 +1,106 @@
+package com.task.hwai.service;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimpleOcrToolTest {
+
+    @TempDir
+    Path tmp;
+
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @AfterEach
+    public void stop() {
+        servers.forEach(s -> s.stop(0));
+    }
+
+    // An OCR replica answering /upload after delayMs with {"text": text}.
+    private String replica(String text, long delayMs, int status, AtomicInteger calls) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/upload", exchange -> {
+            calls.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = ("{\"text\": \"" + text + "\"}").getBytes(StandardCharsets.UTF_8);
+            try {
+                exchange.sendResponseHeaders(status, body.length);
+                exchange.getResponseBody().write(body);
+            } catch (Exception ignored) {
+                // the client gave up on this one
+            }
+            exchange.close();
+        });
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/upload";
+    }
+
+    @Test
+    public void testExtract_SlowReplicaIsHedged() throws Exception {
+        AtomicInteger slowCalls = new AtomicInteger();
+        AtomicInteger fastCalls = new AtomicInteger();
+        String slow = replica("slow", 3000, 200, slowCalls);
+        String fast = replica("fast", 0, 200, fastCalls);
+        OcrEndpointPool pool = new OcrEndpointPool(new OkHttpClient(), slow + "," + fast, 3, 500, true, 50);
+        for (int i = 0; i < 20; i++) pool.succeeded(pool.endpoints().get(1), 10);    // p95 known: 10ms
+        pool.begin(pool.endpoints().get(1));    // so the first call goes to the slow one
+
+        SimpleOcrTool tool = new SimpleOcrTool(new OkHttpClient(), pool, "1");
+        long started = System.nanoTime();
+        var pages = tool.extract(Files.writeString(tmp.resolve("form.png"), "scan"));
+
+        assertEquals("fast", pages.get(0).getTokens().get(0).getText());
+        assertTrue(System.nanoTime() - started < 2_000_000_000L, "did not wait for the slow replica");
+        assertEquals(1, slowCalls.get());
+        assertEquals(1, fastCalls.get());
+        assertEquals(1L, pool.stats().get("hedgeWins"));
+    }
+
+    @Test
+    public void testExtract_FailingReplicaIsEjected() throws Exception {
+        String broken = replica("boom", 0, 500, new AtomicInteger());
+        String ok = replica("ok", 0, 200, new AtomicInteger());
+        OcrEndpointPool pool = new OcrEndpointPool(new OkHttpClient(), broken + "," + ok, 1, 500, false, 50);
+        SimpleOcrTool tool = new SimpleOcrTool(new OkHttpClient(), pool, "1");
+        Path file = Files.writeString(tmp.resolve("form.png"), "scan");
+
+        pool.begin(pool.endpoints().get(1));    // the first call goes to the broken one
+        RuntimeException e = assertThrows(RuntimeException.class, () -> tool.extract(file));
+        assertTrue(e.getMessage().contains("500"));
+        pool.end(pool.endpoints().get(1));
+
+        assertFalse(pool.endpoints().get(0).healthy());
+        assertEquals("ok", tool.extract(file).get(0).getTokens().get(0).getText());
+    }
+
+    @Test
+    public void testExtractAsync_MissingFileFailsTheFuture() throws Exception {
+        OcrEndpointPool pool = new OcrEndpointPool(new OkHttpClient(), replica("ok", 0, 200, new AtomicInteger()), 1, 500, false, 50);
+        SimpleOcrTool tool = new SimpleOcrTool(new OkHttpClient(), pool, "1");
+
+        var pages = tool.extractAsync(tmp.resolve("gone.png"));
+
+        assertTrue(pages.isCompletedExceptionally());
+        assertThrows(IllegalArgumentException.class, () -> tool.extract(tmp.resolve("gone.png")));
+    }
+}
@@ -0,0 +1,153 @@
+package com.task.hwai.service;
+
+import com.task.hwai.entity.BlobEntity;
+import com.task.hwai.repo.BlobRepo;
+import com.task.hwai.repo.FileRepo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class StorageServiceTest {
+
+    @Mock
+    private BlobRepo blobRepo;
+
+    @Mock
+    private FileRepo fileRepo;
+
+    @TempDir
+    Path tempDir;
+
+    private final Map<String, BlobEntity> blobs = new HashMap<>();
+
+    private StorageService storage;
+
+    @BeforeEach
+    public void setUp() {
+        lenient().when(blobRepo.findById(anyString()))
+                .thenAnswer(inv -> Optional.ofNullable(blobs.get(inv.<String>getArgument(0))));
+        lenient().when(blobRepo.incrementRefCount(anyString(), any())).thenAnswer(inv -> {
+            BlobEntity b = blobs.get(inv.<String>getArgument(0));
+            if (b == null) return 0;
+            b.setRefCount(b.getRefCount() + 1);
+            return 1;
+        });
+        lenient().when(blobRepo.saveAndFlush(any())).thenAnswer(inv -> {
+            BlobEntity b = inv.getArgument(0);
+            blobs.put(b.getDigest(), b);
+            return b;
+        });
+
+        storage = new StorageService(tempDir.toString(), 1024, blobRepo,
+                new LocalBlobStore(tempDir.resolve("blobs")), new PackFileStore(tempDir.toString(), 1 << 20), fileRepo);
+    }
+
+    @Test
+    public void testSave_DeduplicatesIdenticalContent() throws Exception {
+        byte[] scan = "same scan bytes".getBytes(StandardCharsets.UTF_8);
+
+        var first = storage.save(new ByteArrayInputStream(scan), "f1", "phplWGuaA.png");
+        var second = storage.save(new ByteArrayInputStream(scan), "f2", "phplWGuaA.png");
+
+        assertFalse(first.deduplicated());
+        assertTrue(second.deduplicated());
+        assertEquals(first.digest(), second.digest());
+        assertEquals(first.storageUri(), second.storageUri());
+        assertTrue(first.storageUri().endsWith(".png"));
+        assertEquals(2, blobs.get(first.digest()).getRefCount());
+
+        try (var staged = Files.list(tempDir.resolve("staging"))) {
+            assertEquals(0, staged.count());
+        }
+    }
+
+    @Test
+    public void testSave_DistinctContentGetsDistinctBlobs() throws Exception {
+        var a = storage.save(new ByteArrayInputStream(new byte[]{1, 2, 3}), "f1", "a.jpg");
+        var b = storage.save(new ByteArrayInputStream(new byte[]{4, 5, 6}), "f2", "a.jpg");
+
+        assertNotEquals(a.digest(), b.digest());
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(storage.resolve(a.storageUri())));
+        assertArrayEquals(new byte[]{4, 5, 6}, Files.readAllBytes(storage.resolve(b.storageUri())));
+    }
+
+    @Test
+    public void testSave_RejectsOversizedStreamAndCleansUp() throws Exception {
+        assertThrows(MaxUploadSizeExceededException.class,
+                () -> storage.save(new ByteArrayInputStream(new byte[2048]), "big", "scan.pdf"));
+
+        try (var staged = Files.list(tempDir.resolve("staging"))) {
+            assertEquals(0, staged.count());
+        }
+        verify(blobRepo, never()).saveAndFlush(any());
+    }
+
+    @Test
+    public void testCommitDuringSweepNeverLosesTheLiveObject() throws Exception {
+        byte[] scan = "swept then re-uploaded".getBytes(StandardCharsets.UTF_8);
+        when(blobRepo.deleteIfUnreferenced(anyString(), any())).thenAnswer(inv -> {
+            BlobEntity b = blobs.get(inv.<String>getArgument(0));
+            if (b == null || b.getRefCount() > 0) return 0;
+            blobs.remove(b.getDigest());
+            return 1;
+        });
+        // the upload commits in the gap between the sweeper deleting the row and the object
+        StorageService[] racing = new StorageService[1];
+        StorageService.StoredBlob[] reuploaded = new StorageService.StoredBlob[1];
+        var store = new LocalBlobStore(tempDir.resolve("blobs")) {
+            @Override
+            public void delete(String storageUri) throws Exception {
+                if (reuploaded[0] == null) reuploaded[0] = racing[0].save(new ByteArrayInputStream(scan), "f2", "scan.png");
+                super.delete(storageUri);
+            }
+        };
+        storage = racing[0] = new StorageService(tempDir.toString(), 1024, blobRepo, store,
+                new PackFileStore(tempDir.toString(), 1 << 20), fileRepo);
+
+        var first = storage.save(new ByteArrayInputStream(scan), "f1", "scan.png");
+        BlobEntity orphan = blobs.get(first.digest());
+        orphan.setRefCount(0);
+        orphan.setLastReferencedAt(Instant.EPOCH);
+
+        assertTrue(storage.deleteBlob(orphan, Instant.now()));
+
+        assertNotEquals(first.storageUri(), reuploaded[0].storageUri());
+        assertEquals(reuploaded[0].storageUri(), blobs.get(first.digest()).getStorageUri());
+        assertArrayEquals(scan, Files.readAllBytes(storage.resolve(reuploaded[0].storageUri())));
+        assertFalse(store.exists(first.storageUri()));
+    }
+
+    @Test
+    public void testReusedUnpackedCopyIsTouched() throws Exception {
+        var packs = new PackFileStore(tempDir.toString(), 1 << 20);
+        Path loose = Files.write(tempDir.resolve("cold.png"), new byte[]{7, 8, 9});
+        var placement = packs.append("d1", loose);
+        Path copy = packs.extract(placement.packName(), placement.offset(), placement.length(), "cold.png");
+        Files.setLastModifiedTime(copy, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+
+        assertEquals(copy, packs.extract(placement.packName(), placement.offset(), placement.length(), "cold.png"));
+
+        // the lifecycle sweep drops unpacked copies idle for longer than its grace period
+        assertTrue(Files.getLastModifiedTime(copy).toInstant().isAfter(Instant.now().minus(Duration.ofMinutes(1))));
+    }
+}
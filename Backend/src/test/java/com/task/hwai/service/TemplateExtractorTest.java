@@ -0,0 +1,163 @@
+package com.task.hwai.service;
+
+import com.task.hwai.model.FormTemplate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class TemplateExtractorTest {
+
+    @TempDir
+    Path tmp;
+
+    private final List<FormTemplate.Region> fields = List.of(
+            new FormTemplate.Region("name", 0.10, 0.20, 0.60, 0.08),
+            new FormTemplate.Region("date", 0.10, 0.40, 0.30, 0.08));
+
+    @Test
+    public void testExtract_MatchingPageHasOnlyItsRegionsOcrd() throws Exception {
+        ImageNormalizer normalizer = new ImageNormalizer(false, 300, tmp.toString());
+        FormTemplateRegistry registry = new FormTemplateRegistry(tmp.resolve("templates").toString(), 24, normalizer);
+        registry.register("intake", write("blank.png", form(1200, 1600, false, false)), fields);
+
+        OcrTool ocr = mock(OcrTool.class);
+        when(ocr.extractAsync(any())).thenAnswer(inv -> {
+            BufferedImage crop = ImageIO.read(((Path) inv.getArgument(0)).toFile());
+            // the name box is twice as wide as the date box
+            String text = crop.getWidth() > 500 ? "Jane  Doe" : "2024-03-01";
+            return CompletableFuture.completedFuture(List.of(
+                    new OcrTool.PageResult(1, List.of(new OcrTool.Token(text, 0.8f)), List.of())));
+        });
+        TemplateExtractor extractor = new TemplateExtractor(registry, normalizer, ocr, true, 0.01);
+
+        // a filled-in copy, scanned at a different resolution
+        TemplateExtractor.Result result = extractor.extract(write("filled.png", form(900, 1200, false, true)));
+
+        assertNotNull(result);
+        assertEquals("intake", result.template());
+        assertEquals("Jane  Doe", result.page().fields().get("name"));
+        assertEquals("2024-03-01", result.page().fields().get("date"));
+        assertEquals(List.of("name", "date"), List.copyOf(result.page().fields().keySet()));
+        verify(ocr, times(2)).extractAsync(any());
+        double share = (double) extractor.stats().get("regionPixelShare");
+        assertTrue(share > 0 && share < 0.1, "OCR'd " + share + " of the page");
+    }
+
+    @Test
+    public void testExtract_RemoteFieldAnswersGiveTheirValues() throws Exception {
+        ImageNormalizer normalizer = new ImageNormalizer(false, 300, tmp.toString());
+        FormTemplateRegistry registry = new FormTemplateRegistry(tmp.resolve("templates").toString(), 24, normalizer);
+        registry.register("intake", write("blank.png", form(1200, 1600, false, false)), fields);
+
+        OcrTool ocr = mock(OcrTool.class);
+        when(ocr.extractAsync(any())).thenAnswer(inv -> {
+            BufferedImage crop = ImageIO.read(((Path) inv.getArgument(0)).toFile());
+            // what the Python service sends for a crop, through the real parser
+            String json = crop.getWidth() > 500 ? "{\"extracted_data\":{\"handwritten_text\":\"Jane Doe\"}}"
+                    : "{\"extracted_data\":{\"date\":\"2024-03-01\"}}";
+            return CompletableFuture.completedFuture(OcrResponseParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))));
+        });
+        TemplateExtractor extractor = new TemplateExtractor(registry, normalizer, ocr, true, 0.01);
+
+        TemplateExtractor.Result result = extractor.extract(write("filled.png", form(900, 1200, false, true)));
+
+        assertEquals("Jane Doe", result.page().fields().get("name"));
+        assertEquals("2024-03-01", result.page().fields().get("date"));
+    }
+
+    @Test
+    public void testExtract_FailedRegionCancelsTheOthers() throws Exception {
+        ImageNormalizer normalizer = new ImageNormalizer(false, 300, tmp.toString());
+        FormTemplateRegistry registry = new FormTemplateRegistry(tmp.resolve("templates").toString(), 24, normalizer);
+        registry.register("intake", write("blank.png", form(1200, 1600, false, false)), fields);
+
+        OcrTool ocr = mock(OcrTool.class);
+        CompletableFuture<List<OcrTool.PageResult>> pending = new CompletableFuture<>();
+        when(ocr.extractAsync(any()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("OCR service down")))
+                .thenReturn(pending);
+        TemplateExtractor extractor = new TemplateExtractor(registry, normalizer, ocr, true, 0.01);
+
+        assertThrows(IllegalStateException.class, () -> extractor.extract(write("filled.png", form(900, 1200, false, true))));
+        assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    public void testExtract_OtherLayoutsAndPdfsTakeTheNormalPath() throws Exception {
+        ImageNormalizer normalizer = new ImageNormalizer(false, 300, tmp.toString());
+        FormTemplateRegistry registry = new FormTemplateRegistry(tmp.resolve("templates").toString(), 24, normalizer);
+        registry.register("intake", write("blank.png", form(1200, 1600, false, false)), fields);
+        OcrTool ocr = mock(OcrTool.class);
+        TemplateExtractor extractor = new TemplateExtractor(registry, normalizer, ocr, true, 0.01);
+
+        assertNull(extractor.extract(write("other.png", form(1200, 1600, true, false))));
+        assertNull(extractor.extract(tmp.resolve("scan.pdf")));
+        verifyNoInteractions(ocr);
+        assertEquals(1L, extractor.stats().get("pagesUnmatched"));
+    }
+
+    @Test
+    public void testRegistry_PersistsTemplatesAndRejectsBadRegions() throws Exception {
+        ImageNormalizer normalizer = new ImageNormalizer(false, 300, tmp.toString());
+        String dir = tmp.resolve("templates").toString();
+        FormTemplateRegistry registry = new FormTemplateRegistry(dir, 24, normalizer);
+        Path blank = write("blank.png", form(1200, 1600, false, false));
+        FormTemplate registered = registry.register("intake", blank, fields);
+
+        FormTemplateRegistry reloaded = new FormTemplateRegistry(dir, 24, normalizer);
+        assertEquals(List.of(registered), reloaded.list());
+        assertEquals(0, reloaded.match(ImageIO.read(blank.toFile())).distance());
+
+        assertThrows(IllegalArgumentException.class, () -> registry.register("wide", blank,
+                List.of(new FormTemplate.Region("x", 0.5, 0.5, 0.6, 0.1))));
+        assertThrows(IllegalArgumentException.class, () -> registry.register("../escape", blank, fields));
+        assertTrue(reloaded.remove("intake"));
+        assertTrue(new FormTemplateRegistry(dir, 24, normalizer).isEmpty());
+    }
+
+    // A form with a header bar and two labelled boxes; the other layout has them on the right instead.
+    private static BufferedImage form(int w, int h, boolean otherLayout, boolean filled) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, w, h);
+        g.setColor(Color.DARK_GRAY);
+        g.fillRect(0, 0, w, h / 10);
+        double left = otherLayout ? 0.55 : 0.10;
+        box(g, w, h, left, 0.20, otherLayout ? 0.35 : 0.60);
+        box(g, w, h, left, 0.40, 0.30);
+        g.fillRect((int) (0.05 * w), (int) (0.70 * h), (int) (0.90 * w), h / 50);
+        if (filled) {
+            g.setColor(Color.BLUE);
+            g.drawString("Jane Doe", (int) (0.12 * w), (int) (0.25 * h));
+            g.drawString("2024-03-01", (int) (0.12 * w), (int) (0.45 * h));
+        }
+        g.dispose();
+        return img;
+    }
+
+    private static void box(Graphics2D g, int w, int h, double x, double y, double width) {
+        g.setStroke(new java.awt.BasicStroke(Math.max(2, w / 200f)));
+        g.drawRect((int) (x * w), (int) (y * h), (int) (width * w), (int) (0.08 * h));
+        g.fillRect((int) (x * w), (int) ((y - 0.03) * h), (int) (0.15 * w), h / 80);    // label
+    }
+
+    private Path write(String name, BufferedImage img) throws Exception {
+        Path p = tmp.resolve(name);
+        ImageIO.write(img, "png", p.toFile());
+        return p;
+    }
+}
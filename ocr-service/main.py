@@ -232,6 +232,9 @@ async def upload_file(file: UploadFile = File(...)):
                 "message": result["message"],
                 "extracted_data": result["extracted_data"]
             }
+            # Human-corrected results are certain; the backend may then skip LLM structuring
+            if result.get("source") == "cached_correction":
+                formatted_result["confidence"] = 1.0
             return JSONResponse(
                 content=formatted_result,
                 media_type="application/json"